@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.glieseframework.benchmarks;
+
+import org.glieseframework.core.Item;
+import org.glieseframework.core.Player;
+import org.glieseframework.core.UnmoderatedGroup;
+
+import org.glieseframework.game.GameProxy;
+
+import org.glieseframework.message.Message;
+
+import org.glieseframework.message.common.impl.ChatMessageImpl;
+
+import java.io.Serializable;
+
+import java.nio.ByteBuffer;
+
+import java.util.Collection;
+import java.util.Collections;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * Benchmarks sending through a {@code ChannelGroup}, which encodes the
+ * message once for the channel and then hands it to each member that
+ * isn't a client. The group runs against the managers installed by
+ * {@code StubContext}, so the channel send only counts bytes, and each
+ * member encodes the message as a {@code UserPlayer} would before passing
+ * the bytes to a {@code Blackhole}. Each operation sends a new message, so
+ * the cost of the first encode is included, and then runs any fan-out
+ * tasks that the send scheduled.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BroadcastBenchmark {
+
+    /** The number of members in the group. */
+    @Param({"1", "10", "100", "1000"})
+    public int members;
+
+    // the group under test
+    private UnmoderatedGroup group;
+
+    /** Creates the group and joins the members. */
+    @Setup
+    public void setup(Blackhole blackhole) {
+        StubContext.install();
+        group = new UnmoderatedGroup("benchmark", false);
+        for (int i = 0; i < members; i++) {
+            group.join(new StubPlayer(i, blackhole));
+        }
+    }
+
+    @Benchmark
+    public void sendChat() throws Exception {
+        group.send(new ChatMessageImpl("Well met, traveller", null));
+        StubContext.runTasks();
+    }
+
+    /** A member that encodes each message it is sent and drops it. */
+    private static final class StubPlayer implements Player, Serializable {
+        private static final long serialVersionUID = 1;
+        private final long id;
+        private final transient Blackhole blackhole;
+        StubPlayer(long id, Blackhole blackhole) {
+            this.id = id;
+            this.blackhole = blackhole;
+        }
+        public String getName() {
+            return "player" + id;
+        }
+        public long getId() {
+            return id;
+        }
+        public void send(Message message) {
+            ByteBuffer encoded = message.encodeMessage();
+            blackhole.consume(encoded);
+        }
+        public GameProxy getGameProxy() {
+            return null;
+        }
+        public boolean wantsToHearMessages() {
+            return true;
+        }
+        public Collection<? extends Item> getItems() {
+            return Collections.<Item>emptySet();
+        }
+    }
+
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.glieseframework.benchmarks;
+
+import org.glieseframework.game.Coordinate;
+
+import org.glieseframework.internal.MessageHandler;
+
+import org.glieseframework.message.Message;
+import org.glieseframework.message.MessageSpec;
+
+import org.glieseframework.message.common.ChatMessage;
+import org.glieseframework.message.common.ChatMessageHandler;
+import org.glieseframework.message.common.ChatMessageSpec;
+import org.glieseframework.message.common.CompactMovementMessageHandler;
+import org.glieseframework.message.common.ModeChangeMessage;
+import org.glieseframework.message.common.ModeChangeMessageHandler;
+import org.glieseframework.message.common.ModeChangeMessageSpec;
+import org.glieseframework.message.common.MovementMessage;
+import org.glieseframework.message.common.MovementMessageHandler;
+import org.glieseframework.message.common.MovementMessageSpec;
+
+import org.glieseframework.message.common.impl.WireProtocol;
+
+import java.nio.ByteBuffer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Benchmarks the standard message handlers on their own. For each message
+ * type this measures creating a message from its {@code MessageSpec},
+ * creating and encoding a message, and decoding an encoded message.
+ * <p>
+ * Messages cache their encoded form, so the encoding benchmarks create a
+ * new message for each operation rather than measuring the cache. The
+ * decoding benchmarks start from a duplicate of a buffer positioned after
+ * the message identifier, which is what a handler is given by the
+ * {@code MessageService}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+
+    // the handlers under test
+    private final MessageHandler chatHandler = new ChatMessageHandler();
+    private final MessageHandler movementHandler =
+        new MovementMessageHandler();
+    private final MessageHandler compactHandler =
+        new CompactMovementMessageHandler();
+    private final MessageHandler modeHandler = new ModeChangeMessageHandler();
+
+    // the specs used to create messages
+    private MessageSpec chatSpec;
+    private MessageSpec movementSpec;
+    private MessageSpec compactSpec;
+    private MessageSpec modeSpec;
+
+    // the encoded messages, positioned after their identifiers
+    private ByteBuffer chatPayload;
+    private ByteBuffer movementPayload;
+    private ByteBuffer compactPayload;
+    private ByteBuffer modePayload;
+
+    /** Creates the specs and encodes one message of each type. */
+    @Setup
+    public void setup() {
+        chatSpec = new ChatMessageSpec("Well met, traveller");
+        Coordinate location = new Coordinate(12.5f, 0f, 7.25f);
+        movementSpec = new MovementMessageSpec(location, 1.5f);
+        compactSpec = new MovementMessageSpec(location, 1.5f,
+                                              new Coordinate(12f, 0f, 7f));
+        modeSpec = new ModeChangeMessageSpec("LoggedOutMode");
+
+        chatPayload = payload(chatHandler.createMessage(chatSpec));
+        movementPayload = payload(movementHandler.createMessage(movementSpec));
+        compactPayload = payload(compactHandler.createMessage(compactSpec));
+        modePayload = payload(modeHandler.createMessage(modeSpec));
+    }
+
+    /* Creating messages */
+
+    @Benchmark
+    public Message createChat() {
+        return chatHandler.createMessage(chatSpec);
+    }
+
+    @Benchmark
+    public Message createMovement() {
+        return movementHandler.createMessage(movementSpec);
+    }
+
+    @Benchmark
+    public Message createCompactMovement() {
+        return compactHandler.createMessage(compactSpec);
+    }
+
+    @Benchmark
+    public Message createModeChange() {
+        return modeHandler.createMessage(modeSpec);
+    }
+
+    /* Encoding messages */
+
+    @Benchmark
+    public ByteBuffer encodeChat() {
+        return chatHandler.createMessage(chatSpec).encodeMessage();
+    }
+
+    @Benchmark
+    public ByteBuffer encodeMovement() {
+        return movementHandler.createMessage(movementSpec).encodeMessage();
+    }
+
+    @Benchmark
+    public ByteBuffer encodeCompactMovement() {
+        return compactHandler.createMessage(compactSpec).encodeMessage();
+    }
+
+    @Benchmark
+    public ByteBuffer encodeModeChange() {
+        return modeHandler.createMessage(modeSpec).encodeMessage();
+    }
+
+    @Benchmark
+    public ByteBuffer encodeChatCurrentVersion() {
+        return WireProtocol.encodeMessage(chatHandler.createMessage(chatSpec),
+                                          WireProtocol.CURRENT_VERSION);
+    }
+
+    /* Decoding messages */
+
+    @Benchmark
+    public Message decodeChat() {
+        return chatHandler.decodeMessage(ChatMessage.STANDARD_ID,
+                                         chatPayload.duplicate());
+    }
+
+    @Benchmark
+    public Message decodeMovement() {
+        return movementHandler.decodeMessage(MovementMessage.STANDARD_ID,
+                                             movementPayload.duplicate());
+    }
+
+    @Benchmark
+    public Message decodeCompactMovement() {
+        return compactHandler.decodeMessage(MovementMessage.STANDARD_ID,
+                                            compactPayload.duplicate());
+    }
+
+    @Benchmark
+    public Message decodeModeChange() {
+        return modeHandler.decodeMessage(ModeChangeMessage.STANDARD_ID,
+                                         modePayload.duplicate());
+    }
+
+    /** Encodes a message and skips past its identifier. */
+    private static ByteBuffer payload(Message message) {
+        ByteBuffer buffer = message.encodeMessage();
+        WireProtocol.readMessageId(buffer);
+        return buffer.slice();
+    }
+
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.glieseframework.benchmarks;
+
+import org.glieseframework.game.Coordinate;
+
+import org.glieseframework.internal.MessageServiceImpl;
+
+import org.glieseframework.message.Message;
+import org.glieseframework.message.MessageSpec;
+
+import org.glieseframework.message.common.ChatMessageSpec;
+import org.glieseframework.message.common.MovementMessageSpec;
+
+import org.glieseframework.message.common.impl.BatchMessageImpl;
+import org.glieseframework.message.common.impl.ChatMessageImpl;
+import org.glieseframework.message.common.impl.ModeChangeMessageImpl;
+import org.glieseframework.message.common.impl.MovementMessageImpl;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import java.nio.ByteBuffer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * Benchmarks {@code MessageServiceImpl.decodeMessage}, which reads the
+ * message identifier, looks up its handler and records metrics before
+ * the handler decodes the message. The service is created outside of a
+ * RedDwarf node with a temporary handler file for the standard messages,
+ * and without a pipeline. It is never made ready, so no background tasks
+ * run. The decode cache is turned off so that every operation really
+ * decodes, and the {@code decodeViews} parameter chooses between full
+ * decoding and flyweight views.
+ * <p>
+ * Creating a burst of {@code BURST_SIZE} messages is also measured, both
+ * one message at a time and through {@code createMessages}. Both include
+ * encoding the messages, since that is what a burst is created for.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageServiceBenchmark {
+
+    /** The number of messages in the encoded batch. */
+    static final int BATCH_SIZE = 16;
+
+    /** The number of messages in a created burst. */
+    static final int BURST_SIZE = 256;
+
+    /** Whether the service decodes flyweight views. */
+    @Param({"false", "true"})
+    public boolean decodeViews;
+
+    // the service under test
+    private MessageServiceImpl service;
+
+    // the encoded messages, each including its identifier
+    private ByteBuffer chatBuffer;
+    private ByteBuffer movementBuffer;
+    private ByteBuffer modeBuffer;
+    private ByteBuffer batchBuffer;
+
+    // the specifications of a burst of messages
+    private List<MessageSpec> burst;
+
+    /** Creates the service and encodes the messages. */
+    @Setup
+    public void setup() throws IOException {
+        File handlerFile = File.createTempFile("handlers", ".txt");
+        handlerFile.deleteOnExit();
+        PrintWriter writer = new PrintWriter(new FileWriter(handlerFile));
+        try {
+            writer.println("1 org.glieseframework.message.common." +
+                           "ChatMessageHandler");
+            writer.println("2 org.glieseframework.message.common." +
+                           "MovementMessageHandler");
+            writer.println("3 org.glieseframework.message.common." +
+                           "ModeChangeMessageHandler");
+        } finally {
+            writer.close();
+        }
+
+        Properties props = new Properties();
+        props.setProperty(MessageServiceImpl.HANDLER_FILE_PROPERTY,
+                          handlerFile.getAbsolutePath());
+        props.setProperty(MessageServiceImpl.DECODE_VIEWS_PROPERTY,
+                          String.valueOf(decodeViews));
+        props.setProperty(MessageServiceImpl.DECODE_CACHE_SIZE_PROPERTY, "0");
+        props.setProperty(MessageServiceImpl.PIPELINE_THREADS_PROPERTY, "0");
+        service = new MessageServiceImpl(props, null, null);
+
+        Message chat = new ChatMessageImpl("Well met, traveller", null);
+        Message movement =
+            new MovementMessageImpl(new Coordinate(12.5f, 0f, 7.25f), null);
+        Message mode = new ModeChangeMessageImpl("LoggedOutMode", null);
+        chatBuffer = chat.encodeMessage();
+        movementBuffer = movement.encodeMessage();
+        modeBuffer = mode.encodeMessage();
+        List<Message> batch = new ArrayList<Message>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(i % 2 == 0 ? chat : movement);
+        }
+        batchBuffer = new BatchMessageImpl(batch).encodeMessage();
+
+        burst = new ArrayList<MessageSpec>(BURST_SIZE);
+        for (int i = 0; i < BURST_SIZE; i++) {
+            burst.add(i % 4 == 0 ?
+                      new ChatMessageSpec("Wave " + i + " approaches") :
+                      new MovementMessageSpec(new Coordinate(i, 0f, i), 1f));
+        }
+    }
+
+    @Benchmark
+    public Message decodeChat() {
+        return service.decodeMessage(chatBuffer.duplicate());
+    }
+
+    @Benchmark
+    public Message decodeMovement() {
+        return service.decodeMessage(movementBuffer.duplicate());
+    }
+
+    @Benchmark
+    public Message decodeModeChange() {
+        return service.decodeMessage(modeBuffer.duplicate());
+    }
+
+    @Benchmark
+    public Message decodeBatch() {
+        return service.decodeMessage(batchBuffer.duplicate());
+    }
+
+    @Benchmark
+    public void createBurstSingly(Blackhole blackhole) {
+        for (MessageSpec messageSpec : burst) {
+            blackhole.consume(service.createMessage(messageSpec).
+                              encodeMessage());
+        }
+    }
+
+    @Benchmark
+    public void createBurst(Blackhole blackhole) {
+        for (Message message : service.createMessages(burst)) {
+            blackhole.consume(message.encodeMessage());
+        }
+    }
+
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.glieseframework.benchmarks;
+
+import com.sun.sgs.app.Channel;
+import com.sun.sgs.app.ChannelManager;
+import com.sun.sgs.app.DataManager;
+import com.sun.sgs.app.Delivery;
+import com.sun.sgs.app.ManagedReference;
+import com.sun.sgs.app.Task;
+import com.sun.sgs.app.TaskManager;
+
+import com.sun.sgs.internal.InternalContext;
+import com.sun.sgs.internal.ManagerLocator;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import java.math.BigInteger;
+
+import java.nio.ByteBuffer;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+
+/**
+ * Installs stand-in managers so that framework code which goes through
+ * {@code AppContext} can run outside of a RedDwarf node. The
+ * {@code DataManager} hands out references that simply hold their object,
+ * the {@code ChannelManager} creates channels that count the bytes they
+ * are asked to send rather than delivering anything, and the
+ * {@code TaskManager} queues tasks until {@code runTasks} is called. Tasks
+ * are run in the calling thread, without being serialized. Only the methods
+ * that the benchmarked code needs are supported, and anything else throws
+ * {@code UnsupportedOperationException}. The stubs are built as dynamic
+ * proxies so they don't depend on the exact manager interfaces.
+ */
+final class StubContext {
+
+    // the total number of bytes sent on all stub channels, which keeps the
+    // sends from being optimized away
+    private static long bytesSent = 0;
+
+    // the tasks waiting to be run
+    private static final Queue<Task> tasks = new ArrayDeque<Task>();
+
+    /** Not instantiable. */
+    private StubContext() { }
+
+    /** Installs the stub managers for the whole JVM. */
+    static synchronized void install() {
+        InternalContext.setManagerLocator(
+            proxy(ManagerLocator.class, new LocatorHandler()));
+    }
+
+    /** Returns the number of bytes sent on stub channels so far. */
+    static synchronized long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * Runs the scheduled tasks, including any they schedule, until there
+     * are none left.
+     *
+     * @throws Exception if a task fails
+     */
+    static void runTasks() throws Exception {
+        Task task;
+        while ((task = nextTask()) != null) {
+            task.run();
+        }
+    }
+
+    /** Returns the next scheduled task, or {@code null}. */
+    private static synchronized Task nextTask() {
+        return tasks.poll();
+    }
+
+    /** Creates a proxy for the given interface. */
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(),
+                                                new Class<?> [] { type },
+                                                handler));
+    }
+
+    /**
+     * Base for the stub handlers, which answers the {@code Object} methods
+     * by identity and rejects anything that isn't supported.
+     */
+    private abstract static class StubHandler implements InvocationHandler {
+        public Object invoke(Object proxy, Method method, Object [] args) {
+            String name = method.getName();
+            if (name.equals("equals")) {
+                return proxy == args[0];
+            }
+            if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            }
+            if (name.equals("toString")) {
+                return getClass().getSimpleName();
+            }
+            Object result = handle(name, args);
+            if (result == null && method.getReturnType().isInstance(proxy)) {
+                // methods that return the stub itself, for chaining
+                return proxy;
+            }
+            return result;
+        }
+        abstract Object handle(String name, Object [] args);
+        static UnsupportedOperationException unsupported(String name) {
+            return new UnsupportedOperationException("Not supported by the " +
+                                                     "benchmark stubs: " +
+                                                     name);
+        }
+    }
+
+    /** Hands out the stub managers. */
+    private static final class LocatorHandler extends StubHandler {
+        private final DataManager dataManager =
+            proxy(DataManager.class, new DataHandler());
+        private final ChannelManager channelManager =
+            proxy(ChannelManager.class, new ChannelManagerHandler());
+        private final TaskManager taskManager =
+            proxy(TaskManager.class, new TaskHandler());
+        Object handle(String name, Object [] args) {
+            if (name.equals("getDataManager")) {
+                return dataManager;
+            }
+            if (name.equals("getChannelManager")) {
+                return channelManager;
+            }
+            if (name.equals("getTaskManager")) {
+                return taskManager;
+            }
+            throw unsupported(name);
+        }
+    }
+
+    /** Creates references that hold their object directly. */
+    private static final class DataHandler extends StubHandler {
+        Object handle(String name, Object [] args) {
+            if (name.equals("createReference")) {
+                return proxy(ManagedReference.class,
+                             new ReferenceHandler(args[0]));
+            }
+            if (name.equals("getObjectId")) {
+                return BigInteger.valueOf(System.identityHashCode(args[0]));
+            }
+            if (name.equals("markForUpdate") || name.equals("removeObject")) {
+                return null;
+            }
+            throw unsupported(name);
+        }
+    }
+
+    /** A reference that holds its object. */
+    private static final class ReferenceHandler extends StubHandler {
+        private final Object object;
+        ReferenceHandler(Object object) {
+            this.object = object;
+        }
+        public Object invoke(Object proxy, Method method, Object [] args) {
+            // references are equal if they refer to the same object
+            String name = method.getName();
+            if (name.equals("equals")) {
+                return (args[0] instanceof ManagedReference) &&
+                    ((ManagedReference<?>) args[0]).get() == object;
+            }
+            if (name.equals("hashCode")) {
+                return System.identityHashCode(object);
+            }
+            return super.invoke(proxy, method, args);
+        }
+        Object handle(String name, Object [] args) {
+            if (name.equals("get") || name.equals("getForUpdate")) {
+                return object;
+            }
+            if (name.equals("getId")) {
+                return BigInteger.valueOf(System.identityHashCode(object));
+            }
+            throw unsupported(name);
+        }
+    }
+
+    /** Queues tasks to be run by {@code runTasks}. */
+    private static final class TaskHandler extends StubHandler {
+        Object handle(String name, Object [] args) {
+            if (name.equals("scheduleTask") && (args.length == 1)) {
+                synchronized (StubContext.class) {
+                    tasks.add((Task) args[0]);
+                }
+                return null;
+            }
+            if (name.equals("shouldContinue")) {
+                return Boolean.TRUE;
+            }
+            throw unsupported(name);
+        }
+    }
+
+    /** Creates stub channels. */
+    private static final class ChannelManagerHandler extends StubHandler {
+        Object handle(String name, Object [] args) {
+            if (name.equals("createChannel")) {
+                return proxy(Channel.class,
+                             new ChannelHandler((String) args[0],
+                                                (Delivery) args[2]));
+            }
+            throw unsupported(name);
+        }
+    }
+
+    /** A channel that counts the bytes sent on it. */
+    private static final class ChannelHandler extends StubHandler {
+        private final String name;
+        private final Delivery delivery;
+        ChannelHandler(String name, Delivery delivery) {
+            this.name = name;
+            this.delivery = delivery;
+        }
+        Object handle(String methodName, Object [] args) {
+            if (methodName.equals("getName")) {
+                return name;
+            }
+            if (methodName.equals("getDelivery")) {
+                return delivery;
+            }
+            if (methodName.equals("join") || methodName.equals("leave")) {
+                return null;
+            }
+            if (methodName.equals("send")) {
+                ByteBuffer message = (ByteBuffer) args[args.length - 1];
+                synchronized (StubContext.class) {
+                    bytesSent += message.remaining();
+                }
+                return null;
+            }
+            throw unsupported(methodName);
+        }
+    }
+
+}
@@ -36,19 +36,35 @@ import com.sun.sgs.app.AppContext;
 import com.sun.sgs.app.Channel;
 import com.sun.sgs.app.ChannelListener;
 import com.sun.sgs.app.ClientSession;
+import com.sun.sgs.app.DataManager;
 import com.sun.sgs.app.Delivery;
 import com.sun.sgs.app.ManagedObject;
+import com.sun.sgs.app.ManagedObjectRemoval;
 import com.sun.sgs.app.ManagedReference;
+import com.sun.sgs.app.ObjectNotFoundException;
+import com.sun.sgs.app.Task;
 
 import com.sun.sgs.app.util.ScalableHashSet;
 
+import org.glieseframework.message.DeliveryClass;
 import org.glieseframework.message.Message;
 
+import org.glieseframework.message.common.impl.MembershipMessageImpl;
+import org.glieseframework.message.common.impl.MessageHeader;
+import org.glieseframework.message.common.impl.WireProtocol;
+
 import java.io.Serializable;
 
 import java.nio.ByteBuffer;
 
+import java.util.EnumMap;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 
@@ -60,14 +76,80 @@ import java.util.Set;
  * implementation to provide a {@code GroupFilter} that specifically
  * notifies the listeners (i.e., the non-{@code UserPlayer} members) if
  * this behavior is desired.
+ * <p>
+ * A group may also be given a separate lane channel for some
+ * {@code DeliveryClass}es. Members join every lane, and a message whose
+ * class has a lane is sent on that lane's channel, with that class's
+ * delivery guarantee, rather than on the group's main channel. This keeps,
+ * for example, unreliable movement updates from queueing behind reliable
+ * chat. Lane channels are named by appending {@code LANE_SEPARATOR} and the
+ * class name to the group name.
+ * <p>
+ * Channel messages are always encoded with the base wire protocol version,
+ * since members may have negotiated different versions.
+ * <p>
+ * Groups that don't send updates may have many non-{@code UserPlayer}
+ * members, so messages are sent to them through {@code FanOut}, which
+ * splits a large set into chunks that are sent by separate tasks.
+ * <p>
+ * Groups that send updates collect the joins and leaves from each
+ * {@code UPDATE_WINDOW} and then send a single {@code MembershipMessage}
+ * delta to the group, so that a burst of logins doesn't send a message
+ * per arrival to every member. Each new arrival is sent a snapshot of the
+ * whole membership instead. A player who joins and leaves within the same
+ * window doesn't appear in the delta at all. Since the delta and the
+ * snapshots travel separately, a client should apply both as set
+ * operations, so that their order doesn't matter. Updates that would make
+ * a message longer than {@code UPDATE_MESSAGE_LENGTH} are split across
+ * several messages. The member names are kept apart from the changes in
+ * the current window, so that sending an update only reads the names.
+ * <p>
+ * Releasing a group removes its channels, which closes them, and removes
+ * its membership set and any pending updates. A large member set is a
+ * {@code ScalableHashSet}, whose removal is itself split into background
+ * tasks, so releasing even a very large group doesn't do unbounded work
+ * in one task. Removing a group that hasn't been released releases it.
+ * <p>
+ * Short-lived groups can instead be created from a {@code GroupPool}, in
+ * which case releasing the group empties its channels and member set and
+ * returns them to the pool for the next group, rather than removing them.
  */
-abstract class ChannelGroup implements Group, Serializable {
+abstract class ChannelGroup
+    implements Group, ManagedObjectRemoval, Serializable
+{
 
     private static final long serialVersionUID = 1;
 
+    /** The separator between the group name and a lane's class name. */
+    public static final String LANE_SEPARATOR = "#";
+
+    /**
+     * The milliseconds over which membership changes are collected before
+     * the delta is sent, in groups that send updates.
+     */
+    static final long UPDATE_WINDOW = 100;
+
+    /**
+     * The most bytes of names put in a single membership message, in
+     * groups that send updates.
+     */
+    static final int UPDATE_MESSAGE_LENGTH = 1024;
+
+    // the number of windows after which a scheduled update task that
+    // hasn't run is assumed lost, and is scheduled again
+    private static final int UPDATE_STALE_WINDOWS = 20;
+
+    // the name of this group
+    private final String groupName;
+
     // reference to the channel used by this group
     private final ManagedReference<? extends Channel> channelRef;
 
+    // the channels for delivery classes with their own lane, or null if
+    // all messages are sent on the main channel
+    private final Map<DeliveryClass,ManagedReference<? extends Channel>>
+        laneRefs;
+
     // the set of non-UserPlayer group members
     private final ManagedReference<? extends Set<
         ManagedReference<Player>>> listenerSetRef;
@@ -75,6 +157,16 @@ abstract class ChannelGroup implements Group, Serializable {
     // whether or not to broadcast membership updates
     private final boolean sendUpdates;
 
+    // the lease on pooled channels and member set, or null if this group
+    // created its own
+    private final ManagedReference<ChannelLease> leaseRef;
+
+    // the pending membership updates, or null if updates aren't sent
+    private final ManagedReference<MembershipUpdates> updatesRef;
+
+    // whether this group has been released
+    private boolean released = false;
+
     /**
      * Creates an instance of {@code ChannelGroup} with the given name and
      * optional filter. If no filter is provided then all messages are
@@ -94,57 +186,138 @@ abstract class ChannelGroup implements Group, Serializable {
     ChannelGroup(String groupName, GroupFilter filter, Delivery delivery,
                  boolean sendUpdates)
     {
+        this(groupName, filter, delivery, sendUpdates, null);
+    }
+
+    /**
+     * Creates an instance of {@code ChannelGroup} with the given name,
+     * optional filter, given delivery level for the main channel, and a
+     * lane channel for each of the given delivery classes. A class whose
+     * delivery matches the main channel's doesn't need a lane, and is
+     * sent on the main channel.
+     */
+    ChannelGroup(String groupName, GroupFilter filter, Delivery delivery,
+                 boolean sendUpdates, Set<DeliveryClass> lanes)
+    {
+        this.groupName = groupName;
         GroupChannelListener listener = filter == null ? null :
             new GroupChannelListener(filter, this);
         Channel channel = AppContext.getChannelManager().
             createChannel(groupName, listener, delivery);
         channelRef = AppContext.getDataManager().createReference(channel);
+        laneRefs = createLanes(groupName, listener, delivery, lanes);
+        listenerSetRef = createListenerSet(sendUpdates);
+        leaseRef = null;
         this.sendUpdates = sendUpdates;
-        // if we're sending updates then this must be a small group, so just
-        // embed a HashSet rather than using a scalable collection
-        if (sendUpdates) {
-            listenerSetRef = AppContext.getDataManager().
-                createReference(new ManagedHashSet());
-        } else {
-            listenerSetRef = AppContext.getDataManager().
-                createReference(new ScalableHashSet
-                                <ManagedReference<Player>>());
+        updatesRef = sendUpdates ? AppContext.getDataManager().
+            createReference(new MembershipUpdates(groupName, this)) : null;
+    }
+
+    /**
+     * Creates an instance of {@code ChannelGroup} with the given name and
+     * optional filter, using channels and a member set checked out from
+     * the given pool rather than creating new ones. The pool decides the
+     * delivery, lanes and whether updates are sent, and its channels have
+     * their own names rather than the group's. A filter must be given if,
+     * and only if, the pool is for filtered groups.
+     */
+    ChannelGroup(String groupName, GroupFilter filter, GroupPool pool) {
+        if ((filter != null) != pool.isFiltered()) {
+            throw new IllegalArgumentException("Filter doesn't match pool");
         }
+        this.groupName = groupName;
+        ChannelLease lease = pool.checkOut(groupName);
+        lease.assign(this, filter);
+        leaseRef = AppContext.getDataManager().createReference(lease);
+        channelRef = lease.getChannelRef();
+        laneRefs = lease.getLaneRefs();
+        listenerSetRef = lease.getListenerSetRef();
+        this.sendUpdates = pool.sendsUpdates();
+        updatesRef = sendUpdates ? AppContext.getDataManager().
+            createReference(new MembershipUpdates(groupName, this)) : null;
     }
 
     /** Implement Group */
 
     /** {@inheritDoc} */
     public String getName() {
-        return channelRef.get().getName();
+        return groupName;
+    }
+
+    /** {@inheritDoc} */
+    public void release() {
+        if (released) {
+            return;
+        }
+        DataManager dataManager = AppContext.getDataManager();
+        dataManager.markForUpdate(this);
+        released = true;
+        if (updatesRef != null) {
+            // any scheduled update task is dropped along with the updates
+            dataManager.removeObject(updatesRef.get());
+        }
+        if (leaseRef != null) {
+            leaseRef.get().recycle();
+            return;
+        }
+        dataManager.removeObject(channelRef.get());
+        if (laneRefs != null) {
+            for (ManagedReference<? extends Channel> laneRef :
+                     laneRefs.values())
+            {
+                dataManager.removeObject(laneRef.get());
+            }
+        }
+        dataManager.removeObject(listenerSetRef.get());
     }
 
     /** {@inheritDoc} */
     public void join(Player player) {
+        checkReleased();
         if (sendUpdates) {
-            // TODO: broadcast the player joined message
+            updatesRef.get().joined(player);
         }
         if (! player.wantsToHearMessages()) {
             return;
         }
         if (player instanceof UserPlayer) {
-            channelRef.get().join(((UserPlayer) player).getSession());
+            ClientSession session = ((UserPlayer) player).getSession();
+            channelRef.get().join(session);
+            if (laneRefs != null) {
+                for (ManagedReference<? extends Channel> laneRef :
+                         laneRefs.values())
+                {
+                    laneRef.get().join(session);
+                }
+            }
+            if (leaseRef != null) {
+                leaseRef.get().joined(session);
+            }
         } else {
             listenerSetRef.get().
                 add(AppContext.getDataManager().createReference(player));
         }
-        if (sendUpdates) {
-            // TODO: send the player the membership list
-        }
     }
 
     /** {@inheritDoc} */
     public void leave(Player player) {
+        checkReleased();
         if (sendUpdates) {
-            // TODO: send the player left message
+            updatesRef.get().left(player);
         }
         if (player instanceof UserPlayer) {
-            channelRef.get().leave(((UserPlayer) player).getSession());
+            ClientSession session = ((UserPlayer) player).getSession();
+            channelRef.get().leave(session);
+            if (laneRefs != null) {
+                for (ManagedReference<? extends Channel> laneRef :
+                         laneRefs.values())
+                {
+                    laneRef.get().leave(session);
+                }
+            }
+            if (leaseRef != null) {
+                leaseRef.get().left(session);
+            }
         } else {
             listenerSetRef.get().
                 remove(AppContext.getDataManager().createReference(player));
@@ -157,10 +330,20 @@ abstract class ChannelGroup implements Group, Serializable {
         // but first we'd have to check if the sender is a client or a MOB,
         // since a MOB message would get rejected by the channel. Is there any
         // real value in identifying the sender here?
-        channelRef.get().send(null, message.encodeMessage());
+        checkReleased();
+        // the message is encoded once here, and any listener that sends it
+        // on to a client gets a duplicate of the same encoded bytes
+        getChannel(message).send(null, message.encodeMessage());
         sendToListeners(message);
     }
 
+    /** Implement ManagedObjectRemoval */
+
+    /** {@inheritDoc} */
+    public void removingObject() {
+        release();
+    }
+
     /** Implement equality */
 
     /** {@inheritDoc} */
@@ -183,16 +366,279 @@ abstract class ChannelGroup implements Group, Serializable {
         private static final long serialVersionUID = 1;
     }
 
-    /** Sends to all non-UserPlayer members individually. */
+    /**
+     * Creates a lane channel for each of the given delivery classes whose
+     * delivery differs from the main channel's, with names based on the
+     * given channel name. Returns {@code null} if no lanes are needed.
+     */
+    static Map<DeliveryClass,ManagedReference<? extends Channel>>
+        createLanes(String channelName, ChannelListener listener,
+                    Delivery delivery, Set<DeliveryClass> lanes)
+    {
+        Map<DeliveryClass,ManagedReference<? extends Channel>> refs = null;
+        if (lanes != null) {
+            for (DeliveryClass lane : lanes) {
+                if (lane.getDelivery() == delivery) {
+                    continue;
+                }
+                if (refs == null) {
+                    refs = new EnumMap<DeliveryClass,
+                        ManagedReference<? extends Channel>>
+                        (DeliveryClass.class);
+                }
+                Channel laneChannel = AppContext.getChannelManager().
+                    createChannel(channelName + LANE_SEPARATOR + lane.name(),
+                                  listener, lane.getDelivery());
+                refs.put(lane, AppContext.getDataManager().
+                         createReference(laneChannel));
+            }
+        }
+        return refs;
+    }
+
+    /** Creates the set of non-UserPlayer members for a group. */
+    static ManagedReference<? extends Set<ManagedReference<Player>>>
+        createListenerSet(boolean sendUpdates)
+    {
+        // if we're sending updates then this must be a small group, so just
+        // embed a HashSet rather than using a scalable collection
+        if (sendUpdates) {
+            return AppContext.getDataManager().
+                createReference(new ManagedHashSet());
+        }
+        return AppContext.getDataManager().
+            createReference(new ScalableHashSet<ManagedReference<Player>>());
+    }
+
+    /** Throws {@code IllegalStateException} if this group was released. */
+    void checkReleased() {
+        if (released) {
+            throw new IllegalStateException("Group has been released: " +
+                                            groupName);
+        }
+    }
+
+    /**
+     * Returns the channel that the given message is sent on, which is its
+     * delivery class's lane if there is one, or the main channel.
+     */
+    Channel getChannel(Message message) {
+        if (laneRefs != null) {
+            ManagedReference<? extends Channel> laneRef =
+                laneRefs.get(DeliveryClass.of(message));
+            if (laneRef != null) {
+                return laneRef.get();
+            }
+        }
+        return channelRef.get();
+    }
+
+    /**
+     * Sends to all non-UserPlayer members individually. If we're sending
+     * updates then we also assume a small set, so it's ok to send directly
+     * here, but otherwise {@code FanOut} splits large sets into tasks.
+     */
     void sendToListeners(Message message) {
-        // TODO: if we're sending updates then we also assume a small set, so
-        // it's ok to send directly here, but otherwise we might want to split
-        // these into separate tasks
-        for (ManagedReference<? extends Player> playerRef :
-                 listenerSetRef.get())
+        if (sendUpdates) {
+            for (ManagedReference<? extends Player> playerRef :
+                     listenerSetRef.get())
+            {
+                playerRef.get().send(message);
+            }
+        } else {
+            FanOut.send(message, listenerSetRef.get());
+        }
+    }
+
+    /** The names of the current members of a group that sends updates. */
+    private static final class MemberNames
+        implements ManagedObject, Serializable
+    {
+        private static final long serialVersionUID = 1;
+        // the names of the current members, in the order that they joined
+        private final LinkedHashSet<String> names =
+            new LinkedHashSet<String>();
+        boolean add(String name) {
+            AppContext.getDataManager().markForUpdate(this);
+            return names.add(name);
+        }
+        boolean remove(String name) {
+            AppContext.getDataManager().markForUpdate(this);
+            return names.remove(name);
+        }
+        Collection<String> getNames() {
+            return names;
+        }
+    }
+
+    /**
+     * The changes to the membership of a group that sends updates since
+     * the last delta was sent. The first change in each window schedules
+     * this as a task to send the delta and the arrivals' snapshots.
+     * Removing this also removes the member names.
+     */
+    private static final class MembershipUpdates
+        implements ManagedObject, ManagedObjectRemoval, Serializable, Task
+    {
+        private static final long serialVersionUID = 1;
+        private final String groupName;
+        private final ManagedReference<ChannelGroup> groupRef;
+        private final ManagedReference<MemberNames> membersRef;
+        // the changes in this window, and the arrivals that need snapshots
+        private final LinkedHashSet<String> joined =
+            new LinkedHashSet<String>();
+        private final LinkedHashSet<String> left =
+            new LinkedHashSet<String>();
+        private final LinkedHashMap<String,ManagedReference<Player>>
+            arrivals = new LinkedHashMap<String,ManagedReference<Player>>();
+        // whether the task is scheduled for this window, and when
+        private boolean scheduled = false;
+        private long scheduledTime = 0;
+        MembershipUpdates(String groupName, ChannelGroup group) {
+            DataManager dataManager = AppContext.getDataManager();
+            this.groupName = groupName;
+            this.groupRef = dataManager.createReference(group);
+            this.membersRef = dataManager.createReference(new MemberNames());
+        }
+        void joined(Player player) {
+            String name = player.getName();
+            if (! membersRef.get().add(name)) {
+                return;
+            }
+            AppContext.getDataManager().markForUpdate(this);
+            // a player who left in this window is back where they started
+            if (! left.remove(name)) {
+                joined.add(name);
+            }
+            if (player.wantsToHearMessages()) {
+                arrivals.put(name,
+                             AppContext.getDataManager().
+                             createReference(player));
+            }
+            schedule();
+        }
+        void left(Player player) {
+            String name = player.getName();
+            if (! membersRef.get().remove(name)) {
+                return;
+            }
+            AppContext.getDataManager().markForUpdate(this);
+            // a player who joined in this window was never announced
+            if (! joined.remove(name)) {
+                left.add(name);
+            }
+            arrivals.remove(name);
+            schedule();
+        }
+        private void schedule() {
+            long now = System.currentTimeMillis();
+            // if a task failed without clearing the flag then another is
+            // scheduled, and a late one just sends an update early
+            if (scheduled &&
+                (now - scheduledTime < UPDATE_STALE_WINDOWS * UPDATE_WINDOW))
+            {
+                return;
+            }
+            scheduled = true;
+            scheduledTime = now;
+            AppContext.getTaskManager().scheduleTask(this, UPDATE_WINDOW);
+        }
+        /** {@inheritDoc} */
+        public void removingObject() {
+            AppContext.getDataManager().removeObject(membersRef.get());
+        }
+        /** {@inheritDoc} */
+        public void run() {
+            AppContext.getDataManager().markForUpdate(this);
+            scheduled = false;
+            if ((! joined.isEmpty()) || (! left.isEmpty())) {
+                ChannelGroup group = groupRef.get();
+                for (Message delta :
+                         MembershipMessageImpl.split(groupName, false,
+                                                     joined, left,
+                                                     UPDATE_MESSAGE_LENGTH))
+                {
+                    group.send(delta);
+                }
+                joined.clear();
+                left.clear();
+            }
+            if (arrivals.isEmpty()) {
+                return;
+            }
+            List<MembershipMessageImpl> snapshot =
+                MembershipMessageImpl.split(groupName, true,
+                                            membersRef.get().getNames(),
+                                            Collections.<String>emptyList(),
+                                            UPDATE_MESSAGE_LENGTH);
+            for (ManagedReference<Player> arrivalRef : arrivals.values()) {
+                try {
+                    Player arrival = arrivalRef.get();
+                    for (Message part : snapshot) {
+                        arrival.send(part);
+                    }
+                } catch (ObjectNotFoundException onfe) {
+                    // the arrival was removed without leaving the group
+                }
+            }
+            arrivals.clear();
+        }
+    }
+
+    /**
+     * Passes a message that arrived on one of the group's channels through
+     * the filter, sending whatever the filter allows. A
+     * {@code HeaderGroupFilter} sees the header first, and a message that
+     * it accepts is relayed without being decoded if possible.
+     */
+    static void filterReceived(GroupFilter filter, ChannelGroup group,
+                               Channel channel, ClientSession sender,
+                               ByteBuffer message)
+    {
+        if (filter instanceof HeaderGroupFilter) {
+            HeaderGroupFilter.Decision decision =
+                ((HeaderGroupFilter) filter).
+                checkHeader(WireProtocol.peekMessageId(message),
+                            sender.getName(), message.remaining());
+            if (decision == HeaderGroupFilter.Decision.REJECT) {
+                return;
+            }
+            if ((decision == HeaderGroupFilter.Decision.ACCEPT) &&
+                group.relay(channel, message))
+            {
+                return;
+            }
+        }
+        Message allowedMessage =
+            filter.filterMessage(message, sender.getName());
+        if (allowedMessage != null) {
+            group.send(allowedMessage);
+        }
+    }
+
+    /**
+     * Sends a client message's original bytes on the channel that it
+     * arrived on. Returns {@code false}, without sending anything, if the
+     * message can't be relayed as it is, because it isn't in the base
+     * protocol version that channel members expect, names its own sender,
+     * is compressed, or has to be decoded for non-UserPlayer members anyway.
+     */
+    boolean relay(Channel channel, ByteBuffer message) {
+        if (WireProtocol.peekVersion(message) != WireProtocol.BASE_VERSION) {
+            return false;
+        }
+        int flags = WireProtocol.peekHeaderFlags(message);
+        if ((flags < 0) ||
+            ((flags & (MessageHeader.FLAG_SENDER |
+                       MessageHeader.FLAG_COMPRESSED)) != 0))
         {
-            playerRef.get().send(message);
+            return false;
+        }
+        if (! listenerSetRef.get().isEmpty()) {
+            return false;
         }
+        channel.send(null, message);
+        return true;
     }
 
     /** Private implementation of {@code ChannelListener} for filters. */
@@ -209,11 +655,8 @@ abstract class ChannelGroup implements Group, Serializable {
         public void receivedMessage(Channel channel, ClientSession sender,
                                     ByteBuffer message)
         {
-            Message allowedMessage = wrappedFilter.get().
-                filterMessage(message, sender.getName());
-            if (allowedMessage != null) {
-                groupRef.get().send(allowedMessage);
-            }
+            filterReceived(wrappedFilter.get(), groupRef.get(), channel,
+                           sender, message);
         }
     }
 
@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.glieseframework.core;
+
+import com.sun.sgs.app.AppContext;
+import com.sun.sgs.app.Channel;
+import com.sun.sgs.app.ChannelListener;
+import com.sun.sgs.app.ClientSession;
+import com.sun.sgs.app.DataManager;
+import com.sun.sgs.app.Delivery;
+import com.sun.sgs.app.ManagedObject;
+import com.sun.sgs.app.ManagedObjectRemoval;
+import com.sun.sgs.app.ManagedReference;
+import com.sun.sgs.app.ObjectNotFoundException;
+
+import com.sun.sgs.app.util.ScalableHashMap;
+
+import org.glieseframework.message.DeliveryClass;
+
+import java.io.Serializable;
+
+import java.nio.ByteBuffer;
+
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * The channels and member set for one group at a time, which are kept by a
+ * {@code GroupPool} between groups. For a filtered pool the lease is also
+ * the listener on its channels, passing messages through the filter of the
+ * group that currently holds it, so the channels don't need to be created
+ * again for each group's filter. A filtered lease also notes which
+ * assignment each client session joined in, and drops messages from
+ * sessions that didn't join the current group, such as a message sent
+ * to the previous group that arrives after the lease was reassigned.
+ * <p>
+ * Removing a lease removes its channels and member set. A lease whose
+ * pool has been removed is removed when it's recycled.
+ */
+final class ChannelLease
+    implements ChannelListener, ManagedObject, ManagedObjectRemoval,
+               Serializable
+{
+
+    private static final long serialVersionUID = 1;
+
+    // the shard of the pool that this lease returns to
+    private final ManagedReference<GroupPool.Shard> shardRef;
+
+    // the main channel, any lane channels and the non-UserPlayer members
+    private final ManagedReference<Channel> channelRef;
+    private final Map<DeliveryClass,ManagedReference<? extends Channel>>
+        laneRefs;
+    private final ManagedReference<? extends Set<
+        ManagedReference<Player>>> listenerSetRef;
+
+    // the assignment in which each client member joined, if filtered
+    private final ManagedReference<ScalableHashMap<
+        ManagedReference<ClientSession>,Long>> sessionsRef;
+
+    // the group holding this lease and its filter, or null if idle
+    private ManagedReference<ChannelGroup> groupRef = null;
+    private ObjectWrapper<? extends GroupFilter> wrappedFilter = null;
+
+    // the number of times this lease has been assigned
+    private long assignment = 0;
+
+    /**
+     * Creates an instance of {@code ChannelLease} with new channels and a
+     * new member set.
+     */
+    ChannelLease(GroupPool.Shard shard, String channelName, Delivery delivery,
+                 Set<DeliveryClass> lanes, boolean filtered,
+                 boolean sendUpdates)
+    {
+        ChannelListener listener = filtered ? this : null;
+        Channel channel = AppContext.getChannelManager().
+            createChannel(channelName, listener, delivery);
+        channelRef = AppContext.getDataManager().createReference(channel);
+        laneRefs =
+            ChannelGroup.createLanes(channelName, listener, delivery, lanes);
+        listenerSetRef = ChannelGroup.createListenerSet(sendUpdates);
+        sessionsRef = filtered ? AppContext.getDataManager().
+            createReference(new ScalableHashMap<
+                            ManagedReference<ClientSession>,Long>()) : null;
+        shardRef = AppContext.getDataManager().createReference(shard);
+    }
+
+    /** Returns a reference to the main channel. */
+    ManagedReference<Channel> getChannelRef() {
+        return channelRef;
+    }
+
+    /** Returns references to the lane channels, or {@code null}. */
+    Map<DeliveryClass,ManagedReference<? extends Channel>> getLaneRefs() {
+        return laneRefs;
+    }
+
+    /** Returns a reference to the set of non-UserPlayer members. */
+    ManagedReference<? extends Set<ManagedReference<Player>>>
+        getListenerSetRef()
+    {
+        return listenerSetRef;
+    }
+
+    /** Gives this lease to a group with the given optional filter. */
+    void assign(ChannelGroup group, GroupFilter filter) {
+        AppContext.getDataManager().markForUpdate(this);
+        groupRef = AppContext.getDataManager().createReference(group);
+        wrappedFilter =
+            filter == null ? null : new ObjectWrapper<GroupFilter>(filter);
+        assignment++;
+    }
+
+    /** Notes that a client joined the group holding this lease. */
+    void joined(ClientSession session) {
+        if (sessionsRef != null) {
+            sessionsRef.get().
+                put(AppContext.getDataManager().createReference(session),
+                    Long.valueOf(assignment));
+        }
+    }
+
+    /** Notes that a client left the group holding this lease. */
+    void left(ClientSession session) {
+        if (sessionsRef != null) {
+            sessionsRef.get().
+                remove(AppContext.getDataManager().createReference(session));
+        }
+    }
+
+    /**
+     * Empties the channels and member set, and returns this lease to its
+     * pool. A large member set is cleared by background tasks.
+     */
+    void recycle() {
+        DataManager dataManager = AppContext.getDataManager();
+        dataManager.markForUpdate(this);
+        groupRef = null;
+        wrappedFilter = null;
+        channelRef.get().leaveAll();
+        if (laneRefs != null) {
+            for (ManagedReference<? extends Channel> laneRef :
+                     laneRefs.values())
+            {
+                laneRef.get().leaveAll();
+            }
+        }
+        listenerSetRef.get().clear();
+        if (sessionsRef != null) {
+            sessionsRef.get().clear();
+        }
+        try {
+            shardRef.get().checkIn(this);
+        } catch (ObjectNotFoundException onfe) {
+            // the pool was removed while this lease was checked out
+            dataManager.removeObject(this);
+        }
+    }
+
+    /* Implement ManagedObjectRemoval */
+
+    /** {@inheritDoc} */
+    public void removingObject() {
+        DataManager dataManager = AppContext.getDataManager();
+        dataManager.removeObject(channelRef.get());
+        if (laneRefs != null) {
+            for (ManagedReference<? extends Channel> laneRef :
+                     laneRefs.values())
+            {
+                dataManager.removeObject(laneRef.get());
+            }
+        }
+        dataManager.removeObject(listenerSetRef.get());
+        if (sessionsRef != null) {
+            dataManager.removeObject(sessionsRef.get());
+        }
+    }
+
+    /* Implement ChannelListener */
+
+    /** {@inheritDoc} */
+    public void receivedMessage(Channel channel, ClientSession sender,
+                                ByteBuffer message)
+    {
+        if (wrappedFilter == null) {
+            // the group was released while this message was in flight
+            return;
+        }
+        Long joined = sessionsRef.get().
+            get(AppContext.getDataManager().createReference(sender));
+        if ((joined == null) || (joined.longValue() != assignment)) {
+            // the sender isn't a member of the group holding this lease
+            return;
+        }
+        ChannelGroup.filterReceived(wrappedFilter.get(), groupRef.get(),
+                                    channel, sender, message);
+    }
+
+}
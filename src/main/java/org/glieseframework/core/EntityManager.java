@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.glieseframework.core;
+
+
+/**
+ * A manager that gives each {@code Player} a compact identifier, so that
+ * messages can name their sender in four bytes and recipients can resolve
+ * the sender cheaply. Identifiers are positive, are assigned the first
+ * time they are requested, are never reused, and are the same on every
+ * node. The value {@code 0} is never assigned, and is used on the wire to
+ * mean that the sender is unknown.
+ * <p>
+ * Both methods must be called within a transaction, although
+ * implementations are expected to answer repeated requests from a
+ * node-local cache without reading the data store.
+ */
+public interface EntityManager {
+
+    /**
+     * Returns the identifier for the given {@code Player}, assigning one
+     * if needed. Players are keyed by {@code Player.getId}.
+     *
+     * @param player the {@code Player}
+     *
+     * @return the compact identifier for the {@code Player}
+     */
+    int getEntityId(Player player);
+
+    /**
+     * Returns the {@code Player} with the given identifier.
+     *
+     * @param entityId an identifier returned by {@code getEntityId}
+     *
+     * @return the associated {@code Player}, or {@code null} if the
+     *         identifier isn't assigned or the {@code Player} has been
+     *         removed
+     */
+    Player getPlayer(int entityId);
+
+}
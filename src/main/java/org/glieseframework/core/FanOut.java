@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.glieseframework.core;
+
+import com.sun.sgs.app.AppContext;
+import com.sun.sgs.app.ManagedReference;
+import com.sun.sgs.app.ObjectNotFoundException;
+import com.sun.sgs.app.Task;
+import com.sun.sgs.app.TaskManager;
+
+import org.glieseframework.message.Message;
+
+import java.io.Serializable;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+
+/**
+ * Sends a message to a large set of non-client group members without
+ * doing all of the work in the sender's transaction. The first chunk of
+ * members is sent to directly. If there are more, a split task walks the
+ * rest of the set and schedules a task for each chunk of at most
+ * {@code getChunkSize} members, and these chunk tasks run in parallel on
+ * the scheduler's threads. The split task schedules at most
+ * {@code getChunksPerTask} chunks each time it runs, stopping early
+ * whenever {@code TaskManager.shouldContinue} returns {@code false}, and
+ * then reschedules itself after a short delay. This paces it to the rate
+ * at which the chunks can be sent, without any shared state that the
+ * chunk tasks would contend on, and keeps every transaction short however
+ * large the set is. If the set is removed before the split task reaches
+ * its end, the remaining members are skipped.
+ * <p>
+ * Tasks are only used if the set's iterator and the message can be
+ * stored, which is the case for a {@code ScalableHashSet} and the standard
+ * messages. Otherwise every member is sent to directly, as before. Members
+ * that are sent to by a task get the message in a later transaction, and
+ * members that are removed before their chunk runs are skipped.
+ * <p>
+ * The sizes are set for the whole node, typically by the
+ * {@code MessageService} from its configuration.
+ */
+public final class FanOut {
+
+    /** The default number of members in a chunk. */
+    public static final int DEFAULT_CHUNK_SIZE = 64;
+
+    /** The default number of chunks scheduled by each split task run. */
+    public static final int DEFAULT_CHUNKS_PER_TASK = 16;
+
+    // the delay before a split task carries on with the next chunks
+    private static final long SPLIT_DELAY = 10;
+
+    // the current sizes
+    private static volatile int chunkSize = DEFAULT_CHUNK_SIZE;
+    private static volatile int chunksPerTask = DEFAULT_CHUNKS_PER_TASK;
+
+    /** Not instantiable. */
+    private FanOut() { }
+
+    /**
+     * Sets the most members sent to in one transaction.
+     *
+     * @param size the chunk size, which must be positive
+     */
+    public static void setChunkSize(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Chunk size must be " +
+                                               "positive");
+        }
+        chunkSize = size;
+    }
+
+    /**
+     * Returns the most members sent to in one transaction.
+     *
+     * @return the chunk size
+     */
+    public static int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Sets the most chunk tasks that a split task schedules each
+     * time it runs.
+     *
+     * @param count the number of chunks, which must be positive
+     */
+    public static void setChunksPerTask(int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("Chunks per task must be " +
+                                               "positive");
+        }
+        chunksPerTask = count;
+    }
+
+    /**
+     * Returns the most chunk tasks that a split task schedules each
+     * time it runs.
+     *
+     * @return the number of chunks
+     */
+    public static int getChunksPerTask() {
+        return chunksPerTask;
+    }
+
+    /**
+     * Sends the message to each member of the set, splitting the work into
+     * tasks if the set is larger than one chunk.
+     *
+     * @param message the message to send
+     * @param members the references to the members
+     */
+    static void send(Message message,
+                     Iterable<? extends ManagedReference<? extends Player>>
+                     members)
+    {
+        Iterator<? extends ManagedReference<? extends Player>> iterator =
+            members.iterator();
+        int size = chunkSize;
+        for (int i = 0; (i < size) && iterator.hasNext(); i++) {
+            sendTo(iterator.next(), message);
+        }
+        if (! iterator.hasNext()) {
+            return;
+        }
+        if ((! (iterator instanceof Serializable)) ||
+            (! (message instanceof Serializable)))
+        {
+            while (iterator.hasNext()) {
+                sendTo(iterator.next(), message);
+            }
+            return;
+        }
+        AppContext.getTaskManager().
+            scheduleTask(new SplitTask(message, iterator));
+    }
+
+    /** Sends to a single member, unless it has been removed. */
+    private static void sendTo(ManagedReference<? extends Player> memberRef,
+                               Message message)
+    {
+        try {
+            memberRef.get().send(message);
+        } catch (ObjectNotFoundException onfe) {
+            // the member was removed without leaving the group
+        }
+    }
+
+    /** Walks the members, scheduling a task for each chunk. */
+    private static final class SplitTask implements Task, Serializable {
+        private static final long serialVersionUID = 1;
+        private final ObjectWrapper<Message> wrappedMessage;
+        private final Iterator<? extends ManagedReference<? extends Player>>
+            iterator;
+        SplitTask(Message message,
+                  Iterator<? extends ManagedReference<? extends Player>>
+                  iterator)
+        {
+            this.wrappedMessage = new ObjectWrapper<Message>(message);
+            this.iterator = iterator;
+        }
+        public void run() {
+            TaskManager taskManager = AppContext.getTaskManager();
+            int size = chunkSize;
+            int maxChunks = chunksPerTask;
+            try {
+                for (int chunks = 0; iterator.hasNext(); chunks++) {
+                    if ((chunks == maxChunks) ||
+                        (! taskManager.shouldContinue()))
+                    {
+                        taskManager.scheduleTask(this, SPLIT_DELAY);
+                        return;
+                    }
+                    List<ManagedReference<? extends Player>> chunk =
+                        new ArrayList<ManagedReference<? extends Player>>(
+                            size);
+                    while ((chunk.size() < size) && iterator.hasNext()) {
+                        chunk.add(iterator.next());
+                    }
+                    taskManager.scheduleTask(new ChunkTask(wrappedMessage,
+                                                           chunk));
+                }
+            } catch (ObjectNotFoundException onfe) {
+                // the set was removed, so there's no one left to send to
+            }
+        }
+    }
+
+    /** Sends to a single chunk of members. */
+    private static final class ChunkTask implements Task, Serializable {
+        private static final long serialVersionUID = 1;
+        private final ObjectWrapper<Message> wrappedMessage;
+        private final List<ManagedReference<? extends Player>> chunk;
+        ChunkTask(ObjectWrapper<Message> wrappedMessage,
+                  List<ManagedReference<? extends Player>> chunk)
+        {
+            this.wrappedMessage = wrappedMessage;
+            this.chunk = chunk;
+        }
+        public void run() {
+            Message message = wrappedMessage.get();
+            for (ManagedReference<? extends Player> memberRef : chunk) {
+                sendTo(memberRef, message);
+            }
+        }
+    }
+
+}
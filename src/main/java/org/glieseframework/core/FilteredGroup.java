@@ -32,10 +32,15 @@
 
 package org.glieseframework.core;
 
+import com.sun.sgs.app.Delivery;
 import com.sun.sgs.app.ManagedObject;
 
+import org.glieseframework.message.DeliveryClass;
+
 import java.io.Serializable;
 
+import java.util.Set;
+
 
 /** A group that uses a filter for all messages. */
 public class FilteredGroup extends ChannelGroup implements Serializable {
@@ -49,4 +54,25 @@ public class FilteredGroup extends ChannelGroup implements Serializable {
         super(groupName, filter, sendUpdates);
     }
 
+    /**
+     * Creates an instance of FilteredGroup that sends reliably, except for
+     * the given delivery classes, which each have their own lane channel.
+     * The filter sees messages from clients on every lane.
+     */
+    public FilteredGroup(String groupName, GroupFilter filter,
+                         boolean sendUpdates, Set<DeliveryClass> lanes)
+    {
+        super(groupName, filter, Delivery.RELIABLE, sendUpdates, lanes);
+    }
+
+    /**
+     * Creates an instance of FilteredGroup whose channels come from the
+     * given pool of filtered channels.
+     */
+    public FilteredGroup(String groupName, GroupFilter filter,
+                         GroupPool pool)
+    {
+        super(groupName, filter, pool);
+    }
+
 }
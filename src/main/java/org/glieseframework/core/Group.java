@@ -47,7 +47,13 @@ public interface Group extends ManagedObject {
     /** Returns the unique name of this group */
     String getName();
 
-    // FIXME: needs a "release" method for when we're done with this group
+    /**
+     * Releases the resources held by this group, such as its channels and
+     * membership sets, when the group is no longer needed. This may be
+     * called more than once. After this call the group may not be joined,
+     * left or sent to, and may itself be removed.
+     */
+    void release();
 
     /**  */
     void join(Player player);
@@ -43,7 +43,9 @@ import java.nio.ByteBuffer;
  * or should be modified in any way. Note that this only affects messages
  * sent from clients. Any calls to send to a group from server code will
  * be allowed un-filtered. Implementations of {@code GroupFilter} must also
- * implement {@code Serializable}.
+ * implement {@code Serializable}. Filters that can decide from a message's
+ * header alone should implement {@code HeaderGroupFilter}, so that most
+ * messages aren't decoded.
  */
 public interface GroupFilter {
 
@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.glieseframework.core;
+
+import com.sun.sgs.app.AppContext;
+import com.sun.sgs.app.DataManager;
+import com.sun.sgs.app.Delivery;
+import com.sun.sgs.app.ManagedObject;
+import com.sun.sgs.app.ManagedObjectRemoval;
+import com.sun.sgs.app.ManagedReference;
+import com.sun.sgs.app.Task;
+import com.sun.sgs.app.TaskManager;
+
+import com.sun.sgs.app.util.ScalableDeque;
+
+import org.glieseframework.message.DeliveryClass;
+
+import java.io.Serializable;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * A pool of channels and member sets for short-lived groups, such as
+ * parties and dungeon instances. A group created from a pool checks out an
+ * idle set of channels rather than creating new ones, and returns them
+ * when it is released, so creating a group doesn't create and bind a
+ * new channel each time.
+ * <p>
+ * All groups from one pool share the same delivery, lanes and update
+ * setting, and are either all filtered or all unfiltered. Pooled channels
+ * are named {@code poolName.shard.count} rather than by group name, so
+ * pool names must not be used for any other channel. Idle channels are
+ * kept in {@code SHARDS} separate queues, chosen by group name, so that
+ * concurrent group creation doesn't contend on a single queue.
+ * <p>
+ * Removing the pool removes its idle channels, with a task for each queue
+ * that removes as many as it can in each transaction. Channels that are
+ * held by groups at the time are removed when those groups are released.
+ */
+public final class GroupPool
+    implements ManagedObject, ManagedObjectRemoval, Serializable
+{
+
+    private static final long serialVersionUID = 1;
+
+    /** The number of separate queues of idle channels. */
+    public static final int SHARDS = 8;
+
+    // the name used for channels, and the settings for each group
+    private final String poolName;
+    private final Delivery delivery;
+    private final Set<DeliveryClass> lanes;
+    private final boolean filtered;
+    private final boolean sendUpdates;
+
+    // the queues of idle leases
+    private final List<ManagedReference<Shard>> shardRefs;
+
+    /**
+     * Creates an instance of {@code GroupPool} for groups that send
+     * reliably on a single channel.
+     *
+     * @param poolName the name that pooled channel names start with
+     * @param filtered whether the groups have a {@code GroupFilter}
+     * @param sendUpdates whether the groups send membership updates
+     */
+    public GroupPool(String poolName, boolean filtered, boolean sendUpdates) {
+        this(poolName, filtered, sendUpdates, Delivery.RELIABLE, null);
+    }
+
+    /**
+     * Creates an instance of {@code GroupPool} for groups with the given
+     * delivery for the main channel and a lane for each of the given
+     * delivery classes, as described by {@code ChannelGroup}.
+     *
+     * @param poolName the name that pooled channel names start with
+     * @param filtered whether the groups have a {@code GroupFilter}
+     * @param sendUpdates whether the groups send membership updates
+     * @param delivery the delivery for the main channel
+     * @param lanes the delivery classes with their own lane, or
+     *              {@code null}
+     */
+    public GroupPool(String poolName, boolean filtered, boolean sendUpdates,
+                     Delivery delivery, Set<DeliveryClass> lanes)
+    {
+        this.poolName = poolName;
+        this.filtered = filtered;
+        this.sendUpdates = sendUpdates;
+        this.delivery = delivery;
+        if (lanes == null) {
+            this.lanes = null;
+        } else {
+            this.lanes = EnumSet.noneOf(DeliveryClass.class);
+            this.lanes.addAll(lanes);
+        }
+        shardRefs = new ArrayList<ManagedReference<Shard>>(SHARDS);
+        for (int i = 0; i < SHARDS; i++) {
+            shardRefs.add(AppContext.getDataManager().
+                          createReference(new Shard()));
+        }
+    }
+
+    /**
+     * Returns whether groups from this pool have a filter.
+     *
+     * @return {@code true} if the groups are filtered
+     */
+    public boolean isFiltered() {
+        return filtered;
+    }
+
+    /**
+     * Returns whether groups from this pool send membership updates.
+     *
+     * @return {@code true} if the groups send updates
+     */
+    public boolean sendsUpdates() {
+        return sendUpdates;
+    }
+
+    /**
+     * Returns an idle lease from the group's shard, creating a new one if
+     * the shard has none.
+     */
+    ChannelLease checkOut(String groupName) {
+        int index = (groupName.hashCode() & 0x7fffffff) % shardRefs.size();
+        Shard shard = shardRefs.get(index).get();
+        ManagedReference<ChannelLease> leaseRef =
+            shard.idleRef.get().pollFirst();
+        if (leaseRef != null) {
+            return leaseRef.get();
+        }
+        AppContext.getDataManager().markForUpdate(shard);
+        String channelName = poolName + "." + index + "." + shard.created++;
+        return new ChannelLease(shard, channelName, delivery, lanes,
+                                filtered, sendUpdates);
+    }
+
+    /* Implement ManagedObjectRemoval */
+
+    /** {@inheritDoc} */
+    public void removingObject() {
+        TaskManager taskManager = AppContext.getTaskManager();
+        for (ManagedReference<Shard> shardRef : shardRefs) {
+            taskManager.scheduleTask(new DrainTask(shardRef));
+        }
+    }
+
+    /**
+     * A queue of idle leases, and the count of leases created for it, which
+     * is only updated when the queue is empty.
+     */
+    static final class Shard implements ManagedObject, Serializable {
+        private static final long serialVersionUID = 1;
+        private final ManagedReference<ScalableDeque<
+            ManagedReference<ChannelLease>>> idleRef;
+        private long created = 0;
+        Shard() {
+            this.idleRef = AppContext.getDataManager().
+                createReference(new ScalableDeque<
+                                ManagedReference<ChannelLease>>());
+        }
+        void checkIn(ChannelLease lease) {
+            idleRef.get().offerLast(AppContext.getDataManager().
+                                    createReference(lease));
+        }
+    }
+
+    /**
+     * Removes the idle leases of a removed pool's shard, and then the shard
+     * itself.
+     */
+    private static final class DrainTask implements Task, Serializable {
+        private static final long serialVersionUID = 1;
+        private final ManagedReference<Shard> shardRef;
+        DrainTask(ManagedReference<Shard> shardRef) {
+            this.shardRef = shardRef;
+        }
+        public void run() {
+            DataManager dataManager = AppContext.getDataManager();
+            TaskManager taskManager = AppContext.getTaskManager();
+            Shard shard = shardRef.get();
+            ScalableDeque<ManagedReference<ChannelLease>> idle =
+                shard.idleRef.get();
+            do {
+                ManagedReference<ChannelLease> leaseRef = idle.pollFirst();
+                if (leaseRef == null) {
+                    dataManager.removeObject(idle);
+                    dataManager.removeObject(shard);
+                    return;
+                }
+                dataManager.removeObject(leaseRef.get());
+            } while (taskManager.shouldContinue());
+            taskManager.scheduleTask(this);
+        }
+    }
+
+}
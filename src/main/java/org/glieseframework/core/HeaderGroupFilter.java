@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.glieseframework.core;
+
+
+/**
+ * A {@code GroupFilter} that can decide about most messages from their
+ * header alone. Before a client message is decoded, {@code checkHeader} is
+ * given its identifier, sender and length, and can reject the message,
+ * accept it so that its original bytes are relayed to the group without
+ * being decoded, or ask for the usual {@code filterMessage} call with the
+ * full message. Relay-style groups can then forward client messages
+ * without creating a {@code Message} for each one.
+ * <p>
+ * An accepted message is still decoded, and passed to {@code filterMessage},
+ * when it can't be relayed as it is: if it was encoded with a later wire
+ * protocol version than the group's channels use, if it names its own
+ * sender, which can't be trusted from a client, if it is compressed, or if
+ * the group has non-{@code UserPlayer} members, which are sent decoded
+ * messages.
+ * <p>
+ * A relayed message is never checked against the registered handlers, so
+ * filters should only accept messages from senders that the group trusts,
+ * and return {@code DECODE} otherwise.
+ */
+public interface HeaderGroupFilter extends GroupFilter {
+
+    /** The possible results of checking a message header. */
+    enum Decision {
+        /** Relay the original bytes to the group. */
+        ACCEPT,
+        /** Drop the message. */
+        REJECT,
+        /** Decode the message and call {@code filterMessage}. */
+        DECODE
+    }
+
+    /**
+     * Decides what to do with a client message from its header. This must
+     * not keep any state about the message, since the message may still be
+     * passed to {@code filterMessage}.
+     *
+     * @param messageId the unsigned message identifier, or {@code -1} if
+     *                  the identifier can't be read
+     * @param sender the name of the client who sent the message
+     * @param length the length of the encoded message, in bytes
+     *
+     * @return the {@code Decision} for the message
+     */
+    Decision checkHeader(int messageId, String sender, int length);
+
+}
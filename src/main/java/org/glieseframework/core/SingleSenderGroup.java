@@ -56,27 +56,79 @@ public class SingleSenderGroup extends ChannelGroup implements Serializable {
 
     /**  */
     public SingleSenderGroup(String groupName, boolean sendUpdates) {
-        super(groupName, new SingleSenderFilter(null), sendUpdates);
+        super(groupName, new SingleSenderFilter(null, false), sendUpdates);
     }
 
     /**  */
     public SingleSenderGroup(String groupName, boolean sendUpdates,
                              Player allowedSender)
     {
-        super(groupName, new SingleSenderFilter(allowedSender), sendUpdates);
+        this(groupName, sendUpdates, allowedSender, false);
     }
 
-    /** Private implementation of {@code GroupFilter}. */
+    /**
+     * Creates an instance of {@code SingleSenderGroup}. If {@code relay} is
+     * {@code true} the allowed sender's messages are passed on to the group
+     * as the original bytes, without being decoded or checked against the
+     * registered handlers, so this should only be used by groups that trust
+     * that sender.
+     */
+    public SingleSenderGroup(String groupName, boolean sendUpdates,
+                             Player allowedSender, boolean relay)
+    {
+        super(groupName, new SingleSenderFilter(allowedSender, relay),
+              sendUpdates);
+    }
+
+    /**
+     * Creates an instance of {@code SingleSenderGroup} whose channels come
+     * from the given pool of filtered channels.
+     */
+    public SingleSenderGroup(String groupName, GroupPool pool,
+                             Player allowedSender)
+    {
+        this(groupName, pool, allowedSender, false);
+    }
+
+    /**
+     * Creates an instance of {@code SingleSenderGroup} whose channels come
+     * from the given pool of filtered channels. See the constructor above
+     * for the meaning of {@code relay}.
+     */
+    public SingleSenderGroup(String groupName, GroupPool pool,
+                             Player allowedSender, boolean relay)
+    {
+        super(groupName, new SingleSenderFilter(allowedSender, relay), pool);
+    }
+
+    /**
+     * Private implementation of {@code GroupFilter}. The sender is checked
+     * from the header, so other senders' messages are dropped without
+     * being decoded. The allowed sender's messages are decoded, unless
+     * the group opted in to relaying them as they are.
+     */
     private static class SingleSenderFilter
-        implements GroupFilter, Serializable
+        implements HeaderGroupFilter, Serializable
     {
         private static final long serialVersionUID = 1;
         // the optional single client sender allowed
         private final String senderName;
+        // whether the sender's messages are relayed without decoding
+        private final boolean relay;
         /** Create an instance of {@code SingleSenderFilter}. */
-        SingleSenderFilter(Player allowedSender) {
+        SingleSenderFilter(Player allowedSender, boolean relay) {
             this.senderName = allowedSender == null ? null :
                 allowedSender.getName();
+            this.relay = relay;
+        }
+        /** {@inheritDoc} */
+        public Decision checkHeader(int messageId, String sender,
+                                    int length)
+        {
+            if ((senderName == null) || (! senderName.equals(sender))) {
+                return Decision.REJECT;
+            }
+            return relay ? Decision.ACCEPT : Decision.DECODE;
         }
         /** {@inheritDoc} */
         public Message filterMessage(ByteBuffer message, String sender) {
@@ -32,8 +32,14 @@
 
 package org.glieseframework.core;
 
+import com.sun.sgs.app.Delivery;
+
+import org.glieseframework.message.DeliveryClass;
+
 import java.io.Serializable;
 
+import java.util.Set;
+
 
 /**
  * Implementation of {@code Group} that allows all messages. Note that
@@ -49,4 +55,23 @@ public class UnmoderatedGroup extends ChannelGroup implements Serializable {
         super(groupName, null, sendUpdates);
     }
 
+    /**
+     * Create an instance of {@code UnmoderatedGroup} that sends reliably,
+     * except for the given delivery classes, which each have their own
+     * lane channel.
+     */
+    public UnmoderatedGroup(String groupName, boolean sendUpdates,
+                            Set<DeliveryClass> lanes)
+    {
+        super(groupName, null, Delivery.RELIABLE, sendUpdates, lanes);
+    }
+
+    /**
+     * Create an instance of {@code UnmoderatedGroup} whose channels come
+     * from the given pool of unfiltered channels.
+     */
+    public UnmoderatedGroup(String groupName, GroupPool pool) {
+        super(groupName, null, pool);
+    }
+
 }
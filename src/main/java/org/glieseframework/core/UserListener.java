@@ -36,10 +36,20 @@ import com.sun.sgs.app.AppContext;
 import com.sun.sgs.app.ClientSessionListener;
 import com.sun.sgs.app.ManagedReference;
 
+import org.glieseframework.game.GameProxy;
+
+import org.glieseframework.message.Message;
 import org.glieseframework.message.MessageManager;
+import org.glieseframework.message.MessageReceiver;
+
+import org.glieseframework.message.common.BatchMessage;
+
+import org.glieseframework.message.common.impl.WireProtocol;
 
 import java.io.Serializable;
 
+import java.math.BigInteger;
+
 import java.nio.ByteBuffer;
 
 
@@ -47,7 +57,14 @@ import java.nio.ByteBuffer;
  * A concrete, package-private class that enforces the proxy pattern for
  * incoming messages. Instances are created for a given {@code UserPlayer},
  * and that {@code UserPlayer}'s current {@code GameProxy} is used to
- * handle incoming messages. The {@code UserPlayer} is notified on logout.
+ * handle incoming messages. A {@code BatchMessage} is unpacked, and each
+ * of the messages it contains is handled in order. Messages over the
+ * configured rate limits are dropped before the player is loaded. Other
+ * messages are submitted to the {@code MessageManager}, which decodes and
+ * preprocesses them, outside of a transaction if it can, before they are
+ * handled. The wire protocol version of each message is passed to the
+ * player, so that replies use the latest version the client understands.
+ * The {@code UserPlayer} is notified on logout.
  */
 final class UserListener implements ClientSessionListener, Serializable {
 
@@ -63,17 +80,25 @@ final class UserListener implements ClientSessionListener, Serializable {
     
     /** {@inheritDoc} */
     public void receivedMessage(ByteBuffer message) {
-        Player player = playerRef.get();
-        // TODO: maybe here we get the message and check if it's a directed
-        // message, in which case it gets handed off to a different interface?
-        // Or dropped if no such handler is in place?
-        player.getGameProxy().
-            handleMessage(AppContext.getManager(MessageManager.class).
-                          decodeMessage(message));
+        MessageManager messageManager =
+            AppContext.getManager(MessageManager.class);
+        // rate limits are checked before the player is loaded or the
+        // message is decoded, so a flood of messages costs very little
+        if (! messageManager.admitMessage(message, playerRef.getId())) {
+            return;
+        }
+        // the player is only loaded once the message has been decoded, and
+        // the source is the player, so that messages are handled in order
+        // and if this task is retried the message isn't decoded again
+        messageManager.submitMessage(message, playerRef.getId(),
+                                     new PlayerReceiver(playerRef.getId(),
+                                         WireProtocol.peekVersion(message)));
     }
 
     /** {@inheritDoc} */
     public void disconnected(boolean graceful) {
+        AppContext.getManager(MessageManager.class).
+            removeSource(playerRef.getId());
         UserPlayer player = playerRef.get();
         // TODO: should we explicitly call the current proxy's loggedOut()
         // method here, instead of making the player implementation do it?
@@ -81,4 +106,37 @@ final class UserListener implements ClientSessionListener, Serializable {
         player.setSession(null);
     }
 
+    /**
+     * Passes a decoded message to the player's current proxy. The player is
+     * held by its object identifier, since this may be called in a later
+     * transaction than the one that created it, where the submitting
+     * transaction's reference can't be used.
+     */
+    private static final class PlayerReceiver implements MessageReceiver {
+        private final BigInteger playerId;
+        private final int protocolVersion;
+        PlayerReceiver(BigInteger playerId, int protocolVersion) {
+            this.playerId = playerId;
+            this.protocolVersion = protocolVersion;
+        }
+        public void receivedMessage(Message message) {
+            UserPlayer player = (UserPlayer) AppContext.getDataManager().
+                createReferenceForId(playerId).get();
+            player.receivedVersion(protocolVersion);
+            // TODO: maybe here we check if it's a directed message, in which
+            // case it gets handed off to a different interface? Or dropped
+            // if no such handler is in place?
+            GameProxy proxy = player.getGameProxy();
+            if (message instanceof BatchMessage) {
+                for (Message batched :
+                         ((BatchMessage) message).getMessages())
+                {
+                    proxy.handleMessage(batched);
+                }
+            } else {
+                proxy.handleMessage(message);
+            }
+        }
+    }
+
 }
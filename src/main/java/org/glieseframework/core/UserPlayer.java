@@ -39,7 +39,11 @@ import com.sun.sgs.app.ObjectNotFoundException;
 
 import org.glieseframework.game.Game;
 
+import org.glieseframework.message.DeliveryClass;
 import org.glieseframework.message.Message;
+import org.glieseframework.message.MessageManager;
+
+import org.glieseframework.message.common.impl.WireProtocol;
 
 import java.io.Serializable;
 
@@ -52,6 +56,12 @@ public abstract class UserPlayer implements Player, Serializable {
     // the client's session
     private ManagedReference<? extends ClientSession> sessionRef;
 
+    // whether outgoing messages are batched until the transaction commits
+    private boolean batching = false;
+
+    // the wire protocol version that the client has shown it understands
+    private int protocolVersion = WireProtocol.BASE_VERSION;
+
     /**  */
     protected UserPlayer() {}
 
@@ -67,6 +77,37 @@ public abstract class UserPlayer implements Player, Serializable {
         return true;
     }
 
+    /**
+     * Sets whether messages sent to this player are batched. When batching
+     * is enabled, all messages sent to this player during a transaction are
+     * combined into as few {@code BatchMessage} frames as possible, and sent
+     * when the transaction commits. Each {@code DeliveryClass} is batched
+     * separately, so unreliable messages are never held up by reliable
+     * ones, and only the newest {@code SupersedableMessage} from each
+     * sender is sent. By default batching is disabled.
+     */
+    public final void setBatching(boolean batching) {
+        if (this.batching != batching) {
+            AppContext.getDataManager().markForUpdate(this);
+            this.batching = batching;
+        }
+    }
+
+    /** Returns whether messages sent to this player are batched. */
+    public final boolean isBatching() {
+        return batching;
+    }
+
+    /**
+     * Returns the wire protocol version used to encode messages sent to
+     * this player. This starts at {@code WireProtocol.BASE_VERSION} for each
+     * session, and is raised when the client sends a message encoded with
+     * a later version that the server supports.
+     */
+    public final int getProtocolVersion() {
+        return protocolVersion;
+    }
+
     /** Methods that extending classes must implement */
 
     /**  */
@@ -84,7 +125,13 @@ public abstract class UserPlayer implements Player, Serializable {
             // TODO: decide what happens in this case
             return;
         }
-        session.send(message.encodeMessage());
+        if (batching) {
+            AppContext.getManager(MessageManager.class).
+                sendBatched(session, message, protocolVersion);
+        } else {
+            session.send(WireProtocol.encodeMessage(message, protocolVersion),
+                         DeliveryClass.of(message).getDelivery(session));
+        }
     }
 
     /** Package private methods to handle the session */
@@ -92,10 +139,25 @@ public abstract class UserPlayer implements Player, Serializable {
     /** Assign the current session for this player. */
     void setSession(ClientSession session) {
         AppContext.getDataManager().markForUpdate(this);
+        protocolVersion = WireProtocol.BASE_VERSION;
         sessionRef = session == null ?
             null : AppContext.getDataManager().createReference(session);
     }
 
+    /**
+     * Notes the wire protocol version of a message received from the
+     * client, raising the version used to send to it if this is a later
+     * version that is supported.
+     */
+    void receivedVersion(int version) {
+        if ((version > protocolVersion) &&
+            (version <= WireProtocol.CURRENT_VERSION))
+        {
+            AppContext.getDataManager().markForUpdate(this);
+            protocolVersion = version;
+        }
+    }
+
     /** Gets the current session for this player, or null if not connected. */
     ClientSession getSession() {
         try {
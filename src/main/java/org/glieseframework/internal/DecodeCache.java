@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.glieseframework.internal;
+
+import org.glieseframework.message.Message;
+
+import java.nio.ByteBuffer;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * A small, direct-mapped cache of decoded messages, keyed by the source of
+ * a message and its encoded bytes. This lets a task that is retried after
+ * an abort reuse the message it decoded on its first attempt, even though
+ * it is typically handed a new buffer each time.
+ * <p>
+ * Each key maps to exactly one slot, and a new entry simply replaces
+ * whatever was in its slot, so there is no locking and no eviction
+ * bookkeeping. Entries are immutable and hold a copy of the key bytes, so
+ * the cache never depends on the caller's buffer. Only messages up to
+ * {@code MAX_LENGTH} bytes are cached.
+ */
+final class DecodeCache {
+
+    /** The longest encoded message that is cached. */
+    static final int MAX_LENGTH = 1024;
+
+    // the slots, and the mask used to choose one from a hash
+    private final AtomicReferenceArray<Entry> slots;
+    private final int mask;
+
+    /**
+     * Creates an instance of {@code DecodeCache}.
+     *
+     * @param size the number of slots, rounded up to a power of two
+     */
+    DecodeCache(int size) {
+        int slotCount = 1;
+        while (slotCount < size) {
+            slotCount <<= 1;
+        }
+        slots = new AtomicReferenceArray<Entry>(slotCount);
+        mask = slotCount - 1;
+    }
+
+    /**
+     * Returns the cached message for the remaining bytes of the buffer
+     * from the given source, or {@code null}. The buffer is not modified.
+     *
+     * @param source the source of the message
+     * @param messageBuffer the encoded message
+     *
+     * @return the cached message or {@code null}
+     */
+    Message get(Object source, ByteBuffer messageBuffer) {
+        if (messageBuffer.remaining() > MAX_LENGTH) {
+            return null;
+        }
+        int hash = hash(source, messageBuffer);
+        Entry entry = slots.get(hash & mask);
+        if ((entry == null) || (entry.hash != hash) ||
+            (! entry.source.equals(source)) ||
+            (entry.bytes.length != messageBuffer.remaining()))
+        {
+            return null;
+        }
+        int position = messageBuffer.position();
+        for (int i = 0; i < entry.bytes.length; i++) {
+            if (entry.bytes[i] != messageBuffer.get(position + i)) {
+                return null;
+            }
+        }
+        return entry.message;
+    }
+
+    /**
+     * Caches a decoded message. The bytes are copied from the buffer
+     * between {@code position} and the buffer's limit, without changing
+     * the buffer's position.
+     *
+     * @param source the source of the message
+     * @param messageBuffer the buffer the message was decoded from
+     * @param position where the message starts in the buffer
+     * @param message the decoded message
+     */
+    void put(Object source, ByteBuffer messageBuffer, int position,
+             Message message)
+    {
+        ByteBuffer key = messageBuffer.duplicate();
+        key.limit(messageBuffer.limit()).position(position);
+        if (key.remaining() > MAX_LENGTH) {
+            return;
+        }
+        int hash = hash(source, key);
+        byte [] bytes = new byte[key.remaining()];
+        key.get(bytes);
+        slots.set(hash & mask, new Entry(source, bytes, hash, message));
+    }
+
+    /** Hashes the source and the remaining bytes in the buffer. */
+    private static int hash(Object source, ByteBuffer buffer) {
+        int hash = source.hashCode();
+        for (int i = buffer.position(); i < buffer.limit(); i++) {
+            hash = 31 * hash + buffer.get(i);
+        }
+        // spread the bits so that the low bits used for the slot are mixed
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        return hash ^ (hash >>> 7) ^ (hash >>> 4);
+    }
+
+    /** A single cached message. */
+    private static final class Entry {
+        final Object source;
+        final byte [] bytes;
+        final int hash;
+        final Message message;
+        Entry(Object source, byte [] bytes, int hash, Message message) {
+            this.source = source;
+            this.bytes = bytes;
+            this.hash = hash;
+            this.message = message;
+        }
+    }
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.glieseframework.internal;
+
+import org.glieseframework.core.EntityManager;
+import org.glieseframework.core.Player;
+
+
+/** Implementation of {@code EntityManager} that delegates to its service. */
+public class EntityManagerImpl implements EntityManager {
+
+    // the backing manager, which usually is the service
+    private final EntityManager backingManager;
+
+    /**
+     * Creates an instance of {@code EntityManagerImpl} backed by the
+     * given {@code EntityManager}.
+     *
+     * @param backingManager the backing {@code EntityManager}
+     */
+    public EntityManagerImpl(EntityManager backingManager) {
+        this.backingManager = backingManager;
+    }
+
+    /** {@inheritDoc} */
+    public int getEntityId(Player player) {
+        return backingManager.getEntityId(player);
+    }
+
+    /** {@inheritDoc} */
+    public Player getPlayer(int entityId) {
+        return backingManager.getPlayer(entityId);
+    }
+
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.glieseframework.internal;
+
+import com.sun.sgs.app.ManagedObject;
+import com.sun.sgs.app.ManagedReference;
+import com.sun.sgs.app.NameNotBoundException;
+import com.sun.sgs.app.ObjectNotFoundException;
+
+import com.sun.sgs.kernel.ComponentRegistry;
+
+import com.sun.sgs.service.DataService;
+import com.sun.sgs.service.Transaction;
+import com.sun.sgs.service.TransactionListener;
+import com.sun.sgs.service.TransactionProxy;
+
+import org.glieseframework.core.Player;
+
+import java.io.Serializable;
+
+import java.math.BigInteger;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Implementation of {@code EntityService} that keeps its mappings in the
+ * data store. Each assigned identifier has an {@code Entry} that is bound
+ * under two service binding names, one for the identifier and one for the
+ * value of {@code Player.getId}. A single counter object hands out new
+ * identifiers, so the data store is only contended the first time a
+ * {@code Player} asks for an identifier.
+ * <p>
+ * Mappings never change once assigned, so each node keeps them in a local
+ * cache. A cached identifier is answered without touching the data store,
+ * and a cached {@code Player} only costs creating a reference from its
+ * object identifier. Entries are added to the cache only after the
+ * transaction that read or created them commits, so an aborted assignment
+ * is never cached. The cache holds at most {@code CACHE_SIZE_PROPERTY}
+ * entries, and is simply cleared when it fills.
+ */
+public class EntityServiceImpl implements EntityService {
+
+    /** The property used to specify the size of the local cache. */
+    public static final String CACHE_SIZE_PROPERTY =
+        EntityServiceImpl.class.getName() + ".cache.size";
+
+    /** The default size of the local cache. */
+    public static final int DEFAULT_CACHE_SIZE = 100000;
+
+    // the prefix for all service bindings
+    private static final String BINDING_PREFIX =
+        EntityServiceImpl.class.getName() + ".";
+
+    // the binding names for the counter, identifiers and players
+    private static final String COUNTER_BINDING = BINDING_PREFIX + "counter";
+    private static final String ENTITY_BINDING = BINDING_PREFIX + "entity.";
+    private static final String PLAYER_BINDING = BINDING_PREFIX + "player.";
+
+    // the transaction proxy and data service
+    private final TransactionProxy txnProxy;
+    private final DataService dataService;
+
+    // the node-local caches, keyed by player identifier and by entity
+    // identifier, and their maximum size
+    private final ConcurrentHashMap<Long,Integer> entityIds =
+        new ConcurrentHashMap<Long,Integer>();
+    private final ConcurrentHashMap<Integer,BigInteger> objectIds =
+        new ConcurrentHashMap<Integer,BigInteger>();
+    private final int cacheSize;
+
+    // the entries seen by each active transaction, cached on commit
+    private final ConcurrentHashMap<Transaction,PendingEntries> pending =
+        new ConcurrentHashMap<Transaction,PendingEntries>();
+
+    /**
+     * Creates an instance of {@code EntityServiceImpl}.
+     *
+     * @param props the application properties
+     * @param registry the system registry
+     * @param proxy the system's {@code TransactionProxy}
+     */
+    public EntityServiceImpl(Properties props, ComponentRegistry registry,
+                             TransactionProxy proxy)
+    {
+        txnProxy = proxy;
+        dataService = proxy.getService(DataService.class);
+        cacheSize = Integer.parseInt(props.getProperty(
+                CACHE_SIZE_PROPERTY, String.valueOf(DEFAULT_CACHE_SIZE)));
+        if (cacheSize < 0) {
+            throw new IllegalArgumentException("Cache size must not be " +
+                                               "negative");
+        }
+    }
+
+    /* Implement Service */
+
+    /** {@inheritDoc} */
+    public String getName() {
+        return EntityServiceImpl.class.getName();
+    }
+
+    /** {@inheritDoc} */
+    public void ready() { }
+
+    /** {@inheritDoc} */
+    public void shutdown() { }
+
+    /* Implement EntityService */
+
+    /** {@inheritDoc} */
+    public int getEntityId(Player player) {
+        long playerId = player.getId();
+        Integer cached = entityIds.get(playerId);
+        if (cached != null) {
+            return cached;
+        }
+        PendingEntries entries = getPendingEntries();
+        Entry entry = entries.byPlayer.get(playerId);
+        if (entry == null) {
+            try {
+                entry = (Entry) dataService.
+                    getServiceBinding(PLAYER_BINDING + playerId);
+            } catch (NameNotBoundException nnbe) {
+                entry = assign(player);
+            }
+            entries.add(playerId, entry);
+        }
+        return entry.entityId;
+    }
+
+    /** {@inheritDoc} */
+    public Player getPlayer(int entityId) {
+        if (entityId <= 0) {
+            return null;
+        }
+        BigInteger objectId = objectIds.get(entityId);
+        ManagedReference<?> ref = null;
+        if (objectId != null) {
+            ref = dataService.createReferenceForId(objectId);
+        } else {
+            PendingEntries entries = getPendingEntries();
+            Entry entry = entries.byEntity.get(entityId);
+            if (entry == null) {
+                try {
+                    entry = (Entry) dataService.
+                        getServiceBinding(ENTITY_BINDING + entityId);
+                } catch (NameNotBoundException nnbe) {
+                    return null;
+                }
+                entries.add(entry.playerId, entry);
+            }
+            ref = entry.playerRef;
+        }
+        try {
+            return (Player) ref.get();
+        } catch (ObjectNotFoundException onfe) {
+            return null;
+        }
+    }
+
+    /* Private utility methods. */
+
+    /** Assigns a new identifier and binds its entry. */
+    private Entry assign(Player player) {
+        Counter counter;
+        try {
+            counter = (Counter) dataService.getServiceBinding(COUNTER_BINDING);
+            dataService.markForUpdate(counter);
+        } catch (NameNotBoundException nnbe) {
+            counter = new Counter();
+            dataService.setServiceBinding(COUNTER_BINDING, counter);
+        }
+        if (counter.next == Integer.MAX_VALUE) {
+            throw new IllegalStateException("No more entity identifiers");
+        }
+        Entry entry = new Entry(++counter.next, player.getId(),
+                                dataService.createReference(player));
+        dataService.setServiceBinding(PLAYER_BINDING + entry.playerId, entry);
+        dataService.setServiceBinding(ENTITY_BINDING + entry.entityId, entry);
+        return entry;
+    }
+
+    /** Returns the entries for the current transaction. */
+    private PendingEntries getPendingEntries() {
+        Transaction txn = txnProxy.getCurrentTransaction();
+        PendingEntries entries = pending.get(txn);
+        if (entries == null) {
+            // a transaction only ever runs in one thread, so there's no
+            // race between this check and the put
+            entries = new PendingEntries(txn);
+            pending.put(txn, entries);
+            txn.registerListener(entries);
+        }
+        return entries;
+    }
+
+    /** Adds a committed entry to the local cache. */
+    private void cache(Entry entry) {
+        if (entityIds.size() >= cacheSize) {
+            if (cacheSize == 0) {
+                return;
+            }
+            entityIds.clear();
+            objectIds.clear();
+        }
+        entityIds.put(entry.playerId, entry.entityId);
+        objectIds.put(entry.entityId, entry.playerRef.getId());
+    }
+
+    /** The shared source of new identifiers. */
+    private static final class Counter implements ManagedObject, Serializable {
+        private static final long serialVersionUID = 1;
+        // the last identifier assigned
+        int next = 0;
+    }
+
+    /** A single assigned identifier, which never changes once bound. */
+    private static final class Entry implements ManagedObject, Serializable {
+        private static final long serialVersionUID = 1;
+        final int entityId;
+        final long playerId;
+        final ManagedReference<?> playerRef;
+        Entry(int entityId, long playerId, ManagedReference<?> playerRef) {
+            this.entityId = entityId;
+            this.playerId = playerId;
+            this.playerRef = playerRef;
+        }
+    }
+
+    /**
+     * The entries read or created by a single transaction. These are added
+     * to the local cache only if the transaction commits.
+     */
+    private final class PendingEntries implements TransactionListener {
+        private final Transaction txn;
+        final Map<Long,Entry> byPlayer = new HashMap<Long,Entry>();
+        final Map<Integer,Entry> byEntity = new HashMap<Integer,Entry>();
+        PendingEntries(Transaction txn) {
+            this.txn = txn;
+        }
+        void add(long playerId, Entry entry) {
+            byPlayer.put(playerId, entry);
+            byEntity.put(entry.entityId, entry);
+        }
+        public void beforeCompletion() { }
+        public void afterCompletion(boolean committed) {
+            pending.remove(txn);
+            if (committed) {
+                for (Entry entry : byEntity.values()) {
+                    cache(entry);
+                }
+            }
+        }
+        public String getTypeName() {
+            return PendingEntries.class.getName();
+        }
+    }
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.glieseframework.internal;
+
+import org.glieseframework.message.Message;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * An optional extension of {@code MessageHandler} for handlers that can
+ * decode a message as a read-only view over its encoded form. A view reads
+ * the message identifier and sender eagerly, but only materializes the rest
+ * of its fields when an accessor is called. This is useful when most code
+ * that sees a message (e.g., filters and relays) only ever looks at the
+ * identifier and sender.
+ * <p>
+ * A view reads directly from the buffer it was decoded from, so it is only
+ * valid as long as the contents of that buffer are not changed. Buffers
+ * handed to listeners by the server are read-only, and views may be kept
+ * for the duration of the task that received them. Views that are
+ * serialized are replaced by a fully materialized {@code Message}.
+ */
+public interface FlyweightMessageHandler extends MessageHandler {
+
+    /**
+     * Decodes the given buffer as a read-only view of a message of the
+     * given type. The buffer's position is advanced past the message as
+     * it would be by {@code decodeMessage}. If the message identifier is
+     * unknown to this handler, or if the buffer is invalid, then
+     * {@code IllegalArgumentException} is typically thrown.
+     *
+     * @param messageId the identifier for this message type
+     * @param messageBuffer the encoded message, without its identifier
+     *
+     * @return a new {@code Message} view over the given buffer
+     */
+    Message decodeView(short messageId, ByteBuffer messageBuffer);
+
+}
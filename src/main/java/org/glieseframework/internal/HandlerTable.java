@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.glieseframework.internal;
+
+import org.glieseframework.message.common.impl.WireProtocol;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * An immutable table of {@code MessageHandler}s indexed by message
+ * identifier. Identifiers are treated as unsigned values. Identifiers below
+ * {@code DENSE_LIMIT} are looked up directly in an array, and any larger
+ * identifiers fall back to a binary search over a sorted array, so lookups
+ * never box the identifier, take a lock or allocate.
+ * <p>
+ * Identifiers may also have a {@code RateLimit}. Each limited identifier
+ * is given a small index, so that per-source state can be kept in arrays.
+ * <p>
+ * Instances are built once through a {@code Builder} and never modified
+ * afterwards, so a table published through a {@code volatile} field or
+ * other safe publication can be read by any number of threads.
+ */
+final class HandlerTable {
+
+    /** Identifiers below this value are stored in the dense array. */
+    static final int DENSE_LIMIT = 1024;
+
+    // the directly indexed handlers, sized to the largest dense identifier
+    private final MessageHandler [] dense;
+
+    // the sorted, unsigned identifiers at or above DENSE_LIMIT, and the
+    // handlers at the matching positions
+    private final int [] sparseIds;
+    private final MessageHandler [] sparseHandlers;
+
+    // the limit index for each identifier in the dense and sparse arrays,
+    // or -1 if unlimited, and the limits by index
+    private final int [] denseLimits;
+    private final int [] sparseLimits;
+    private final RateLimit [] limits;
+
+    /** Creates an instance of {@code HandlerTable} from a builder. */
+    private HandlerTable(Map<Integer,MessageHandler> handlers,
+                         Map<Integer,RateLimit> rateLimits)
+    {
+        int denseLength = 0;
+        int sparseCount = 0;
+        for (int id : handlers.keySet()) {
+            if (id < DENSE_LIMIT) {
+                denseLength = Math.max(denseLength, id + 1);
+            } else {
+                sparseCount++;
+            }
+        }
+
+        dense = new MessageHandler[denseLength];
+        sparseIds = new int[sparseCount];
+        sparseHandlers = new MessageHandler[sparseCount];
+
+        int i = 0;
+        for (int id : handlers.keySet()) {
+            if (id < DENSE_LIMIT) {
+                dense[id] = handlers.get(id);
+            } else {
+                sparseIds[i++] = id;
+            }
+        }
+        Arrays.sort(sparseIds);
+        for (i = 0; i < sparseCount; i++) {
+            sparseHandlers[i] = handlers.get(sparseIds[i]);
+        }
+
+        denseLimits = new int[denseLength];
+        sparseLimits = new int[sparseCount];
+        Arrays.fill(denseLimits, -1);
+        Arrays.fill(sparseLimits, -1);
+        limits = new RateLimit[rateLimits.size()];
+        int next = 0;
+        for (Map.Entry<Integer,RateLimit> entry : rateLimits.entrySet()) {
+            int id = entry.getKey();
+            if (id < DENSE_LIMIT) {
+                denseLimits[id] = next;
+            } else {
+                sparseLimits[Arrays.binarySearch(sparseIds, id)] = next;
+            }
+            limits[next++] = entry.getValue();
+        }
+    }
+
+    /**
+     * Returns the handler for the given identifier, or {@code null} if the
+     * identifier is not handled.
+     *
+     * @param messageId the message identifier
+     *
+     * @return the associated {@code MessageHandler} or {@code null}
+     */
+    MessageHandler get(short messageId) {
+        int id = messageId & 0xffff;
+        if (id < DENSE_LIMIT) {
+            return id < dense.length ? dense[id] : null;
+        }
+        int index = Arrays.binarySearch(sparseIds, id);
+        return index < 0 ? null : sparseHandlers[index];
+    }
+
+    /**
+     * Returns the index of the limit for the given identifier, or
+     * {@code -1} if the identifier is not limited.
+     *
+     * @param messageId the message identifier
+     *
+     * @return the limit index, which is less than {@code limitCount}
+     */
+    int limitIndex(short messageId) {
+        int id = messageId & 0xffff;
+        if (id < DENSE_LIMIT) {
+            return id < denseLimits.length ? denseLimits[id] : -1;
+        }
+        int index = Arrays.binarySearch(sparseIds, id);
+        return index < 0 ? -1 : sparseLimits[index];
+    }
+
+    /**
+     * Returns the limit with the given index.
+     *
+     * @param index an index returned by {@code limitIndex}
+     *
+     * @return the associated {@code RateLimit}
+     */
+    RateLimit limit(int index) {
+        return limits[index];
+    }
+
+    /**
+     * Returns the number of limited identifiers.
+     *
+     * @return the number of limits
+     */
+    int limitCount() {
+        return limits.length;
+    }
+
+    /** Collects handlers before creating an immutable table. */
+    static final class Builder {
+
+        // the collected handlers, keyed by unsigned identifier
+        private final Map<Integer,MessageHandler> handlers =
+            new HashMap<Integer,MessageHandler>();
+
+        // the limited identifiers, keyed by unsigned identifier
+        private final Map<Integer,RateLimit> rateLimits =
+            new HashMap<Integer,RateLimit>();
+
+        /**
+         * Adds a single handler. Throws {@code IllegalArgumentException}
+         * if the identifier already has a handler, or is reserved by
+         * {@code WireProtocol}.
+         *
+         * @param messageId the message identifier
+         * @param handler the handler for the identifier
+         *
+         * @return this builder
+         */
+        Builder add(short messageId, MessageHandler handler) {
+            if (handler == null) {
+                throw new NullPointerException("Handler must not be null");
+            }
+            int id = messageId & 0xffff;
+            if (id >= WireProtocol.FIRST_RESERVED_ID) {
+                throw new IllegalArgumentException("Message Identifier " +
+                                                   "is reserved");
+            }
+            if (handlers.containsKey(id)) {
+                throw new IllegalArgumentException("Message Identifier " +
+                                                   "already has a handler");
+            }
+            handlers.put(id, handler);
+            return this;
+        }
+
+        /**
+         * Adds a single handler whose messages are rate limited. Throws
+         * {@code IllegalArgumentException} if the identifier already has a
+         * handler.
+         *
+         * @param messageId the message identifier
+         * @param handler the handler for the identifier
+         * @param limit the limit for each source, or {@code null}
+         *
+         * @return this builder
+         */
+        Builder add(short messageId, MessageHandler handler,
+                    RateLimit limit)
+        {
+            add(messageId, handler);
+            if (limit != null) {
+                rateLimits.put(messageId & 0xffff, limit);
+            }
+            return this;
+        }
+
+        /**
+         * Creates an immutable table of the handlers added so far.
+         *
+         * @return a new {@code HandlerTable}
+         */
+        HandlerTable build() {
+            return new HandlerTable(handlers, rateLimits);
+        }
+
+    }
+
+}
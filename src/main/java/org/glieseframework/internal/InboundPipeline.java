@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.glieseframework.internal;
+
+import com.sun.sgs.auth.Identity;
+
+import com.sun.sgs.kernel.KernelRunnable;
+import com.sun.sgs.kernel.TaskQueue;
+import com.sun.sgs.kernel.TransactionScheduler;
+
+import org.glieseframework.message.Message;
+import org.glieseframework.message.MessageReceiver;
+
+import java.nio.ByteBuffer;
+
+import java.util.Queue;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * Prepares received messages outside of any transaction. Submitted bytes
+ * are decoded and run through the service's {@code MessagePreprocessor}s
+ * on a fixed pool of worker threads, and each message that isn't dropped
+ * is then delivered to its {@code MessageReceiver} by a transactional task.
+ * Each source has its own {@code TaskQueue}, and its messages are prepared
+ * one at a time in the order submitted, so they are also delivered in
+ * that order.
+ * <p>
+ * A decoded message is only handed to the delivery task if it has no
+ * sender, since a sender has to be resolved in the transaction that uses
+ * it. Those messages, and any message whose preparation fails, are
+ * decoded and preprocessed again by the delivery task instead, so the
+ * pipeline never changes which messages are delivered. This means that
+ * such messages may be counted twice in the decode metrics.
+ */
+final class InboundPipeline {
+
+    /** The most messages prepared for one source before others run. */
+    static final int DRAIN_LIMIT = 32;
+
+    private static final Logger logger =
+        Logger.getLogger(InboundPipeline.class.getName());
+
+    // the service that decodes and preprocesses messages
+    private final MessageServiceImpl service;
+
+    // the scheduler for delivery tasks, and the worker threads
+    private final TransactionScheduler scheduler;
+    private final ExecutorService workers;
+
+    // the messages waiting to be prepared for each source
+    private final ConcurrentHashMap<Object,SourceQueue> sources =
+        new ConcurrentHashMap<Object,SourceQueue>();
+
+    /**
+     * Creates an instance of {@code InboundPipeline}.
+     *
+     * @param service the service used to decode and preprocess messages
+     * @param scheduler the scheduler used to run delivery tasks
+     * @param threads the number of worker threads
+     */
+    InboundPipeline(MessageServiceImpl service,
+                    TransactionScheduler scheduler, int threads)
+    {
+        this.service = service;
+        this.scheduler = scheduler;
+        final String name = service.getName() + ".pipeline-";
+        workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+                public Thread newThread(Runnable r) {
+                    Thread thread =
+                        new Thread(r, name + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    }
+
+    /**
+     * Queues a message to be prepared and then delivered. This should only
+     * be called once the transaction that received the message commits.
+     *
+     * @param source the source of the message
+     * @param bytes the encoded message, which is not modified
+     * @param receiver the receiver to deliver the message to
+     * @param owner the identity to run the delivery task as
+     */
+    void submit(Object source, byte [] bytes, MessageReceiver receiver,
+                Identity owner)
+    {
+        SourceQueue queue = sources.get(source);
+        if (queue == null) {
+            SourceQueue newQueue = new SourceQueue();
+            queue = sources.putIfAbsent(source, newQueue);
+            if (queue == null) {
+                queue = newQueue;
+            }
+        }
+        queue.add(new Submission(source, bytes, receiver, owner));
+    }
+
+    /**
+     * Forgets the queue for the given source. Any messages it still holds
+     * are prepared and delivered as usual.
+     *
+     * @param source the source of messages
+     */
+    void removeSource(Object source) {
+        sources.remove(source);
+    }
+
+    /** Stops the worker threads. */
+    void shutdown() {
+        workers.shutdownNow();
+    }
+
+    /**
+     * Decodes and preprocesses a submitted message, and queues the task
+     * that delivers it, unless it was dropped.
+     */
+    private void prepare(Submission submission, TaskQueue taskQueue) {
+        Message message = null;
+        try {
+            message = service.decodeMessage(ByteBuffer.wrap(submission.bytes));
+            if (MessageServiceImpl.isReusable(message)) {
+                message = service.preprocess(message, submission.source);
+                if (message == null) {
+                    return;
+                }
+            } else {
+                message = null;
+            }
+        } catch (RuntimeException re) {
+            // leave it to the delivery task to decode this in a transaction
+            // and report any failure
+            if (logger.isLoggable(Level.FINEST)) {
+                logger.log(Level.FINEST, "Couldn't prepare message from " +
+                           submission.source + " outside a transaction", re);
+            }
+            message = null;
+        }
+        taskQueue.addTask(new DeliveryTask(submission, message),
+                          submission.owner);
+    }
+
+    /** A single submitted message. */
+    private static final class Submission {
+        final Object source;
+        final byte [] bytes;
+        final MessageReceiver receiver;
+        final Identity owner;
+        Submission(Object source, byte [] bytes, MessageReceiver receiver,
+                   Identity owner)
+        {
+            this.source = source;
+            this.bytes = bytes;
+            this.receiver = receiver;
+            this.owner = owner;
+        }
+    }
+
+    /**
+     * The messages waiting to be prepared for a single source. At most one
+     * worker drains the queue at a time, and it gives up its thread after
+     * {@code DRAIN_LIMIT} messages so that a busy source can't starve the
+     * others.
+     */
+    private final class SourceQueue implements Runnable {
+        private final Queue<Submission> submissions =
+            new ConcurrentLinkedQueue<Submission>();
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+        private final TaskQueue taskQueue = scheduler.createTaskQueue();
+        void add(Submission submission) {
+            submissions.add(submission);
+            schedule();
+        }
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    workers.execute(this);
+                } catch (RejectedExecutionException ree) {
+                    // the service is shutting down
+                    logger.log(Level.FINE, "Pipeline is shut down", ree);
+                }
+            }
+        }
+        public void run() {
+            try {
+                for (int i = 0; i < DRAIN_LIMIT; i++) {
+                    Submission submission = submissions.poll();
+                    if (submission == null) {
+                        break;
+                    }
+                    prepare(submission, taskQueue);
+                }
+            } finally {
+                // even if preparing a message failed with an Error, this
+                // queue must be drained again
+                scheduled.set(false);
+                if (! submissions.isEmpty()) {
+                    schedule();
+                }
+            }
+        }
+    }
+
+    /**
+     * Delivers a message in a transaction. If the message wasn't prepared
+     * outside of a transaction then it is decoded and preprocessed here.
+     */
+    private final class DeliveryTask implements KernelRunnable {
+        private final Submission submission;
+        private final Message prepared;
+        DeliveryTask(Submission submission, Message prepared) {
+            this.submission = submission;
+            this.prepared = prepared;
+        }
+        public String getBaseTaskType() {
+            return DeliveryTask.class.getName();
+        }
+        public void run() throws Exception {
+            Message message = prepared;
+            if (message == null) {
+                message = service.preprocess(
+                    service.decodeMessage(ByteBuffer.wrap(submission.bytes),
+                                          submission.source),
+                    submission.source);
+                if (message == null) {
+                    return;
+                }
+            }
+            submission.receiver.receivedMessage(message);
+        }
+    }
+
+}
@@ -32,13 +32,19 @@
 
 package org.glieseframework.internal;
 
+import com.sun.sgs.app.ClientSession;
+
 import org.glieseframework.message.MessageManager;
+import org.glieseframework.message.MessageReceiver;
 import org.glieseframework.message.MessageSpec;
 
 import org.glieseframework.message.Message;
 
 import java.nio.ByteBuffer;
 
+import java.util.Collection;
+import java.util.List;
+
 
 /** Implementation of {@code MessageManager} that delegates to its service. */
 public class MessageManagerImpl implements MessageManager {
@@ -61,9 +67,55 @@ public class MessageManagerImpl implements MessageManager {
         return backingManager.createMessage(messageSpec);
     }
 
+    /** {@inheritDoc} */
+    public List<Message> createMessages(Collection<? extends MessageSpec>
+                                        messageSpecs)
+    {
+        return backingManager.createMessages(messageSpecs);
+    }
+
+    /** {@inheritDoc} */
+    public Message [] createMessages(MessageSpec [] messageSpecs) {
+        return backingManager.createMessages(messageSpecs);
+    }
+
     /** {@inheritDoc} */
     public Message decodeMessage(ByteBuffer messageBuffer) {
         return backingManager.decodeMessage(messageBuffer);
     }
 
+    /** {@inheritDoc} */
+    public Message decodeMessage(ByteBuffer messageBuffer, Object source) {
+        return backingManager.decodeMessage(messageBuffer, source);
+    }
+
+    /** {@inheritDoc} */
+    public void submitMessage(ByteBuffer messageBuffer, Object source,
+                              MessageReceiver receiver)
+    {
+        backingManager.submitMessage(messageBuffer, source, receiver);
+    }
+
+    /** {@inheritDoc} */
+    public boolean admitMessage(ByteBuffer messageBuffer, Object source) {
+        return backingManager.admitMessage(messageBuffer, source);
+    }
+
+    /** {@inheritDoc} */
+    public void removeSource(Object source) {
+        backingManager.removeSource(source);
+    }
+
+    /** {@inheritDoc} */
+    public void sendBatched(ClientSession session, Message message) {
+        backingManager.sendBatched(session, message);
+    }
+
+    /** {@inheritDoc} */
+    public void sendBatched(ClientSession session, Message message,
+                            int protocolVersion)
+    {
+        backingManager.sendBatched(session, message, protocolVersion);
+    }
+
 }
@@ -0,0 +1,275 @@
+/*
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.glieseframework.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * Decode statistics kept for each message identifier. Each message type
+ * has its own set of counters, which are striped by thread so that
+ * threads decoding the same type rarely update the same cache line. The
+ * stripes are only summed when statistics are read, which is rare, so
+ * recording a decode never takes a lock and never contends on a shared
+ * counter.
+ * <p>
+ * Counters for identifiers below {@code HandlerTable.DENSE_LIMIT} are
+ * found directly in an array, and any larger identifiers are kept in a
+ * map, matching the layout of the handler table. Only identifiers in the
+ * current handler table get their own counters. Every other identifier,
+ * which a client may choose freely, is counted in a single shared set of
+ * counters reported as {@code UNKNOWN_ID}, so that clients can't make
+ * this keep an unbounded number of counters.
+ */
+final class MessageMetrics implements MessageMetricsMXBean {
+
+    /** The name that the metrics are registered with in JMX. */
+    static final String OBJECT_NAME =
+        "org.glieseframework:type=MessageMetrics";
+
+    /** The identifier reported for messages with no handler. */
+    static final int UNKNOWN_ID = -1;
+
+    /** The number of buckets in each latency histogram. */
+    static final int LATENCY_BUCKETS = 32;
+
+    // the offset of each counter within a stripe
+    private static final int DECODES = 0;
+    private static final int BYTES = 1;
+    private static final int FAILURES = 2;
+    private static final int LATENCY = 3;
+    private static final int DROPS = 4;
+    private static final int HISTOGRAM = 5;
+
+    // the number of longs in a stripe, rounded up to a whole number of
+    // 64-byte cache lines so that stripes don't share lines
+    private static final int STRIDE = (HISTOGRAM + LATENCY_BUCKETS + 7) & ~7;
+
+    // the number of stripes, a power of two based on the processor count
+    private static final int STRIPES;
+    static {
+        int stripes = 1;
+        int processors = Runtime.getRuntime().availableProcessors();
+        while ((stripes < processors) && (stripes < 64)) {
+            stripes <<= 1;
+        }
+        STRIPES = stripes;
+    }
+
+    // the counters for each message identifier, created on first use
+    private final AtomicReferenceArray<Counters> dense =
+        new AtomicReferenceArray<Counters>(HandlerTable.DENSE_LIMIT);
+    private final ConcurrentHashMap<Integer,Counters> sparse =
+        new ConcurrentHashMap<Integer,Counters>();
+
+    // the counters shared by all identifiers that have no handler
+    private final Counters unknown = new Counters();
+
+    /** Creates an instance of {@code MessageMetrics}. */
+    MessageMetrics() { }
+
+    /**
+     * Records a successful decode.
+     *
+     * @param messageId the message identifier
+     * @param table the handler table used to decode the message
+     * @param bytes the encoded length of the message
+     * @param nanos the time taken to decode the message
+     */
+    void recordDecode(short messageId, HandlerTable table, int bytes,
+                      long nanos)
+    {
+        Counters counters = getCounters(messageId, table);
+        int base = stripe();
+        counters.values.incrementAndGet(base + DECODES);
+        counters.values.addAndGet(base + BYTES, bytes);
+        counters.values.addAndGet(base + LATENCY, nanos);
+        int bucket = 64 - Long.numberOfLeadingZeros(Math.max(nanos, 0));
+        counters.values.incrementAndGet(base + HISTOGRAM +
+                                        Math.min(bucket, LATENCY_BUCKETS - 1));
+    }
+
+    /**
+     * Records a failed decode.
+     *
+     * @param messageId the message identifier
+     * @param table the handler table used to decode the message
+     */
+    void recordFailure(short messageId, HandlerTable table) {
+        getCounters(messageId, table).values.
+            incrementAndGet(stripe() + FAILURES);
+    }
+
+    /**
+     * Records a message that was dropped by rate limiting.
+     *
+     * @param messageId the message identifier
+     * @param table the current handler table
+     */
+    void recordDropped(short messageId, HandlerTable table) {
+        getCounters(messageId, table).values.
+            incrementAndGet(stripe() + DROPS);
+    }
+
+    /* Implement MessageMetricsMXBean. */
+
+    /** {@inheritDoc} */
+    public MessageTypeStats [] getMessageTypeStats() {
+        List<MessageTypeStats> stats = new ArrayList<MessageTypeStats>();
+        for (int id = 0; id < dense.length(); id++) {
+            Counters counters = dense.get(id);
+            if (counters != null) {
+                stats.add(counters.snapshot(id));
+            }
+        }
+        List<Integer> sparseIds = new ArrayList<Integer>(sparse.keySet());
+        Collections.sort(sparseIds);
+        for (int id : sparseIds) {
+            stats.add(sparse.get(id).snapshot(id));
+        }
+        MessageTypeStats unknownStats = unknown.snapshot(UNKNOWN_ID);
+        if ((unknownStats.getDecodeCount() != 0) ||
+            (unknownStats.getFailureCount() != 0) ||
+            (unknownStats.getDroppedCount() != 0))
+        {
+            stats.add(unknownStats);
+        }
+        return stats.toArray(new MessageTypeStats[stats.size()]);
+    }
+
+    /** {@inheritDoc} */
+    public long getTotalDecodeCount() {
+        long total = 0;
+        for (MessageTypeStats stats : getMessageTypeStats()) {
+            total += stats.getDecodeCount();
+        }
+        return total;
+    }
+
+    /** {@inheritDoc} */
+    public long getTotalFailureCount() {
+        long total = 0;
+        for (MessageTypeStats stats : getMessageTypeStats()) {
+            total += stats.getFailureCount();
+        }
+        return total;
+    }
+
+    /** {@inheritDoc} */
+    public void reset() {
+        for (int id = 0; id < dense.length(); id++) {
+            Counters counters = dense.get(id);
+            if (counters != null) {
+                counters.reset();
+            }
+        }
+        for (Map.Entry<Integer,Counters> entry : sparse.entrySet()) {
+            entry.getValue().reset();
+        }
+        unknown.reset();
+    }
+
+    /* Private utility methods. */
+
+    /**
+     * Returns the counters for an identifier, creating them if needed, or
+     * the shared counters if the identifier isn't in the table.
+     */
+    private Counters getCounters(short messageId, HandlerTable table) {
+        if (table.get(messageId) == null) {
+            return unknown;
+        }
+        int id = messageId & 0xffff;
+        if (id < HandlerTable.DENSE_LIMIT) {
+            Counters counters = dense.get(id);
+            if (counters == null) {
+                dense.compareAndSet(id, null, new Counters());
+                counters = dense.get(id);
+            }
+            return counters;
+        }
+        Counters counters = sparse.get(id);
+        if (counters == null) {
+            Counters newCounters = new Counters();
+            counters = sparse.putIfAbsent(id, newCounters);
+            if (counters == null) {
+                counters = newCounters;
+            }
+        }
+        return counters;
+    }
+
+    /** Returns the index of the first counter in this thread's stripe. */
+    private static int stripe() {
+        return ((int) Thread.currentThread().getId() & (STRIPES - 1)) *
+            STRIDE;
+    }
+
+    /** The striped counters for a single message type. */
+    private static final class Counters {
+        final AtomicLongArray values = new AtomicLongArray(STRIPES * STRIDE);
+        /** Returns the sum of a counter across all stripes. */
+        long sum(int offset) {
+            long total = 0;
+            for (int base = 0; base < values.length(); base += STRIDE) {
+                total += values.get(base + offset);
+            }
+            return total;
+        }
+        /** Returns a snapshot of the summed counters. */
+        MessageTypeStats snapshot(int messageId) {
+            long [] histogram = new long[LATENCY_BUCKETS];
+            for (int i = 0; i < LATENCY_BUCKETS; i++) {
+                histogram[i] = sum(HISTOGRAM + i);
+            }
+            return new MessageTypeStats(messageId, sum(DECODES), sum(BYTES),
+                                        sum(FAILURES), sum(DROPS),
+                                        sum(LATENCY), histogram);
+        }
+        /** Sets every counter back to zero. */
+        void reset() {
+            for (int i = 0; i < values.length(); i++) {
+                values.set(i, 0);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.glieseframework.internal;
+
+
+/**
+ * The management interface for the per-message-type statistics kept by
+ * {@code MessageServiceImpl}. It is registered with the platform
+ * {@code MBeanServer} under {@code MessageMetrics.OBJECT_NAME} while the
+ * service is running.
+ */
+public interface MessageMetricsMXBean {
+
+    /**
+     * Returns a snapshot of the statistics for every message type that has
+     * been decoded, ordered by unsigned message identifier.
+     *
+     * @return the current statistics for each message type
+     */
+    MessageTypeStats [] getMessageTypeStats();
+
+    /**
+     * Returns the number of messages decoded, across all types.
+     *
+     * @return the total number of messages decoded
+     */
+    long getTotalDecodeCount();
+
+    /**
+     * Returns the number of messages that failed to decode, across all
+     * types.
+     *
+     * @return the total number of failed decodes
+     */
+    long getTotalFailureCount();
+
+    /** Resets all statistics to zero. */
+    void reset();
+
+}
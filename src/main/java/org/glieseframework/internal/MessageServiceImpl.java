@@ -32,37 +32,179 @@
 
 package org.glieseframework.internal;
 
+import com.sun.sgs.app.ClientSession;
+import com.sun.sgs.app.Delivery;
+
+import com.sun.sgs.auth.Identity;
+
 import com.sun.sgs.kernel.ComponentRegistry;
+import com.sun.sgs.kernel.TransactionScheduler;
 
+import com.sun.sgs.service.Transaction;
+import com.sun.sgs.service.TransactionListener;
 import com.sun.sgs.service.TransactionProxy;
 
+import org.glieseframework.core.Entity;
+import org.glieseframework.core.FanOut;
+
 import org.glieseframework.message.MessageSpec;
 
+import org.glieseframework.message.DeliveryClass;
 import org.glieseframework.message.Message;
+import org.glieseframework.message.MessagePreprocessor;
+import org.glieseframework.message.MessageReceiver;
+import org.glieseframework.message.SupersedableMessage;
+
+import org.glieseframework.message.codec.MessageCodecProcessor;
 
+import org.glieseframework.message.common.BatchMessage;
+import org.glieseframework.message.common.BatchMessageHandler;
+
+import org.glieseframework.message.common.impl.AbstractMessage;
+import org.glieseframework.message.common.impl.BatchMessageImpl;
+import org.glieseframework.message.common.impl.PayloadCompressor;
+import org.glieseframework.message.common.impl.StringTable;
+import org.glieseframework.message.common.impl.WireProtocol;
+
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.io.StreamTokenizer;
 
+import java.lang.management.ManagementFactory;
+
+import java.net.URL;
+
 import java.nio.ByteBuffer;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 
 /**
  * Implementation of {@code MessageService} that provides some basic message
  * handling. Messages are created and decoded based on the available set of
  * {@code MessageHandler}s, which are loaded on startup. The handlers are
- * loaded from a file of the form [MESSAGE_ID\w+HANDLER_CLASS\w+]*.
+ * loaded from a file with one handler per line, of the form
+ * {@code MESSAGE_ID HANDLER_CLASS [RATE [BURST]]}.
  * <p>
  * The {@code HANDLER_FILE_PROPERTY} is used to specify a specific file to
  * load the list from. If no file is specified, the list is loaded from
  * the default {@code DEFAULT_HANDLER_FILE} file. Note that if the file
  * path is relative, then the file is resolved with the application's data
- * directory as the root.
+ * directory as the root. Blank space separates tokens, and anything after
+ * a {@code #} on a line is ignored.
+ * <p>
+ * The handler file is checked for changes every
+ * {@code RELOAD_INTERVAL_PROPERTY} milliseconds. When it changes, a new
+ * table is built in the background and then published atomically, so a
+ * decode always sees either the complete old table or the complete new
+ * one. If the new file can't be parsed then the current table is kept. A
+ * value of {@code 0} disables reloading.
+ * <p>
+ * In addition to the handler file, every
+ * {@code MessageCodecProcessor.HANDLER_RESOURCE} resource on the classpath
+ * is read in the same format. These list the handlers generated for
+ * {@code MessageCodec} interfaces. An identifier may only have one handler
+ * across the file and all resources.
+ * <p>
+ * Handlers are kept in an immutable {@code HandlerTable} indexed directly
+ * by message identifier, so dispatching a message never boxes the
+ * identifier, takes a lock or allocates.
+ * <p>
+ * If the {@code DECODE_VIEWS_PROPERTY} is {@code true} then messages whose
+ * handlers implement {@code FlyweightMessageHandler} are decoded as
+ * read-only views over the incoming buffer, and their fields are only
+ * materialized when they are accessed. By default messages are fully
+ * decoded.
+ * <p>
+ * If {@code COMPRESSION_THRESHOLD_PROPERTY} is set to a positive value then
+ * messages that use the standard header, and whose payload is at least
+ * that many bytes, are compressed when they are encoded. The flag byte of
+ * the header marks a compressed payload, and {@code MessageHeader} inflates
+ * it again when such a message is decoded. By default nothing is
+ * compressed.
+ * <p>
+ * If {@code STRING_TABLE_FILE_PROPERTY} names a file then each non-empty
+ * line of that file, read as UTF-8, is registered with the
+ * {@code StringTable} in order. Chat and mode change messages whose text
+ * is in the table are then sent as a small token. Clients must load the
+ * same table. A relative path is resolved like the handler file.
+ * <p>
+ * The optional {@code RATE} and {@code BURST} columns limit how many
+ * messages of that type each source may send, as the average number per
+ * second and the number allowed at once. The burst defaults to one
+ * second's worth. {@code SOURCE_RATE_PROPERTY} and
+ * {@code SOURCE_BURST_PROPERTY} optionally limit all messages from each
+ * source. These limits are checked by {@code admitMessage}, using token
+ * buckets held in memory on this node, before a message is decoded.
+ * Each message in a {@code BatchMessage} is counted against the limits
+ * for its own identifier and the source, so batching can't be used to get
+ * around them, and a batch is dropped whole if any of its messages would
+ * be. Dropped messages are counted with the other message metrics.
+ * <p>
+ * Messages decoded through {@code decodeMessage(ByteBuffer,Object)} are
+ * kept in a small {@code DecodeCache} with
+ * {@code DECODE_CACHE_SIZE_PROPERTY} slots, so that a retried task doesn't
+ * decode the same message again. A size of {@code 0} disables the cache.
+ * <p>
+ * Messages passed to {@code submitMessage} are run through the
+ * {@code MessagePreprocessor}s listed, in order, by
+ * {@code PREPROCESSORS_PROPERTY}. If {@code PIPELINE_THREADS_PROPERTY} is
+ * positive then the service runs an {@code InboundPipeline} with that many
+ * threads, which decodes and preprocesses submitted messages outside of any
+ * transaction once the submitting transaction commits, and delivers them
+ * in new transactions. A value of {@code 0}, the default, does all of this
+ * work in the submitting transaction instead.
+ * <p>
+ * The service also sets the {@code FanOut} chunk size and chunks per task
+ * from {@code FANOUT_CHUNK_SIZE_PROPERTY} and
+ * {@code FANOUT_CHUNKS_PER_TASK_PROPERTY}, which control how groups split
+ * sends to large numbers of non-client members into tasks, and how many of
+ * those tasks are scheduled at a time.
+ * <p>
+ * Decode counts, decoded bytes, decode latency and decode failures are
+ * kept for each message identifier by {@code MessageMetrics}. These are
+ * available through JMX while the service is running, and are also logged
+ * every {@code METRICS_LOG_INTERVAL_PROPERTY} milliseconds if that is set.
+ * <p>
+ * Messages are decoded in either version of the wire protocol, as
+ * described by {@code WireProtocol}, so identifiers from
+ * {@code WireProtocol.FIRST_RESERVED_ID} upwards may not be used in the
+ * handler list. Batches queued with a protocol version are encoded with
+ * that version.
+ * <p>
+ * The service always handles {@code BatchMessage}s itself, so the
+ * {@code BatchMessage.STANDARD_ID} identifier may not be used in the
+ * handler list. Messages queued through {@code sendBatched} are kept
+ * with the current transaction and sent just before it commits, batched
+ * separately for each {@code DeliveryClass} and sent with that class's
+ * delivery guarantee. Queued {@code SupersedableMessage}s are coalesced so
+ * that each recipient gets only the newest one from each sender.
  */
 public class MessageServiceImpl implements MessageService {
 
@@ -73,27 +215,222 @@ public class MessageServiceImpl implements MessageService {
     /** The default handler list file. */
     public static final String DEFAULT_HANDLER_FILE = "handler.lst";
 
-    // map of available handlers
-    private final ConcurrentHashMap<Short,MessageHandler> handlerMap =
-        new ConcurrentHashMap<Short,MessageHandler>();
+    /** The property used to specify how often to check the handler file. */
+    public static final String RELOAD_INTERVAL_PROPERTY =
+        MessageServiceImpl.class.getName() + ".reload.interval";
+
+    /** The default handler file check interval, in milliseconds. */
+    public static final long DEFAULT_RELOAD_INTERVAL = 5000;
+
+    /** The property used to specify the smallest payload to compress. */
+    public static final String COMPRESSION_THRESHOLD_PROPERTY =
+        MessageServiceImpl.class.getName() + ".compression.threshold";
+
+    /** The property used to specify a file of strings to tokenize. */
+    public static final String STRING_TABLE_FILE_PROPERTY =
+        MessageServiceImpl.class.getName() + ".string.table.file";
+
+    /** The property used to decode messages as flyweight views. */
+    public static final String DECODE_VIEWS_PROPERTY =
+        MessageServiceImpl.class.getName() + ".decode.views";
+
+    /** The property used to specify how often to log message metrics. */
+    public static final String METRICS_LOG_INTERVAL_PROPERTY =
+        MessageServiceImpl.class.getName() + ".metrics.log.interval";
+
+    /** The property used to specify the number of decode cache slots. */
+    public static final String DECODE_CACHE_SIZE_PROPERTY =
+        MessageServiceImpl.class.getName() + ".decode.cache.size";
+
+    /** The default number of decode cache slots. */
+    public static final int DEFAULT_DECODE_CACHE_SIZE = 1024;
+
+    /**
+     * The property used to specify the average number of messages per
+     * second allowed from each source, across all message types.
+     */
+    public static final String SOURCE_RATE_PROPERTY =
+        MessageServiceImpl.class.getName() + ".source.rate";
+
+    /** The property used to specify the burst allowed from each source. */
+    public static final String SOURCE_BURST_PROPERTY =
+        MessageServiceImpl.class.getName() + ".source.burst";
+
+    /**
+     * The property used to specify the number of threads that prepare
+     * submitted messages outside of transactions.
+     */
+    public static final String PIPELINE_THREADS_PROPERTY =
+        MessageServiceImpl.class.getName() + ".pipeline.threads";
+
+    /**
+     * The default number of pipeline threads, which is {@code 0} so that
+     * messages are handled in the submitting transaction unless the
+     * pipeline is enabled.
+     */
+    public static final int DEFAULT_PIPELINE_THREADS = 0;
+
+    /**
+     * The property used to list the {@code MessagePreprocessor} classes,
+     * separated by commas or blank space.
+     */
+    public static final String PREPROCESSORS_PROPERTY =
+        MessageServiceImpl.class.getName() + ".preprocessors";
+
+    /**
+     * The property used to specify the most non-client group members that
+     * are sent a message in one transaction.
+     */
+    public static final String FANOUT_CHUNK_SIZE_PROPERTY =
+        MessageServiceImpl.class.getName() + ".fanout.chunk.size";
+
+    /**
+     * The property used to specify the most chunk tasks scheduled each
+     * time a group fan-out task runs, before it reschedules itself.
+     */
+    public static final String FANOUT_CHUNKS_PER_TASK_PROPERTY =
+        MessageServiceImpl.class.getName() + ".fanout.chunks.per.task";
+
+    // how long a source must be idle before its limits are forgotten
+    private static final long SOURCE_IDLE_NANOS =
+        TimeUnit.MINUTES.toNanos(5);
+
+    // the delivery classes, in the order their batching lanes are sent
+    private static final DeliveryClass [] DELIVERY_CLASSES =
+        DeliveryClass.values();
+    private static final int LANE_COUNT = DELIVERY_CLASSES.length;
+
+    private static final Logger logger =
+        Logger.getLogger(MessageServiceImpl.class.getName());
+
+    // the table of available handlers, which is never modified once it
+    // has been published, but may be replaced when the file is reloaded
+    private volatile HandlerTable handlerTable;
+
+    // the handler file, the modification time of the last version read,
+    // and how often to check for changes
+    private final File handlerFile;
+    private long handlerFileModified;
+    private final long reloadInterval;
+
+    // the executor that runs background work, created in ready()
+    private ScheduledExecutorService executor = null;
+
+    // the inbound rate limits, and the messages admitted by each active
+    // transaction, which are refunded if the transaction aborts
+    private final RateLimiter rateLimiter;
+    private final ConcurrentHashMap<Transaction,Admissions> admissions =
+        new ConcurrentHashMap<Transaction,Admissions>();
+
+    // the cache used to decode retried messages once, or null if disabled
+    private final DecodeCache decodeCache;
+
+    // the preprocessors run on submitted messages, in order
+    private final MessagePreprocessor [] preprocessors;
+
+    // the number of pipeline threads and the scheduler for delivery tasks,
+    // the pipeline itself, which is created in ready() if there are any
+    // threads, and the messages submitted by each active transaction
+    private final int pipelineThreads;
+    private final TransactionScheduler scheduler;
+    private volatile InboundPipeline pipeline = null;
+    private final ConcurrentHashMap<Transaction,Submissions> submissions =
+        new ConcurrentHashMap<Transaction,Submissions>();
+
+    // the per-type decode statistics, and how often to log them
+    private final MessageMetrics metrics = new MessageMetrics();
+    private final long metricsLogInterval;
+
+    // whether to decode messages as views when the handler supports it
+    private final boolean decodeViews;
+
+    // the proxy used to find the current transaction
+    private final TransactionProxy txnProxy;
+
+    // the outbound batches for each active transaction
+    private final ConcurrentHashMap<Transaction,OutboundBatches>
+        outboundBatches = new ConcurrentHashMap<Transaction,OutboundBatches>();
 
     /** Creates an instance of {@code MessageServiceImpl}. */
     public MessageServiceImpl(Properties props, ComponentRegistry registry,
                               TransactionProxy proxy)
     {
+        txnProxy = proxy;
+        decodeViews = Boolean.parseBoolean(props.getProperty(
+                DECODE_VIEWS_PROPERTY, "false"));
+        String sourceRate = props.getProperty(SOURCE_RATE_PROPERTY);
+        RateLimit sourceLimit = null;
+        if (sourceRate != null) {
+            double rate = Double.parseDouble(sourceRate);
+            sourceLimit = new RateLimit(rate, Integer.parseInt(
+                    props.getProperty(SOURCE_BURST_PROPERTY,
+                                      String.valueOf(RateLimit.
+                                                     defaultBurst(rate)))));
+        }
+        rateLimiter = new RateLimiter(sourceLimit);
+        int decodeCacheSize = Integer.parseInt(props.getProperty(
+                DECODE_CACHE_SIZE_PROPERTY,
+                String.valueOf(DEFAULT_DECODE_CACHE_SIZE)));
+        decodeCache =
+            decodeCacheSize > 0 ? new DecodeCache(decodeCacheSize) : null;
+        metricsLogInterval = Long.parseLong(props.getProperty(
+                METRICS_LOG_INTERVAL_PROPERTY, "0"));
+        preprocessors =
+            createPreprocessors(props.getProperty(PREPROCESSORS_PROPERTY, ""));
+        pipelineThreads = Integer.parseInt(props.getProperty(
+                PIPELINE_THREADS_PROPERTY,
+                String.valueOf(DEFAULT_PIPELINE_THREADS)));
+        if (pipelineThreads < 0) {
+            throw new IllegalArgumentException("Pipeline threads must not " +
+                                               "be negative");
+        }
+        scheduler = pipelineThreads > 0 ?
+            registry.getComponent(TransactionScheduler.class) : null;
+        PayloadCompressor.setThreshold(Integer.parseInt(props.getProperty(
+                COMPRESSION_THRESHOLD_PROPERTY, "0")));
+        FanOut.setChunkSize(Integer.parseInt(props.getProperty(
+                FANOUT_CHUNK_SIZE_PROPERTY,
+                String.valueOf(FanOut.DEFAULT_CHUNK_SIZE))));
+        FanOut.setChunksPerTask(Integer.parseInt(props.getProperty(
+                FANOUT_CHUNKS_PER_TASK_PROPERTY,
+                String.valueOf(FanOut.DEFAULT_CHUNKS_PER_TASK))));
+        String stringTableName = props.getProperty(STRING_TABLE_FILE_PROPERTY);
+        if (stringTableName != null) {
+            File stringTableFile = new File(stringTableName);
+            if (! stringTableFile.isAbsolute()) {
+                stringTableFile = new File(props.getProperty(
+                        "com.sun.sgs.app.root"), stringTableName);
+            }
+            try {
+                loadStringTable(stringTableFile);
+            } catch (IOException ioe) {
+                throw new IllegalStateException("Failed to read string " +
+                                                "table file", ioe);
+            }
+        }
+
         String handlerFileName =
             props.getProperty(HANDLER_FILE_PROPERTY, DEFAULT_HANDLER_FILE);
-        File handlerFile = new File(handlerFileName);
-        if (! handlerFile.isAbsolute()) {
+        File file = new File(handlerFileName);
+        if (! file.isAbsolute()) {
             String rootName = props.getProperty("com.sun.sgs.app.root");
-            handlerFile = new File(rootName, handlerFileName);
+            file = new File(rootName, handlerFileName);
         }
-        if ((! handlerFile.canRead()) || (handlerFile.isDirectory())) {
+        if ((! file.canRead()) || (file.isDirectory())) {
             throw new IllegalStateException("Invalid handler file: " +
-                                            handlerFile.getPath());
+                                            file.getPath());
+        }
+        handlerFile = file;
+        reloadInterval = Long.parseLong(props.getProperty(
+                RELOAD_INTERVAL_PROPERTY,
+                String.valueOf(DEFAULT_RELOAD_INTERVAL)));
+        if (reloadInterval < 0) {
+            throw new IllegalArgumentException("Reload interval must not " +
+                                               "be negative");
         }
         try {
-            parseHandlerFile(handlerFile);
+            handlerFileModified = handlerFile.lastModified();
+            handlerTable = loadHandlerTable();
         } catch (IOException ioe) {
             throw new IllegalStateException("Failed to read handler file", ioe);
         }
@@ -107,10 +444,64 @@ public class MessageServiceImpl implements MessageService {
     }
 
     /** {@inheritDoc} */
-    public void ready() {}
+    public void ready() {
+        executor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, getName());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        if (reloadInterval > 0) {
+            executor.scheduleWithFixedDelay(new Runnable() {
+                    public void run() {
+                        checkHandlerFile();
+                    }
+                }, reloadInterval, reloadInterval, TimeUnit.MILLISECONDS);
+        }
+        if (metricsLogInterval > 0) {
+            executor.scheduleAtFixedRate(new Runnable() {
+                    public void run() {
+                        logMetrics();
+                    }
+                }, metricsLogInterval, metricsLogInterval,
+                TimeUnit.MILLISECONDS);
+        }
+        executor.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    rateLimiter.removeIdle(SOURCE_IDLE_NANOS);
+                }
+            }, 1, 1, TimeUnit.MINUTES);
+        if (pipelineThreads > 0) {
+            pipeline = new InboundPipeline(this, scheduler, pipelineThreads);
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().
+                registerMBean(metrics,
+                              new ObjectName(MessageMetrics.OBJECT_NAME));
+        } catch (JMException jme) {
+            logger.log(Level.WARNING, "Couldn't register message metrics",
+                       jme);
+        }
+    }
 
     /** {@inheritDoc} */
-    public void shutdown() {}
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        if (pipeline != null) {
+            pipeline.shutdown();
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().
+                unregisterMBean(new ObjectName(MessageMetrics.OBJECT_NAME));
+        } catch (JMException jme) {
+            logger.log(Level.FINE, "Couldn't unregister message metrics",
+                       jme);
+        }
+    }
 
     /* Implement MessageService */
 
@@ -120,64 +511,466 @@ public class MessageServiceImpl implements MessageService {
             createMessage(messageSpec);
     }
 
+    /** {@inheritDoc} */
+    public List<Message> createMessages(Collection<? extends MessageSpec>
+                                        messageSpecs)
+    {
+        List<Message> messages = new ArrayList<Message>(messageSpecs.size());
+        // use one table for the whole burst, and only look up the handler
+        // again when the identifier changes
+        HandlerTable table = handlerTable;
+        MessageHandler handler = null;
+        short handlerId = 0;
+        for (MessageSpec messageSpec : messageSpecs) {
+            short id = messageSpec.getMessageId();
+            if ((handler == null) || (id != handlerId)) {
+                handler = getHandler(table, id);
+                handlerId = id;
+            }
+            messages.add(handler.createMessage(messageSpec));
+        }
+        AbstractMessage.encodeTogether(messages);
+        return messages;
+    }
+
+    /** {@inheritDoc} */
+    public Message [] createMessages(MessageSpec [] messageSpecs) {
+        return createMessages(Arrays.asList(messageSpecs)).
+            toArray(new Message[messageSpecs.length]);
+    }
+
     /** {@inheritDoc} */
     public Message decodeMessage(ByteBuffer messageBuffer) {
-        short id = messageBuffer.getShort();
-        return getHandler(id).decodeMessage(id, messageBuffer);
+        long start = System.nanoTime();
+        int startPosition = messageBuffer.position();
+        short id = WireProtocol.readMessageId(messageBuffer);
+        HandlerTable table = handlerTable;
+        try {
+            MessageHandler handler = getHandler(table, id);
+            Message message;
+            if (decodeViews && (handler instanceof FlyweightMessageHandler)) {
+                message = ((FlyweightMessageHandler) handler).
+                    decodeView(id, messageBuffer);
+            } else {
+                message = handler.decodeMessage(id, messageBuffer);
+            }
+            metrics.recordDecode(id, table,
+                                 messageBuffer.position() - startPosition,
+                                 System.nanoTime() - start);
+            return message;
+        } catch (RuntimeException re) {
+            metrics.recordFailure(id, table);
+            throw re;
+        }
+    }
+
+    /** {@inheritDoc} */
+    public Message decodeMessage(ByteBuffer messageBuffer, Object source) {
+        if (decodeCache == null) {
+            return decodeMessage(messageBuffer);
+        }
+        Message message = decodeCache.get(source, messageBuffer);
+        if (message != null) {
+            messageBuffer.position(messageBuffer.limit());
+            return message;
+        }
+        int position = messageBuffer.position();
+        message = decodeMessage(messageBuffer);
+        if (isReusable(message)) {
+            decodeCache.put(source, messageBuffer, position, message);
+        }
+        return message;
+    }
+
+    /** {@inheritDoc} */
+    public void submitMessage(ByteBuffer messageBuffer, Object source,
+                              MessageReceiver receiver)
+    {
+        if (pipeline == null) {
+            Message message =
+                preprocess(decodeMessage(messageBuffer, source), source);
+            if (message != null) {
+                receiver.receivedMessage(message);
+            }
+            return;
+        }
+        byte [] bytes = new byte[messageBuffer.remaining()];
+        messageBuffer.get(bytes);
+        Transaction txn = txnProxy.getCurrentTransaction();
+        Submissions submitted = submissions.get(txn);
+        if (submitted == null) {
+            // a transaction only ever runs in one thread, so there's no
+            // race between this check and the put
+            submitted = new Submissions(txn);
+            submissions.put(txn, submitted);
+            txn.registerListener(submitted);
+        }
+        submitted.add(source, bytes, receiver, txnProxy.getCurrentOwner());
+    }
+
+    /** {@inheritDoc} */
+    public boolean admitMessage(ByteBuffer messageBuffer, Object source) {
+        int unsignedId = WireProtocol.peekMessageId(messageBuffer);
+        if (unsignedId < 0) {
+            // leave it to decoding to reject this
+            return true;
+        }
+        short id = (short) unsignedId;
+        HandlerTable table = handlerTable;
+        if (id == BatchMessage.STANDARD_ID) {
+            short [] batchedIds = batchedIds(messageBuffer);
+            if (batchedIds.length > 0) {
+                return admitBatch(batchedIds, source, table);
+            }
+        }
+        if (! rateLimiter.isLimited(id, table)) {
+            return true;
+        }
+        if (! rateLimiter.acquire(source, id, table)) {
+            metrics.recordDropped(id, table);
+            if (logger.isLoggable(Level.FINE)) {
+                logger.log(Level.FINE, "Dropped message {0} from {1}",
+                           new Object [] { id, source });
+            }
+            return false;
+        }
+        getAdmissions().add(source, id, table);
+        return true;
+    }
+
+    /**
+     * Admits a batch only if each of its messages is within the limits for
+     * its identifier. If any message isn't then the tokens taken for the
+     * others are returned, and the whole batch is dropped.
+     */
+    private boolean admitBatch(short [] batchedIds, Object source,
+                               HandlerTable table)
+    {
+        for (int i = 0; i < batchedIds.length; i++) {
+            if ((! rateLimiter.isLimited(batchedIds[i], table)) ||
+                rateLimiter.acquire(source, batchedIds[i], table))
+            {
+                continue;
+            }
+            for (int j = 0; j < i; j++) {
+                if (rateLimiter.isLimited(batchedIds[j], table)) {
+                    rateLimiter.refund(source, batchedIds[j], table);
+                }
+            }
+            metrics.recordDropped(BatchMessage.STANDARD_ID, table);
+            if (logger.isLoggable(Level.FINE)) {
+                logger.log(Level.FINE, "Dropped batch from {0} at message " +
+                           "{1}", new Object [] { source, batchedIds[i] });
+            }
+            return false;
+        }
+        Admissions admitted = null;
+        for (short batchedId : batchedIds) {
+            if (rateLimiter.isLimited(batchedId, table)) {
+                if (admitted == null) {
+                    admitted = getAdmissions();
+                }
+                admitted.add(source, batchedId, table);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the identifiers of the messages in an encoded batch without
+     * decoding them, stopping at the first entry that can't be read. Any
+     * malformed entry is left for decoding to reject.
+     */
+    private static short [] batchedIds(ByteBuffer messageBuffer) {
+        ByteBuffer frame = messageBuffer.duplicate();
+        short [] ids = new short[0];
+        int count = 0;
+        try {
+            WireProtocol.readMessageId(frame);
+            ids = new short[frame.getShort() & 0xffff];
+            while (count < ids.length) {
+                int length = frame.getShort() & 0xffff;
+                if (length > frame.remaining()) {
+                    break;
+                }
+                int end = frame.position() + length;
+                int limit = frame.limit();
+                frame.limit(end);
+                int entryId = WireProtocol.peekMessageId(frame);
+                frame.limit(limit);
+                if (entryId < 0) {
+                    break;
+                }
+                ids[count++] = (short) entryId;
+                frame.position(end);
+            }
+        } catch (RuntimeException re) {
+            // the batch is malformed, so decoding it will fail
+        }
+        return count == ids.length ? ids : Arrays.copyOf(ids, count);
+    }
+
+    /** Returns the admissions for the current transaction. */
+    private Admissions getAdmissions() {
+        Transaction txn = txnProxy.getCurrentTransaction();
+        Admissions admitted = admissions.get(txn);
+        if (admitted == null) {
+            // a transaction only ever runs in one thread, so there's no
+            // race between this check and the put
+            admitted = new Admissions(txn);
+            admissions.put(txn, admitted);
+            txn.registerListener(admitted);
+        }
+        return admitted;
+    }
+
+    /** {@inheritDoc} */
+    public void removeSource(Object source) {
+        rateLimiter.remove(source);
+        if (pipeline != null) {
+            pipeline.removeSource(source);
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void sendBatched(ClientSession session, Message message) {
+        sendBatched(session, message, WireProtocol.BASE_VERSION);
+    }
+
+    /** {@inheritDoc} */
+    public void sendBatched(ClientSession session, Message message,
+                            int protocolVersion)
+    {
+        WireProtocol.checkVersion(protocolVersion);
+        if (message instanceof BatchMessage) {
+            throw new IllegalArgumentException("Batches can't be nested");
+        }
+        Transaction txn = txnProxy.getCurrentTransaction();
+        OutboundBatches batches = outboundBatches.get(txn);
+        if (batches == null) {
+            // a transaction only ever runs in one thread, so there's no
+            // race between this check and the put
+            batches = new OutboundBatches(txn);
+            outboundBatches.put(txn, batches);
+            txn.registerListener(batches);
+        }
+        batches.add(session, message, protocolVersion);
+    }
+
+    /* Package-private pipeline methods. */
+
+    /**
+     * Runs the preprocessors on a message, returning the message to handle
+     * or {@code null} if it was dropped. Dropped messages are counted with
+     * the other message metrics.
+     */
+    Message preprocess(Message message, Object source) {
+        short id = message.getMessageId();
+        for (MessagePreprocessor preprocessor : preprocessors) {
+            message = preprocessor.preprocess(message, source);
+            if (message == null) {
+                metrics.recordDropped(id, handlerTable);
+                return null;
+            }
+        }
+        return message;
+    }
+
+    /**
+     * Returns whether a decoded message can be reused by later
+     * transactions, which is only true if neither it nor any message it
+     * contains has a sender.
+     */
+    static boolean isReusable(Message message) {
+        if (message.getSender() != null) {
+            return false;
+        }
+        if (message instanceof BatchMessage) {
+            for (Message batched : ((BatchMessage) message).getMessages()) {
+                if (! isReusable(batched)) {
+                    return false;
+                }
+            }
+        }
+        return true;
     }
 
     /* Private utility methods. */
 
-    /** Parses the handler file. TODO: should this be re-callable? */
-    private void parseHandlerFile(File inputFile) throws IOException {
-        FileReader reader = new FileReader(inputFile);
+    /** Creates the listed preprocessors, in order. */
+    private static MessagePreprocessor [] createPreprocessors(String names) {
+        List<MessagePreprocessor> list = new ArrayList<MessagePreprocessor>();
+        for (String name : names.split("[,\\s]+")) {
+            if (name.length() == 0) {
+                continue;
+            }
+            try {
+                list.add((MessagePreprocessor) Class.forName(name).
+                         newInstance());
+            } catch (Exception e) {
+                throw new IllegalStateException("Couldn't create " +
+                                                "preprocessor " + name, e);
+            }
+        }
+        return list.toArray(new MessagePreprocessor[list.size()]);
+    }
+
+    /** Called in the background to log the current message metrics. */
+    private void logMetrics() {
+        if (! logger.isLoggable(Level.INFO)) {
+            return;
+        }
+        StringBuilder dump = new StringBuilder("Message metrics:");
+        for (MessageTypeStats stats : metrics.getMessageTypeStats()) {
+            dump.append("\n    ").append(stats);
+        }
+        logger.log(Level.INFO, dump.toString());
+    }
+
+    /**
+     * Called in the background to rebuild and publish the handler table if
+     * the handler file has changed since it was last read.
+     */
+    private void checkHandlerFile() {
+        long modified = handlerFile.lastModified();
+        if ((modified == 0) || (modified == handlerFileModified)) {
+            return;
+        }
+        // whether or not this succeeds, don't try this version again
+        handlerFileModified = modified;
+        try {
+            handlerTable = loadHandlerTable();
+            logger.log(Level.INFO, "Reloaded message handlers from {0}",
+                       handlerFile);
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Failed to reload message handlers " +
+                       "from " + handlerFile + ", keeping current handlers",
+                       e);
+        }
+    }
+
+    /** Builds a new table with the built-in and listed handlers. */
+    private HandlerTable loadHandlerTable() throws IOException {
+        HandlerTable.Builder builder = new HandlerTable.Builder();
+        builder.add(BatchMessage.STANDARD_ID, new BatchMessageHandler(this));
+        parseHandlers(new FileReader(handlerFile), builder);
+        ClassLoader loader = MessageServiceImpl.class.getClassLoader();
+        Enumeration<URL> resources =
+            loader.getResources(MessageCodecProcessor.HANDLER_RESOURCE);
+        while (resources.hasMoreElements()) {
+            InputStream in = resources.nextElement().openStream();
+            parseHandlers(new InputStreamReader(in, "UTF-8"), builder);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Registers each non-empty line of the given file with the
+     * {@code StringTable}, in order.
+     */
+    private static void loadStringTable(File file) throws IOException {
+        BufferedReader reader = new BufferedReader(
+            new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() > 0) {
+                    StringTable.register(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Parses a handler list, adding each handler to the builder. Each line
+     * has an identifier, a handler class name, and optionally a rate in
+     * messages per second and a burst size.
+     */
+    private void parseHandlers(Reader reader, HandlerTable.Builder builder)
+        throws IOException
+    {
         StreamTokenizer stok = new StreamTokenizer(reader);
-        stok.eolIsSignificant(false);
-        stok.wordChars('0', '9');
-        stok.wordChars('.', '.');
+        // treat every non-blank run of characters as a word, so that
+        // identifiers aren't parsed as floating-point numbers
+        stok.resetSyntax();
+        stok.wordChars('!', '~');
+        stok.whitespaceChars(0, ' ');
+        stok.commentChar('#');
+        stok.eolIsSignificant(true);
 
         try {
+            List<String> fields = new ArrayList<String>();
             while (stok.nextToken() != StreamTokenizer.TT_EOF) {
-                short id = 0;
-                try {
-                    id = Short.parseShort(stok.sval);
-                } catch (NumberFormatException nfe) {
-                    throw new IOException("Illegal identifier " + stok.sval +
-                                          " at line " + stok.lineno());
-                }
-                
-                if (stok.nextToken() != StreamTokenizer.TT_WORD) {
-                    throw new IOException("Expected class name at line " +
-                                          stok.lineno());
-                }
-                
-                MessageHandler handler = null;
-                try {
-                    Class<?> handlerClass = Class.forName(stok.sval);
-                    handler = (MessageHandler) handlerClass.newInstance();
-                } catch (Exception e) {
-                    throw new IOException("Couldn't create handler " +
-                                          stok.sval + " at line " +
-                                          stok.lineno(), e);
-                }
-                addMessageHandler(id, handler);
+                if (stok.ttype != StreamTokenizer.TT_EOL) {
+                    fields.add(stok.sval);
+                    continue;
+                }
+                // the tokenizer has already moved on to the next line
+                parseHandlerLine(fields, stok.lineno() - 1, builder);
+                fields.clear();
             }
+            parseHandlerLine(fields, stok.lineno(), builder);
         } finally {
             reader.close();
         }
     }
 
-    /** Adds a single handler if the identifier isn't already handled. */
-    private void addMessageHandler(short messageId, MessageHandler handler) {
-        if (handlerMap.putIfAbsent(messageId, handler) != null) {
-            throw new IllegalArgumentException("Message Identifier already " +
-                                               "has a handler");
+    /** Parses the fields of a single handler line, if there are any. */
+    private void parseHandlerLine(List<String> fields, int line,
+                                  HandlerTable.Builder builder)
+        throws IOException
+    {
+        if (fields.isEmpty()) {
+            return;
+        }
+        if ((fields.size() < 2) || (fields.size() > 4)) {
+            throw new IOException("Expected identifier, class name and " +
+                                  "optional rate and burst at line " + line);
+        }
+
+        short id = 0;
+        try {
+            id = Short.parseShort(fields.get(0));
+        } catch (NumberFormatException nfe) {
+            throw new IOException("Illegal identifier " + fields.get(0) +
+                                  " at line " + line);
         }
+
+        MessageHandler handler = null;
+        try {
+            Class<?> handlerClass = Class.forName(fields.get(1));
+            handler = (MessageHandler) handlerClass.newInstance();
+        } catch (Exception e) {
+            throw new IOException("Couldn't create handler " +
+                                  fields.get(1) + " at line " + line, e);
+        }
+
+        RateLimit limit = null;
+        if (fields.size() > 2) {
+            try {
+                double rate = Double.parseDouble(fields.get(2));
+                int burst = fields.size() > 3 ?
+                    Integer.parseInt(fields.get(3)) :
+                    RateLimit.defaultBurst(rate);
+                limit = new RateLimit(rate, burst);
+            } catch (IllegalArgumentException iae) {
+                throw new IOException("Illegal rate limit at line " + line,
+                                      iae);
+            }
+        }
+        builder.add(id, handler, limit);
     }
 
     /** Gets the handler for the id, or throw an exception. */
     private MessageHandler getHandler(short id) {
-        MessageHandler handler = handlerMap.get(id);
+        return getHandler(handlerTable, id);
+    }
+
+    /** Gets the handler for the id from the given table, or throw. */
+    private static MessageHandler getHandler(HandlerTable table, short id) {
+        MessageHandler handler = table.get(id);
         if (handler == null) {
             throw new UnsupportedOperationException("Message Identifier " + id +
                                                     " is not handled");
@@ -185,4 +978,236 @@ public class MessageServiceImpl implements MessageService {
         return handler;
     }
 
+    /**
+     * The messages admitted during a single transaction. If the transaction
+     * aborts then their tokens are returned, so that a retried task isn't
+     * charged again for the same message.
+     */
+    private final class Admissions implements TransactionListener {
+        private final Transaction txn;
+        private final List<Object> sources = new ArrayList<Object>(1);
+        private final List<Short> ids = new ArrayList<Short>(1);
+        private final List<HandlerTable> tables =
+            new ArrayList<HandlerTable>(1);
+        Admissions(Transaction txn) {
+            this.txn = txn;
+        }
+        void add(Object source, short id, HandlerTable table) {
+            sources.add(source);
+            ids.add(id);
+            tables.add(table);
+        }
+        public void beforeCompletion() { }
+        public void afterCompletion(boolean committed) {
+            admissions.remove(txn);
+            if (! committed) {
+                for (int i = 0; i < sources.size(); i++) {
+                    rateLimiter.refund(sources.get(i), ids.get(i),
+                                       tables.get(i));
+                }
+            }
+        }
+        public String getTypeName() {
+            return Admissions.class.getName();
+        }
+    }
+
+    /**
+     * The messages submitted during a single transaction. These are handed
+     * to the pipeline, in order, only if the transaction commits.
+     */
+    private final class Submissions implements TransactionListener {
+        private final Transaction txn;
+        private final List<Object> sources = new ArrayList<Object>(1);
+        private final List<byte []> messages = new ArrayList<byte []>(1);
+        private final List<MessageReceiver> receivers =
+            new ArrayList<MessageReceiver>(1);
+        private final List<Identity> owners = new ArrayList<Identity>(1);
+        Submissions(Transaction txn) {
+            this.txn = txn;
+        }
+        void add(Object source, byte [] bytes, MessageReceiver receiver,
+                 Identity owner)
+        {
+            sources.add(source);
+            messages.add(bytes);
+            receivers.add(receiver);
+            owners.add(owner);
+        }
+        public void beforeCompletion() { }
+        public void afterCompletion(boolean committed) {
+            submissions.remove(txn);
+            if (committed) {
+                for (int i = 0; i < sources.size(); i++) {
+                    pipeline.submit(sources.get(i), messages.get(i),
+                                    receivers.get(i), owners.get(i));
+                }
+            }
+        }
+        public String getTypeName() {
+            return Submissions.class.getName();
+        }
+    }
+
+    /**
+     * Identifies the recipient, lane, sender and message identifier of a
+     * queued {@code SupersedableMessage}.
+     */
+    private static final class SupersedeKey {
+        private final ClientSession session;
+        private final int lane;
+        private final Entity sender;
+        private final short messageId;
+        SupersedeKey(ClientSession session, int lane, Message message) {
+            this.session = session;
+            this.lane = lane;
+            this.sender = message.getSender();
+            this.messageId = message.getMessageId();
+        }
+        public boolean equals(Object o) {
+            if (! (o instanceof SupersedeKey)) {
+                return false;
+            }
+            SupersedeKey other = (SupersedeKey) o;
+            return (messageId == other.messageId) && (lane == other.lane) &&
+                session.equals(other.session) && sender.equals(other.sender);
+        }
+        public int hashCode() {
+            return ((session.hashCode() * 31 + sender.hashCode()) * 31 +
+                    messageId) * 31 + lane;
+        }
+    }
+
+    /**
+     * The messages queued for each session during a single transaction.
+     * Each session has a lane for each {@code DeliveryClass}, and the lanes
+     * are sent in that order, each with its own delivery guarantee, just
+     * before the transaction commits. A {@code SupersedableMessage} with a
+     * sender that may be superseded replaces any such message still queued
+     * for the same session with the same sender, identifier and delivery
+     * class, so only the newest is sent. The
+     * queued messages are dropped when the transaction completes.
+     */
+    private final class OutboundBatches implements TransactionListener {
+        private final Transaction txn;
+        private final Map<ClientSession,List<List<Message>>> pending =
+            new LinkedHashMap<ClientSession,List<List<Message>>>();
+        // the protocol version to encode with for each session
+        private final Map<ClientSession,Integer> versions =
+            new HashMap<ClientSession,Integer>();
+        // the position in its lane of the newest queued message for each
+        // recipient, sender and identifier that may be superseded
+        private final Map<SupersedeKey,Integer> latest =
+            new HashMap<SupersedeKey,Integer>();
+        OutboundBatches(Transaction txn) {
+            this.txn = txn;
+        }
+        void add(ClientSession session, Message message, int version) {
+            List<List<Message>> lanes = pending.get(session);
+            if (lanes == null) {
+                lanes = new ArrayList<List<Message>>(LANE_COUNT);
+                for (int i = 0; i < LANE_COUNT; i++) {
+                    lanes.add(null);
+                }
+                pending.put(session, lanes);
+            }
+            versions.put(session, version);
+            int lane = DeliveryClass.of(message).ordinal();
+            List<Message> queue = lanes.get(lane);
+            if (queue == null) {
+                queue = new ArrayList<Message>();
+                lanes.set(lane, queue);
+            }
+            if ((message instanceof SupersedableMessage) &&
+                ((SupersedableMessage) message).isSupersedable() &&
+                (message.getSender() != null))
+            {
+                SupersedeKey key = new SupersedeKey(session, lane, message);
+                Integer index = latest.get(key);
+                if (index != null) {
+                    // keep the older message's place, but send the newer
+                    queue.set(index, message);
+                    return;
+                }
+                latest.put(key, queue.size());
+            }
+            queue.add(message);
+        }
+        public void beforeCompletion() {
+            for (Map.Entry<ClientSession,List<List<Message>>> entry :
+                     pending.entrySet())
+            {
+                ClientSession session = entry.getKey();
+                if (! session.isConnected()) {
+                    continue;
+                }
+                List<List<Message>> lanes = entry.getValue();
+                int version = versions.get(session);
+                for (int i = 0; i < LANE_COUNT; i++) {
+                    if (lanes.get(i) != null) {
+                        Delivery delivery =
+                            DELIVERY_CLASSES[i].getDelivery(session);
+                        flush(session, delivery, version, lanes.get(i));
+                    }
+                }
+            }
+        }
+        public void afterCompletion(boolean committed) {
+            outboundBatches.remove(txn);
+        }
+        public String getTypeName() {
+            return OutboundBatches.class.getName();
+        }
+        /** Sends the messages in as few frames as the session allows. */
+        private void flush(ClientSession session, Delivery delivery,
+                           int version, List<Message> messages)
+        {
+            int maxLength = session.getMaxMessageLength();
+            List<Message> frame = new ArrayList<Message>();
+            int frameLength = BatchMessageImpl.FRAME_OVERHEAD;
+            for (Message message : messages) {
+                int length = WireProtocol.encodedLength(message, version);
+                int entryLength = BatchMessageImpl.ENTRY_OVERHEAD + length;
+                // a batch checks the base length of each message as well
+                if ((Math.max(length, message.encodedLength()) >
+                     BatchMessageImpl.MAX_MESSAGE_LENGTH) ||
+                    (BatchMessageImpl.FRAME_OVERHEAD + entryLength >
+                     maxLength))
+                {
+                    // this can never be batched, so send it by itself
+                    sendFrame(session, delivery, version, frame);
+                    frame.clear();
+                    frameLength = BatchMessageImpl.FRAME_OVERHEAD;
+                    session.send(WireProtocol.encodeMessage(message, version),
+                                 delivery);
+                    continue;
+                }
+                if ((frameLength + entryLength > maxLength) ||
+                    (frame.size() == BatchMessageImpl.MAX_MESSAGES))
+                {
+                    sendFrame(session, delivery, version, frame);
+                    frame.clear();
+                    frameLength = BatchMessageImpl.FRAME_OVERHEAD;
+                }
+                frame.add(message);
+                frameLength += entryLength;
+            }
+            sendFrame(session, delivery, version, frame);
+        }
+        /** Sends a single frame, without batching a lone message. */
+        private void sendFrame(ClientSession session, Delivery delivery,
+                               int version, List<Message> frame)
+        {
+            if (frame.size() == 1) {
+                Message message = frame.get(0);
+                session.send(WireProtocol.encodeMessage(message, version),
+                             delivery);
+            } else if (frame.size() > 1) {
+                Message batch = new BatchMessageImpl(frame);
+                session.send(WireProtocol.encodeMessage(batch, version),
+                             delivery);
+            }
+        }
+    }
+
 }
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.glieseframework.internal;
+
+
+/**
+ * An immutable snapshot of the decode statistics for a single message type.
+ * Latencies are kept in a histogram of power-of-two buckets, where bucket
+ * {@code i} counts decodes that took less than {@code 2^i} nanoseconds and
+ * at least {@code 2^(i-1)}. Percentiles are reported as the upper bound of
+ * the bucket they fall in, so they are accurate to within a factor of two.
+ */
+public final class MessageTypeStats {
+
+    // the message identifier and the counters
+    private final int messageId;
+    private final long decodeCount;
+    private final long decodedBytes;
+    private final long failureCount;
+    private final long droppedCount;
+    private final long totalLatencyNanos;
+    private final long [] latencyHistogram;
+
+    /** Creates an instance of {@code MessageTypeStats}. */
+    MessageTypeStats(int messageId, long decodeCount, long decodedBytes,
+                     long failureCount, long droppedCount,
+                     long totalLatencyNanos, long [] latencyHistogram)
+    {
+        this.messageId = messageId;
+        this.decodeCount = decodeCount;
+        this.decodedBytes = decodedBytes;
+        this.failureCount = failureCount;
+        this.droppedCount = droppedCount;
+        this.totalLatencyNanos = totalLatencyNanos;
+        this.latencyHistogram = latencyHistogram;
+    }
+
+    /**
+     * Returns the message identifier, as an unsigned value, or {@code -1}
+     * for the combined statistics of identifiers that have no handler.
+     *
+     * @return the message identifier
+     */
+    public int getMessageId() {
+        return messageId;
+    }
+
+    /**
+     * Returns the number of messages of this type that were decoded.
+     *
+     * @return the decode count
+     */
+    public long getDecodeCount() {
+        return decodeCount;
+    }
+
+    /**
+     * Returns the total encoded size of the decoded messages, including
+     * their identifiers.
+     *
+     * @return the number of bytes decoded
+     */
+    public long getDecodedBytes() {
+        return decodedBytes;
+    }
+
+    /**
+     * Returns the number of messages of this type that failed to decode.
+     *
+     * @return the failure count
+     */
+    public long getFailureCount() {
+        return failureCount;
+    }
+
+    /**
+     * Returns the number of messages of this type that were dropped by
+     * rate limiting before they were decoded.
+     *
+     * @return the dropped count
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * Returns the mean time taken to decode a message of this type.
+     *
+     * @return the mean decode latency in nanoseconds
+     */
+    public long getMeanLatencyNanos() {
+        return decodeCount == 0 ? 0 : totalLatencyNanos / decodeCount;
+    }
+
+    /**
+     * Returns the approximate median time taken to decode a message.
+     *
+     * @return the median decode latency in nanoseconds
+     */
+    public long getMedianLatencyNanos() {
+        return percentile(0.5);
+    }
+
+    /**
+     * Returns the approximate 99th percentile time taken to decode a
+     * message.
+     *
+     * @return the 99th percentile decode latency in nanoseconds
+     */
+    public long getPercentile99LatencyNanos() {
+        return percentile(0.99);
+    }
+
+    /**
+     * Returns a copy of the latency histogram.
+     *
+     * @return the count of decodes in each power-of-two bucket
+     */
+    public long [] getLatencyHistogram() {
+        return latencyHistogram.clone();
+    }
+
+    /** {@inheritDoc} */
+    public String toString() {
+        return "id=" + messageId + " decodes=" + decodeCount + " bytes=" +
+            decodedBytes + " failures=" + failureCount + " dropped=" +
+            droppedCount + " meanNs=" + getMeanLatencyNanos() + " p50Ns=" +
+            getMedianLatencyNanos() + " p99Ns=" +
+            getPercentile99LatencyNanos();
+    }
+
+    /** Returns the upper bound of the bucket holding the percentile. */
+    private long percentile(double fraction) {
+        long total = 0;
+        for (long count : latencyHistogram) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * fraction);
+        long seen = 0;
+        for (int i = 0; i < latencyHistogram.length; i++) {
+            seen += latencyHistogram[i];
+            if (seen >= rank) {
+                return 1L << i;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+}
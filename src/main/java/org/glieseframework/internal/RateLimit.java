@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.glieseframework.internal;
+
+
+/**
+ * An immutable token bucket configuration: the number of messages allowed
+ * per second on average, and the number that may arrive at once.
+ */
+final class RateLimit {
+
+    // the refill rate in tokens per nanosecond, and the bucket size
+    final double tokensPerNano;
+    final int burst;
+
+    /**
+     * Creates an instance of {@code RateLimit}.
+     *
+     * @param rate the average number of messages allowed per second
+     * @param burst the largest number of messages allowed at once
+     */
+    RateLimit(double rate, int burst) {
+        if ((rate <= 0) || Double.isNaN(rate) || Double.isInfinite(rate)) {
+            throw new IllegalArgumentException("Invalid rate: " + rate);
+        }
+        if (burst < 1) {
+            throw new IllegalArgumentException("Invalid burst: " + burst);
+        }
+        this.tokensPerNano = rate / 1000000000.0;
+        this.burst = burst;
+    }
+
+    /**
+     * Returns the default burst for a rate, which allows one second's worth
+     * of messages at once.
+     */
+    static int defaultBurst(double rate) {
+        return (int) Math.max(1, Math.ceil(rate));
+    }
+
+}
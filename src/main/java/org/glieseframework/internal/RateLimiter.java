@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.glieseframework.internal;
+
+import java.util.Iterator;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Token bucket rate limiting of inbound messages, per source and per
+ * message identifier. Each source, which is usually a player, has an
+ * optional bucket shared by all of its messages and one bucket for each
+ * identifier that has a {@code RateLimit} in the current
+ * {@code HandlerTable}. A message is admitted only if every bucket that
+ * applies to it has a token.
+ * <p>
+ * The buckets for a source are found by index rather than by identifier,
+ * so checking a message doesn't allocate. When the handler table is
+ * replaced, each source's per-identifier buckets start again full.
+ * Sources are forgotten when {@code remove} is called, or when they have
+ * been idle for long enough.
+ */
+final class RateLimiter {
+
+    // the limit that applies to all messages from a source, or null
+    private final RateLimit sourceLimit;
+
+    // the buckets for each source
+    private final ConcurrentHashMap<Object,SourceBuckets> sources =
+        new ConcurrentHashMap<Object,SourceBuckets>();
+
+    /**
+     * Creates an instance of {@code RateLimiter}.
+     *
+     * @param sourceLimit the limit for all messages from each source, or
+     *                    {@code null} if only per-identifier limits apply
+     */
+    RateLimiter(RateLimit sourceLimit) {
+        this.sourceLimit = sourceLimit;
+    }
+
+    /**
+     * Returns whether any limit applies to the given identifier.
+     *
+     * @param messageId the message identifier
+     * @param table the current handler table
+     *
+     * @return {@code true} if messages of this type are limited
+     */
+    boolean isLimited(short messageId, HandlerTable table) {
+        return (sourceLimit != null) || (table.limitIndex(messageId) >= 0);
+    }
+
+    /**
+     * Takes a token from each bucket that applies to the message, or takes
+     * nothing and returns {@code false} if any of them is empty.
+     *
+     * @param source the source of the message
+     * @param messageId the message identifier
+     * @param table the current handler table
+     *
+     * @return {@code true} if the message is admitted
+     */
+    boolean acquire(Object source, short messageId, HandlerTable table) {
+        SourceBuckets buckets = sources.get(source);
+        if (buckets == null) {
+            SourceBuckets newBuckets = new SourceBuckets();
+            buckets = sources.putIfAbsent(source, newBuckets);
+            if (buckets == null) {
+                buckets = newBuckets;
+            }
+        }
+        long now = System.nanoTime();
+        synchronized (buckets) {
+            buckets.lastUsed = now;
+            if (buckets.table != table) {
+                buckets.table = table;
+                buckets.perId = new Bucket[table.limitCount()];
+            }
+            if ((sourceLimit != null) &&
+                (! buckets.source.take(sourceLimit, now)))
+            {
+                return false;
+            }
+            int index = table.limitIndex(messageId);
+            if (index >= 0) {
+                Bucket bucket = buckets.perId[index];
+                if (bucket == null) {
+                    bucket = new Bucket();
+                    buckets.perId[index] = bucket;
+                }
+                if (! bucket.take(table.limit(index), now)) {
+                    if (sourceLimit != null) {
+                        buckets.source.give(sourceLimit);
+                    }
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Returns the tokens taken by an earlier call to {@code acquire}, for
+     * instance because the transaction that handled the message aborted.
+     *
+     * @param source the source of the message
+     * @param messageId the message identifier
+     * @param table the handler table that was used to acquire
+     */
+    void refund(Object source, short messageId, HandlerTable table) {
+        SourceBuckets buckets = sources.get(source);
+        if (buckets == null) {
+            return;
+        }
+        synchronized (buckets) {
+            if (sourceLimit != null) {
+                buckets.source.give(sourceLimit);
+            }
+            int index = table.limitIndex(messageId);
+            if ((buckets.table == table) && (index >= 0) &&
+                (buckets.perId[index] != null))
+            {
+                buckets.perId[index].give(table.limit(index));
+            }
+        }
+    }
+
+    /**
+     * Forgets all state for a source.
+     *
+     * @param source the source to forget
+     */
+    void remove(Object source) {
+        sources.remove(source);
+    }
+
+    /**
+     * Forgets all sources that haven't sent a message recently.
+     *
+     * @param idleNanos how long a source must be idle to be forgotten
+     */
+    void removeIdle(long idleNanos) {
+        long now = System.nanoTime();
+        Iterator<SourceBuckets> it = sources.values().iterator();
+        while (it.hasNext()) {
+            SourceBuckets buckets = it.next();
+            synchronized (buckets) {
+                if (now - buckets.lastUsed > idleNanos) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /** The buckets for a single source. */
+    private static final class SourceBuckets {
+        final Bucket source = new Bucket();
+        HandlerTable table = null;
+        Bucket [] perId = null;
+        long lastUsed;
+    }
+
+    /** A single token bucket, which starts full. */
+    private static final class Bucket {
+        private double tokens = -1;
+        private long lastRefill;
+        /** Refills the bucket and takes a token if one is available. */
+        boolean take(RateLimit limit, long now) {
+            if (tokens < 0) {
+                tokens = limit.burst;
+            } else {
+                tokens = Math.min(limit.burst, tokens +
+                                  (now - lastRefill) * limit.tokensPerNano);
+            }
+            lastRefill = now;
+            if (tokens < 1) {
+                return false;
+            }
+            tokens -= 1;
+            return true;
+        }
+        /** Puts back a token. */
+        void give(RateLimit limit) {
+            tokens = Math.min(limit.burst, tokens + 1);
+        }
+    }
+
+}
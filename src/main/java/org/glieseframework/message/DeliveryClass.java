@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.glieseframework.message;
+
+import com.sun.sgs.app.ClientSession;
+import com.sun.sgs.app.Delivery;
+
+import java.util.Set;
+
+
+/**
+ * The delivery classes that a {@code Message} may be sent with. Each class
+ * is sent on its own lane, so that, for example, a stream of movement
+ * updates never waits behind a reliable chat message that is being
+ * retransmitted to a player on a slow link. The lanes are also flushed in
+ * the order that the classes are declared here, so when messages are
+ * batched the reliable, ordered traffic goes out first.
+ * <p>
+ * Messages that don't implement {@code PrioritizedMessage} are always
+ * sent as {@code RELIABLE_ORDERED}.
+ */
+public enum DeliveryClass {
+
+    /** Reliable and ordered, which suits chat and state changes. */
+    RELIABLE_ORDERED(Delivery.RELIABLE),
+
+    /** Reliable, but delivered in any order. */
+    RELIABLE_UNORDERED(Delivery.UNORDERED_RELIABLE),
+
+    /**
+     * Unreliable, but never delivered out of order, so the latest message
+     * always wins and stale ones are dropped. This suits movement.
+     */
+    UNRELIABLE_SEQUENCED(Delivery.ORDERED_UNRELIABLE),
+
+    /** Unreliable and delivered in any order. */
+    UNRELIABLE(Delivery.UNRELIABLE);
+
+    // the delivery guarantee this class asks for
+    private final Delivery delivery;
+
+    private DeliveryClass(Delivery delivery) {
+        this.delivery = delivery;
+    }
+
+    /**
+     * Returns the delivery guarantee that this class asks for.
+     *
+     * @return the requested {@code Delivery}
+     */
+    public Delivery getDelivery() {
+        return delivery;
+    }
+
+    /**
+     * Returns the delivery guarantee to use when sending a message of this
+     * class to the given session. This is the requested guarantee if the
+     * session supports it, and otherwise the weakest supported guarantee
+     * that meets it, falling back to {@code Delivery.RELIABLE}.
+     *
+     * @param session the session that the message is sent to
+     *
+     * @return the {@code Delivery} to send with
+     */
+    public Delivery getDelivery(ClientSession session) {
+        Set<Delivery> supported = session.supportedDeliveries();
+        if (supported.contains(delivery)) {
+            return delivery;
+        }
+        // the constants of Delivery go from weakest to strongest
+        for (Delivery candidate : Delivery.values()) {
+            if (supported.contains(candidate) &&
+                candidate.supportsDelivery(delivery))
+            {
+                return candidate;
+            }
+        }
+        return Delivery.RELIABLE;
+    }
+
+    /**
+     * Returns the delivery class of the given message.
+     *
+     * @param message the message
+     *
+     * @return the {@code DeliveryClass} of the message
+     */
+    public static DeliveryClass of(Message message) {
+        if (message instanceof PrioritizedMessage) {
+            DeliveryClass deliveryClass =
+                ((PrioritizedMessage) message).getDeliveryClass();
+            if (deliveryClass != null) {
+                return deliveryClass;
+            }
+        }
+        return RELIABLE_ORDERED;
+    }
+
+}
@@ -58,11 +58,42 @@ public interface Message {
      * two bytes of their encoded form to specify the message identifier,
      * so the buffer returned from this method must start with a short
      * that is the same value returned from a call to {@code getMessageId}.
+     * The returned buffer's position is at the start of the message and its
+     * limit is at the end of the message.
+     * <p>
+     * A message is encoded at most once. Every call returns a new read-only
+     * buffer over the same encoded bytes, with its own position and limit,
+     * so one message can be sent to any number of recipients, by any number
+     * of callers, without being encoded again and without one reader
+     * moving another's position. Implementations must keep this contract.
      *
-     * @return the encoded message
+     * @return a read-only buffer containing the encoded message
      */
     ByteBuffer encodeMessage();
 
+    /**
+     * Returns the length in bytes of the encoded form of this message. This
+     * is the number of bytes that {@code encodeInto} will write, and the
+     * number of bytes remaining in the buffer returned by
+     * {@code encodeMessage}.
+     *
+     * @return the length of the encoded message
+     */
+    int encodedLength();
+
+    /**
+     * Writes the encoded form of this message into the given buffer,
+     * starting at the buffer's current position. On return, the buffer's
+     * position has been advanced by {@code encodedLength} bytes. This lets
+     * callers encode many messages into a single buffer, which may be pooled
+     * or direct, rather than allocating a new buffer for each message. If
+     * there is not enough space remaining in the buffer then
+     * {@code BufferOverflowException} is thrown and nothing is written.
+     *
+     * @param target the buffer to write the encoded message into
+     */
+    void encodeInto(ByteBuffer target);
+
     /**
      * The message identifier.
      *
@@ -32,10 +32,15 @@
 
 package org.glieseframework.message;
 
+import com.sun.sgs.app.ClientSession;
+
 import org.glieseframework.message.Message;
 
 import java.nio.ByteBuffer;
 
+import java.util.Collection;
+import java.util.List;
+
 
 /**
  * A {@code Manager} that handles message encoding and decoding. This helps
@@ -63,6 +68,32 @@ public interface MessageManager {
      */
     Message createMessage(MessageSpec messageSpec);
 
+    /**
+     * Creates a {@code Message} for each of the given specifications, in
+     * order. This is meant for bursts of similar messages generated by the
+     * server. The handler is looked up once for each run of specifications
+     * with the same identifier, and the standard messages are encoded
+     * together into one shared buffer, so sending them doesn't allocate
+     * for each message. Throws {@code IllegalArgumentException} if a
+     * message type cannot be handled.
+     *
+     * @param messageSpecs the specifications of the messages to create
+     *
+     * @return a new {@code List} of the messages, in the same order
+     */
+    List<Message> createMessages(Collection<? extends MessageSpec>
+                                 messageSpecs);
+
+    /**
+     * Creates a {@code Message} for each of the given specifications, in
+     * order, like {@code createMessages(Collection)}.
+     *
+     * @param messageSpecs the specifications of the messages to create
+     *
+     * @return a new array of the messages, in the same order
+     */
+    Message [] createMessages(MessageSpec [] messageSpecs);
+
     /**
      * Decodes the given buffer and creates the appropriate type of
      * {@code Message}. Throws {@code IllegalArgumentException} if the
@@ -76,4 +107,109 @@ public interface MessageManager {
      */
     Message decodeMessage(ByteBuffer messageBuffer);
 
+    /**
+     * Decodes a message received from the given source, which is typically
+     * the {@code ManagedReference} identifier of the receiving player. This
+     * is the same as {@code decodeMessage}, except that if the same bytes
+     * from the same source were recently decoded then the earlier result
+     * may be returned without decoding again. This is meant for tasks that
+     * are retried after an abort, so that each attempt doesn't pay to
+     * decode the same message. Only messages with no sender are reused, so
+     * a returned message never holds a managed object from an earlier
+     * transaction.
+     *
+     * @param messageBuffer the encoded message, where the first two
+     *                      bytes must represent the message type
+     * @param source an immutable object that identifies the source of the
+     *               message, and implements {@code equals} and
+     *               {@code hashCode}
+     *
+     * @return a {@code Message} decoded from the given buffer
+     */
+    Message decodeMessage(ByteBuffer messageBuffer, Object source);
+
+    /**
+     * Decodes a message received from the given source, runs it through the
+     * configured {@code MessagePreprocessor}s and, unless one of them drops
+     * it, passes the result to the receiver. If the service has a pipeline
+     * then the bytes are copied, and once the current transaction commits
+     * they are decoded and preprocessed on a separate pool of threads,
+     * outside of any transaction. The receiver is then called in a new
+     * transaction, so the transactions only pay for data access. Messages
+     * from the same source are delivered in the order they were submitted,
+     * and nothing is delivered if the current transaction aborts. Without a
+     * pipeline, all of the work happens in the current transaction.
+     *
+     * @param messageBuffer the encoded message, where the first two
+     *                      bytes must represent the message type
+     * @param source an immutable object that identifies the source of the
+     *               message, and implements {@code equals} and
+     *               {@code hashCode}
+     * @param receiver the {@code MessageReceiver} to pass the message to
+     */
+    void submitMessage(ByteBuffer messageBuffer, Object source,
+                       MessageReceiver receiver);
+
+    /**
+     * Checks whether a message received from the given source is within
+     * the configured rate limits, and if so counts it against them. Each
+     * message in a batch is counted separately. This only looks at the
+     * message identifiers, and doesn't access the data store, so it should
+     * be called before anything else is done with the message. If this
+     * returns {@code false} then the message should be dropped. If the
+     * current transaction aborts, the message is no longer counted.
+     *
+     * @param messageBuffer the encoded message, which is not modified
+     * @param source an immutable object that identifies the source of the
+     *               message, and implements {@code equals} and
+     *               {@code hashCode}
+     *
+     * @return {@code true} if the message should be handled
+     */
+    boolean admitMessage(ByteBuffer messageBuffer, Object source);
+
+    /**
+     * Forgets any rate limiting state for the given source, typically
+     * because it has disconnected.
+     *
+     * @param source the source of messages
+     */
+    void removeSource(Object source);
+
+    /**
+     * Queues the given message to be sent to the given session when the
+     * current transaction commits. All messages queued for a session during
+     * a transaction with the same {@code DeliveryClass} are combined into as
+     * few {@code BatchMessage} frames as the session's maximum message
+     * length allows, and sent with that class's delivery guarantee. A lone
+     * queued message is sent directly. A {@code SupersedableMessage}
+     * whose {@code isSupersedable} method returns {@code true} replaces any
+     * such message already queued for the session with the same sender and
+     * identifier. Nothing is sent if the transaction aborts.
+     *
+     * @param session the session to send to
+     * @param message the message to send
+     *
+     * @throws IllegalArgumentException if the message is a
+     *                                  {@code BatchMessage}, since batches
+     *                                  can't be nested
+     */
+    void sendBatched(ClientSession session, Message message);
+
+    /**
+     * Queues the given message like {@code sendBatched(ClientSession,
+     * Message)}, but encodes it, and the batch that contains it, with the
+     * given wire protocol version. The version should be one that the
+     * session's client has shown that it understands.
+     *
+     * @param session the session to send to
+     * @param message the message to send
+     * @param protocolVersion the wire protocol version to encode with
+     *
+     * @throws IllegalArgumentException if the version isn't supported, or
+     *                                  the message is a {@code BatchMessage}
+     */
+    void sendBatched(ClientSession session, Message message,
+                     int protocolVersion);
+
 }
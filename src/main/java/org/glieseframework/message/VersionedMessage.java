@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.glieseframework.message;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * A {@code Message} that can be encoded with more than one version of the
+ * wire protocol. The methods inherited from {@code Message} always use the
+ * base version, which every client understands. Version {@code 2} frames
+ * start with a marker byte and a variable-length message identifier, and
+ * use a variable-length sender identifier and an optional field-presence
+ * bitmap in the standard header, so small messages are shorter. Only the
+ * header differs between versions; the payload is encoded once and shared.
+ */
+public interface VersionedMessage extends Message {
+
+    /**
+     * Returns the encoded form of this message in the given protocol
+     * version, with the same guarantees as {@code encodeMessage()}.
+     *
+     * @param version the protocol version
+     *
+     * @return a read-only buffer containing the encoded message
+     */
+    ByteBuffer encodeMessage(int version);
+
+    /**
+     * Returns the length in bytes of this message when encoded with the
+     * given protocol version.
+     *
+     * @param version the protocol version
+     *
+     * @return the length of the encoded message
+     */
+    int encodedLength(int version);
+
+    /**
+     * Writes this message encoded with the given protocol version into the
+     * buffer, starting at its current position. This otherwise behaves
+     * like {@code encodeInto(ByteBuffer)}.
+     *
+     * @param target the buffer to write the encoded message into
+     * @param version the protocol version
+     */
+    void encodeInto(ByteBuffer target, int version);
+
+}
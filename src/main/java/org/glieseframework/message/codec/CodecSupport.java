@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.glieseframework.message.codec;
+
+import org.glieseframework.game.Coordinate;
+
+import java.nio.ByteBuffer;
+
+import java.nio.charset.Charset;
+
+
+/**
+ * Utility methods used by the classes that {@code MessageCodecProcessor}
+ * generates. Strings are encoded as an unsigned short length followed by
+ * that many bytes of UTF-8, and a {@code Coordinate} is encoded as three
+ * floats. All methods read and write at the buffer's current position.
+ */
+public final class CodecSupport {
+
+    /** The number of bytes used to encode a {@code Coordinate}. */
+    public static final int COORDINATE_LENGTH = 12;
+
+    /** The number of bytes used to encode the length of a string. */
+    public static final int STRING_OVERHEAD = 2;
+
+    // the largest number of bytes an encoded string may have
+    private static final int MAX_STRING_BYTES = 0xffff;
+
+    // the charset used for all strings
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** Not instantiable. */
+    private CodecSupport() { }
+
+    /**
+     * Returns the UTF-8 bytes for the given string. Throws
+     * {@code IllegalArgumentException} if the string is too long to encode.
+     *
+     * @param value the string, which may not be {@code null}
+     *
+     * @return the UTF-8 form of the string
+     */
+    public static byte [] stringBytes(String value) {
+        byte [] bytes = value.getBytes(UTF8);
+        if (bytes.length > MAX_STRING_BYTES) {
+            throw new IllegalArgumentException("String is too long to " +
+                                               "encode: " + bytes.length);
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes a string that was converted with {@code stringBytes}.
+     *
+     * @param target the buffer to write to
+     * @param bytes the UTF-8 form of the string
+     */
+    public static void putString(ByteBuffer target, byte [] bytes) {
+        target.putShort((short) bytes.length);
+        target.put(bytes);
+    }
+
+    /**
+     * Reads a string written by {@code putString}.
+     *
+     * @param source the buffer to read from
+     *
+     * @return the decoded string
+     */
+    public static String getString(ByteBuffer source) {
+        int length = source.getShort() & 0xffff;
+        if (length > source.remaining()) {
+            throw new IllegalArgumentException("Invalid string length: " +
+                                               length);
+        }
+        if (! source.hasArray()) {
+            byte [] bytes = new byte[length];
+            source.get(bytes);
+            return new String(bytes, UTF8);
+        }
+        String value = new String(source.array(),
+                                  source.arrayOffset() + source.position(),
+                                  length, UTF8);
+        source.position(source.position() + length);
+        return value;
+    }
+
+    /**
+     * Writes the three components of a {@code Coordinate}.
+     *
+     * @param target the buffer to write to
+     * @param value the coordinate to write
+     */
+    public static void putCoordinate(ByteBuffer target, Coordinate value) {
+        target.putFloat(value.x);
+        target.putFloat(value.y);
+        target.putFloat(value.z);
+    }
+
+    /**
+     * Reads a {@code Coordinate} written by {@code putCoordinate}.
+     *
+     * @param source the buffer to read from
+     *
+     * @return the decoded coordinate
+     */
+    public static Coordinate getCoordinate(ByteBuffer source) {
+        float x = source.getFloat();
+        float y = source.getFloat();
+        float z = source.getFloat();
+        return new Coordinate(x, y, z);
+    }
+
+}
@@ -0,0 +1,808 @@
+/*
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.glieseframework.message.codec;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+
+import javax.lang.model.SourceVersion;
+
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+
+import javax.lang.model.type.TypeMirror;
+
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+
+/**
+ * An annotation processor that generates the {@code Spec}, {@code Handler}
+ * and {@code Impl} classes for each interface marked with
+ * {@code MessageCodec}. For an interface {@code p.FooMessage} this
+ * generates {@code p.FooMessageSpec}, {@code p.FooMessageHandler} and
+ * {@code p.impl.FooMessageImpl}, following the same layout as the
+ * hand-written common messages.
+ * <p>
+ * The generated {@code Impl} extends {@code AbstractMessage}, so it uses the
+ * standard header and caches its encoded form. Fields are written in the
+ * order their accessors are declared, with no boxing and no intermediate
+ * buffers, and the decoding constructor leaves the buffer positioned
+ * directly after the message. String fields are converted to UTF-8 once
+ * and the bytes are kept for later encodes. The generated handler parses
+ * the standard header with {@code MessageHeader}, so generated messages
+ * decode the same form they encode, including compressed payloads.
+ * <p>
+ * Each generated handler is also listed, in handler file format, in the
+ * {@code HANDLER_RESOURCE} resource of the compiled output. The
+ * {@code MessageService} reads every such resource on the classpath in
+ * addition to its handler file, so generated messages don't need to be
+ * registered by hand.
+ * <p>
+ * This processor is not registered as a service, so that compiling this
+ * framework doesn't try to run it. Applications enable it explicitly,
+ * for instance with {@code javac -processor
+ * org.glieseframework.message.codec.MessageCodecProcessor} or through the
+ * {@code annotationProcessors} setting of the Maven compiler plugin. This
+ * framework's own build does the latter for the sample message in its test
+ * sources.
+ */
+@SupportedAnnotationTypes("org.glieseframework.message.codec.MessageCodec")
+public class MessageCodecProcessor extends AbstractProcessor {
+
+    /** The resource that lists generated handlers. */
+    public static final String HANDLER_RESOURCE =
+        "META-INF/gliese-handlers.lst";
+
+    // the interface that all messages extend
+    private static final String MESSAGE_TYPE =
+        "org.glieseframework.message.Message";
+
+    // the marker for messages that newer ones may replace
+    private static final String SUPERSEDABLE_TYPE =
+        "org.glieseframework.message.SupersedableMessage";
+
+    // the declared types that can be used as fields
+    private static final String STRING_TYPE = "java.lang.String";
+    private static final String COORDINATE_TYPE =
+        "org.glieseframework.game.Coordinate";
+
+    // names used by the generated code, or by AbstractMessage and its
+    // accessors, that fields must not hide
+    private static final Set<String> RESERVED_NAMES =
+        new HashSet<String>(Arrays.asList("sender", "messageBuffer",
+                                          "messageSpec", "messageId",
+                                          "target", "spec", "senderId",
+                                          "senderRef", "resolvedSender",
+                                          "encodedLength", "encodedForm",
+                                          "currentEncodedForm",
+                                          "compressedPayload",
+                                          "compressionChecked",
+                                          "version", "bytes"));
+
+    // methods of Message and AbstractMessage that accessors must not
+    // override
+    private static final Set<String> RESERVED_METHODS =
+        new HashSet<String>(Arrays.asList("getMessageId", "getSender",
+                                          "getSenderId", "encodeMessage",
+                                          "encodedLength", "encodeInto",
+                                          "hasStandardHeader",
+                                          "presenceBitmap", "isCompressible",
+                                          "isTokenPayload", "headerLength",
+                                          "writeHeader", "payloadLength",
+                                          "encodePayload", "setupBuffer",
+                                          "isSupersedable", "hashCode",
+                                          "toString"));
+
+    // the handler file lines collected over all rounds
+    private final List<String> handlerLines = new ArrayList<String>();
+
+    /** Creates an instance of {@code MessageCodecProcessor}. */
+    public MessageCodecProcessor() { }
+
+    /* Implement AbstractProcessor. */
+
+    /** {@inheritDoc} */
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    /** {@inheritDoc} */
+    public boolean process(Set<? extends TypeElement> annotations,
+                           RoundEnvironment roundEnv)
+    {
+        for (Element element :
+                 roundEnv.getElementsAnnotatedWith(MessageCodec.class))
+        {
+            MessageType type = parse(element);
+            if (type == null) {
+                continue;
+            }
+            try {
+                writeSpec(type);
+                writeImpl(type);
+                writeHandler(type);
+                handlerLines.add(type.messageId + " " +
+                                 type.qualify(type.handlerName));
+            } catch (IOException ioe) {
+                error(element, "Couldn't write generated source: " +
+                      ioe.getMessage());
+            }
+        }
+        if (roundEnv.processingOver() && (! handlerLines.isEmpty())) {
+            writeHandlerResource();
+        }
+        return true;
+    }
+
+    /* Private utility methods. */
+
+    /**
+     * Checks that the annotated element is a valid message interface and
+     * collects its details, or reports errors and returns {@code null}.
+     */
+    private MessageType parse(Element element) {
+        if ((element.getKind() != ElementKind.INTERFACE) ||
+            (element.getEnclosingElement().getKind() != ElementKind.PACKAGE))
+        {
+            error(element, "MessageCodec must be used on a top-level " +
+                  "interface");
+            return null;
+        }
+        TypeElement typeElement = (TypeElement) element;
+        TypeMirror messageType = processingEnv.getElementUtils().
+            getTypeElement(MESSAGE_TYPE).asType();
+        if (! processingEnv.getTypeUtils().
+            isAssignable(typeElement.asType(), messageType))
+        {
+            error(element, "MessageCodec interfaces must extend Message");
+            return null;
+        }
+
+        PackageElement pkg = (PackageElement) element.getEnclosingElement();
+        MessageType type =
+            new MessageType(pkg.getQualifiedName().toString(),
+                            typeElement.getSimpleName().toString());
+        type.supersedable = processingEnv.getTypeUtils().
+            isAssignable(typeElement.asType(),
+                         processingEnv.getElementUtils().
+                         getTypeElement(SUPERSEDABLE_TYPE).asType());
+        boolean valid = true;
+        for (Element member : typeElement.getEnclosedElements()) {
+            if (member.getKind() == ElementKind.FIELD) {
+                if (member.getSimpleName().contentEquals("STANDARD_ID")) {
+                    Object value =
+                        ((VariableElement) member).getConstantValue();
+                    if (value instanceof Short) {
+                        type.messageId = (Short) value;
+                    }
+                }
+            } else if (member.getKind() == ElementKind.METHOD) {
+                if (member.getModifiers().contains(Modifier.STATIC)) {
+                    continue;
+                }
+                Field field = parseField((ExecutableElement) member);
+                if (field == null) {
+                    valid = false;
+                } else {
+                    type.fields.add(field);
+                }
+            }
+        }
+        // string fields also have a generated field and accessor for their
+        // UTF-8 form
+        Set<String> names = new HashSet<String>();
+        for (Field field : type.fields) {
+            names.add(field.name);
+            names.add(field.getter);
+        }
+        for (Field field : type.fields) {
+            if ((field.kind == FieldKind.STRING) &&
+                (names.contains(field.name + "Bytes") ||
+                 names.contains(field.bytesAccessor())))
+            {
+                error(element, "Message field name is reserved: " +
+                      field.name + "Bytes");
+                valid = false;
+            }
+        }
+        if (type.messageId == null) {
+            error(element, "MessageCodec interfaces must declare a short " +
+                  "STANDARD_ID constant");
+            return null;
+        }
+        return valid ? type : null;
+    }
+
+    /** Returns the field for an accessor, or reports an error. */
+    private Field parseField(ExecutableElement method) {
+        String methodName = method.getSimpleName().toString();
+        if ((! method.getParameters().isEmpty()) ||
+            (! method.getTypeParameters().isEmpty()))
+        {
+            error(method, "Message accessors must not take arguments");
+            return null;
+        }
+        FieldKind kind = fieldKind(method.getReturnType());
+        if (kind == null) {
+            error(method, "Unsupported message field type: " +
+                  method.getReturnType());
+            return null;
+        }
+        if (RESERVED_METHODS.contains(methodName)) {
+            error(method, "Message accessor name is reserved: " +
+                  methodName);
+            return null;
+        }
+        String name = fieldName(methodName, kind);
+        if (RESERVED_NAMES.contains(name) || SourceVersion.isKeyword(name)) {
+            error(method, "Message field name is reserved: " + name);
+            return null;
+        }
+        return new Field(methodName, name, kind);
+    }
+
+    /** Returns the kind of a field type, or {@code null} if unsupported. */
+    private static FieldKind fieldKind(TypeMirror type) {
+        switch (type.getKind()) {
+        case BOOLEAN:
+            return FieldKind.BOOLEAN;
+        case BYTE:
+            return FieldKind.BYTE;
+        case SHORT:
+            return FieldKind.SHORT;
+        case CHAR:
+            return FieldKind.CHAR;
+        case INT:
+            return FieldKind.INT;
+        case LONG:
+            return FieldKind.LONG;
+        case FLOAT:
+            return FieldKind.FLOAT;
+        case DOUBLE:
+            return FieldKind.DOUBLE;
+        case DECLARED:
+            String name = type.toString();
+            if (name.equals(STRING_TYPE)) {
+                return FieldKind.STRING;
+            }
+            if (name.equals(COORDINATE_TYPE)) {
+                return FieldKind.COORDINATE;
+            }
+            return null;
+        default:
+            return null;
+        }
+    }
+
+    /** Returns the field name for an accessor, such as x for getX. */
+    private static String fieldName(String methodName, FieldKind kind) {
+        String name = methodName;
+        if ((methodName.length() > 3) && methodName.startsWith("get")) {
+            name = methodName.substring(3);
+        } else if ((kind == FieldKind.BOOLEAN) &&
+                   (methodName.length() > 2) && methodName.startsWith("is"))
+        {
+            name = methodName.substring(2);
+        }
+        if ((name.length() > 1) && Character.isUpperCase(name.charAt(1))) {
+            return name;
+        }
+        return Character.toLowerCase(name.charAt(0)) + name.substring(1);
+    }
+
+    /** Writes the {@code MessageSpec} class. */
+    private void writeSpec(MessageType type) throws IOException {
+        SourceWriter out = new SourceWriter();
+        out.line("package " + type.pkg + ";");
+        out.line();
+        out.line("import org.glieseframework.message.MessageSpec;");
+        if (type.uses(FieldKind.COORDINATE)) {
+            out.line();
+            out.line("import " + COORDINATE_TYPE + ";");
+        }
+        out.line();
+        out.line();
+        out.line("/**");
+        out.line(" * A representation of the state associated with a");
+        out.line(" * {@code " + type.name + "}. Generated by");
+        out.line(" * {@code MessageCodecProcessor}; do not edit.");
+        out.line(" */");
+        out.line("public class " + type.specName +
+                 " implements MessageSpec {");
+        out.line();
+        out.line("    // the message contents");
+        for (Field field : type.fields) {
+            out.line("    private final " + field.kind.typeName + " " +
+                     field.name + ";");
+        }
+        out.line();
+        out.line("    /** Creates an instance of {@code " + type.specName +
+                 "}. */");
+        out.line("    public " + type.specName + "(" +
+                 type.parameters(false) + ") {");
+        for (Field field : type.fields) {
+            out.line("        this." + field.name + " = " + field.name + ";");
+        }
+        out.line("    }");
+        out.line();
+        out.line("    /* Implement MessageSpec. */");
+        out.line();
+        out.line("    /** {@inheritDoc} */");
+        out.line("    public short getMessageId() {");
+        out.line("        return " + type.name + ".STANDARD_ID;");
+        out.line("    }");
+        out.line();
+        out.line("    /* Accessor methods. */");
+        writeAccessors(out, type);
+        out.line();
+        out.line("}");
+        out.write(type.qualify(type.specName), type);
+    }
+
+    /** Writes the {@code AbstractMessage} implementation. */
+    private void writeImpl(MessageType type) throws IOException {
+        SourceWriter out = new SourceWriter();
+        out.line("package " + type.implPkg() + ";");
+        out.line();
+        if (type.uses(FieldKind.COORDINATE)) {
+            out.line("import " + COORDINATE_TYPE + ";");
+            out.line();
+        }
+        out.line("import org.glieseframework.core.Entity;");
+        out.line();
+        out.line("import org.glieseframework.message.codec.CodecSupport;");
+        out.line();
+        out.line("import org.glieseframework.message.common.impl." +
+                 "AbstractMessage;");
+        out.line();
+        out.line("import " + type.qualify(type.name) + ";");
+        out.line();
+        out.line("import java.nio.ByteBuffer;");
+        out.line();
+        out.line();
+        out.line("/**");
+        out.line(" * An implementation of {@code " + type.name + "}. " +
+                 "Generated by");
+        out.line(" * {@code MessageCodecProcessor}; do not edit.");
+        out.line(" */");
+        out.line("public class " + type.implName +
+                 " extends AbstractMessage");
+        out.line("    implements " + type.name);
+        out.line("{");
+        out.line();
+        out.line("    private static final long serialVersionUID = 1;");
+        out.line();
+        out.line("    // the length of the fixed-size part of the payload");
+        out.line("    private static final int FIXED_LENGTH = " +
+                 type.fixedLength() + ";");
+        out.line();
+        out.line("    // the message contents");
+        for (Field field : type.fields) {
+            out.line("    private final " + field.kind.typeName + " " +
+                     field.name + ";");
+        }
+        if (type.uses(FieldKind.STRING)) {
+            out.line();
+            out.line("    // the encoded form of the string fields");
+            for (Field field : type.fields) {
+                if (field.kind == FieldKind.STRING) {
+                    out.line("    private transient volatile byte [] " +
+                             field.name + "Bytes = null;");
+                }
+            }
+        }
+
+        out.line();
+        out.line("    /** Creates an instance of {@code " + type.implName +
+                 "}. */");
+        out.line("    public " + type.implName + "(" +
+                 type.parameters(true) + ") {");
+        out.line("        super(STANDARD_ID, sender);");
+        for (Field field : type.fields) {
+            if (! field.kind.primitive) {
+                out.line("        if (" + field.name + " == null) {");
+                out.line("            throw new NullPointerException(\"" +
+                         field.name + " must not be null\");");
+                out.line("        }");
+            }
+            out.line("        this." + field.name + " = " + field.name + ";");
+        }
+        out.line("    }");
+        String [][] decodeConstructors = {
+            { "Entity sender", "with the given sender" },
+            { "int senderId", "whose sender has the given identifier" }
+        };
+        for (String [] constructor : decodeConstructors) {
+            out.line();
+            out.line("    /**");
+            out.line("     * Creates an instance from the encoded payload at " +
+                     "the buffer's");
+            out.line("     * position, " + constructor[1] + ".");
+            out.line("     * The buffer is left positioned directly after " +
+                     "the message.");
+            out.line("     */");
+            String parameter = constructor[0];
+            out.line("    public " + type.implName +
+                     "(ByteBuffer messageBuffer, " + parameter + ") {");
+            out.line("        super(STANDARD_ID, " +
+                     parameter.substring(parameter.indexOf(' ') + 1) + ");");
+            for (Field field : type.fields) {
+                out.line("        this." + field.name + " = " +
+                         field.kind.decode + ";");
+            }
+            out.line("    }");
+        }
+
+        out.line();
+        out.line("    /* Implement AbstractMessage. */");
+        out.line();
+        out.line("    /** {@inheritDoc} */");
+        out.line("    protected int payloadLength() {");
+        StringBuilder length = new StringBuilder("FIXED_LENGTH");
+        for (Field field : type.fields) {
+            if (field.kind == FieldKind.STRING) {
+                length.append(" + ").append(field.bytesAccessor()).
+                    append("().length");
+            }
+        }
+        out.line("        return " + length + ";");
+        out.line("    }");
+        out.line();
+        out.line("    /** {@inheritDoc} */");
+        out.line("    protected void encodePayload(ByteBuffer target) {");
+        for (Field field : type.fields) {
+            out.line("        " + field.encode() + ";");
+        }
+        out.line("    }");
+
+        out.line();
+        out.line("    /* Implement " + type.name + ". */");
+        for (Field field : type.fields) {
+            out.line();
+            out.line("    /** {@inheritDoc} */");
+            out.line("    public " + field.kind.typeName + " " +
+                     field.getter + "() {");
+            out.line("        return " + field.name + ";");
+            out.line("    }");
+        }
+        if (type.supersedable) {
+            out.line();
+            out.line("    /* Implement SupersedableMessage. */");
+            out.line();
+            out.line("    /** Any message of this type may be replaced. */");
+            out.line("    public boolean isSupersedable() {");
+            out.line("        return true;");
+            out.line("    }");
+        }
+
+        for (Field field : type.fields) {
+            if (field.kind != FieldKind.STRING) {
+                continue;
+            }
+            out.line();
+            out.line("    /** Returns the UTF-8 form of " + field.name +
+                     ". */");
+            out.line("    private byte [] " + field.bytesAccessor() + "() {");
+            out.line("        byte [] bytes = " + field.name + "Bytes;");
+            out.line("        if (bytes == null) {");
+            out.line("            bytes = CodecSupport.stringBytes(" +
+                     field.name + ");");
+            out.line("            " + field.name + "Bytes = bytes;");
+            out.line("        }");
+            out.line("        return bytes;");
+            out.line("    }");
+        }
+        out.line();
+        out.line("}");
+        out.write(type.implPkg() + "." + type.implName, type);
+    }
+
+    /** Writes the {@code MessageHandler} class. */
+    private void writeHandler(MessageType type) throws IOException {
+        SourceWriter out = new SourceWriter();
+        out.line("package " + type.pkg + ";");
+        out.line();
+        out.line("import org.glieseframework.internal.MessageHandler;");
+        out.line();
+        out.line("import org.glieseframework.message.Message;");
+        out.line("import org.glieseframework.message.MessageSpec;");
+        out.line();
+        out.line("import org.glieseframework.message.common.impl." +
+                 "MessageHeader;");
+        out.line("import " + type.implPkg() + "." + type.implName + ";");
+        out.line();
+        out.line("import java.nio.ByteBuffer;");
+        out.line();
+        out.line();
+        out.line("/**");
+        out.line(" * A {@code MessageHandler} that supports {@code " +
+                 type.name + "}s");
+        out.line(" * with the implementation {@code " + type.implName +
+                 "}. Generated by");
+        out.line(" * {@code MessageCodecProcessor}; do not edit.");
+        out.line(" */");
+        out.line("public class " + type.handlerName +
+                 " implements MessageHandler {");
+        out.line();
+        out.line("    /** Creates an instance of {@code " +
+                 type.handlerName + "}. */");
+        out.line("    public " + type.handlerName + "() { }");
+        out.line();
+        out.line("    /* Implement MessageHandler. */");
+        out.line();
+        out.line("    /** {@inheritDoc} */");
+        out.line("    public Message createMessage(MessageSpec messageSpec) {");
+        out.line("        if (messageSpec.getMessageId() != " + type.name +
+                 ".STANDARD_ID) {");
+        out.line("            throw new IllegalArgumentException(" +
+                 "\"Can't create message type\");");
+        out.line("        }");
+        out.line("        " + type.specName + " spec = (" + type.specName +
+                 ") messageSpec;");
+        StringBuilder args = new StringBuilder();
+        for (Field field : type.fields) {
+            args.append("spec.").append(field.getter).append("(), ");
+        }
+        out.line("        return new " + type.implName + "(" + args +
+                 "null);");
+        out.line("    }");
+        out.line();
+        out.line("    /** {@inheritDoc} */");
+        out.line("    public Message decodeMessage(short messageId, " +
+                 "ByteBuffer messageBuffer) {");
+        out.line("        if (messageId != " + type.name + ".STANDARD_ID) {");
+        out.line("            throw new IllegalArgumentException(" +
+                 "\"Can't decode message type\");");
+        out.line("        }");
+        out.line("        MessageHeader header = " +
+                 "MessageHeader.parse(messageBuffer);");
+        out.line("        return new " + type.implName +
+                 "(header.getPayload(), header.getSenderId());");
+        out.line("    }");
+        out.line();
+        out.line("}");
+        out.write(type.qualify(type.handlerName), type);
+    }
+
+    /** Writes the simple accessors used by the spec class. */
+    private static void writeAccessors(SourceWriter out, MessageType type) {
+        for (Field field : type.fields) {
+            out.line();
+            out.line("    /** Returns the " + field.name + " field. */");
+            out.line("    public " + field.kind.typeName + " " +
+                     field.getter + "() {");
+            out.line("        return " + field.name + ";");
+            out.line("    }");
+        }
+    }
+
+    /** Writes the list of generated handlers. */
+    private void writeHandlerResource() {
+        try {
+            FileObject resource = processingEnv.getFiler().
+                createResource(StandardLocation.CLASS_OUTPUT, "",
+                               HANDLER_RESOURCE);
+            Writer writer = resource.openWriter();
+            try {
+                writer.write("# Generated by MessageCodecProcessor\n");
+                for (String line : handlerLines) {
+                    writer.write(line);
+                    writer.write('\n');
+                }
+            } finally {
+                writer.close();
+            }
+        } catch (IOException ioe) {
+            processingEnv.getMessager().
+                printMessage(Diagnostic.Kind.ERROR,
+                             "Couldn't write " + HANDLER_RESOURCE + ": " +
+                             ioe.getMessage());
+        }
+    }
+
+    /** Reports an error against the given element. */
+    private void error(Element element, String message) {
+        processingEnv.getMessager().
+            printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    /** The supported field types and how each is encoded. */
+    private static enum FieldKind {
+        BOOLEAN("boolean", 1, true, "messageBuffer.get() != 0"),
+        BYTE("byte", 1, true, "messageBuffer.get()"),
+        SHORT("short", 2, true, "messageBuffer.getShort()"),
+        CHAR("char", 2, true, "messageBuffer.getChar()"),
+        INT("int", 4, true, "messageBuffer.getInt()"),
+        LONG("long", 8, true, "messageBuffer.getLong()"),
+        FLOAT("float", 4, true, "messageBuffer.getFloat()"),
+        DOUBLE("double", 8, true, "messageBuffer.getDouble()"),
+        STRING("String", CodecSupport.STRING_OVERHEAD, false,
+               "CodecSupport.getString(messageBuffer)"),
+        COORDINATE("Coordinate", CodecSupport.COORDINATE_LENGTH, false,
+                   "CodecSupport.getCoordinate(messageBuffer)");
+
+        // the name used in source, the fixed encoded length, whether this
+        // is a primitive, and the expression that decodes a value
+        final String typeName;
+        final int fixedLength;
+        final boolean primitive;
+        final String decode;
+
+        FieldKind(String typeName, int fixedLength, boolean primitive,
+                  String decode)
+        {
+            this.typeName = typeName;
+            this.fixedLength = fixedLength;
+            this.primitive = primitive;
+            this.decode = decode;
+        }
+    }
+
+    /** A single field of a message. */
+    private static final class Field {
+        final String getter;
+        final String name;
+        final FieldKind kind;
+        Field(String getter, String name, FieldKind kind) {
+            this.getter = getter;
+            this.name = name;
+            this.kind = kind;
+        }
+        /** Returns the name of the cached UTF-8 accessor. */
+        String bytesAccessor() {
+            return "get" + Character.toUpperCase(name.charAt(0)) +
+                name.substring(1) + "Bytes";
+        }
+        /** Returns the statement that encodes this field to target. */
+        String encode() {
+            switch (kind) {
+            case BOOLEAN:
+                return "target.put((byte) (" + name + " ? 1 : 0))";
+            case BYTE:
+                return "target.put(" + name + ")";
+            case STRING:
+                return "CodecSupport.putString(target, " + bytesAccessor() +
+                    "())";
+            case COORDINATE:
+                return "CodecSupport.putCoordinate(target, " + name + ")";
+            default:
+                String method = kind.typeName;
+                return "target.put" + Character.toUpperCase(method.charAt(0)) +
+                    method.substring(1) + "(" + name + ")";
+            }
+        }
+    }
+
+    /** The details of an annotated message interface. */
+    private static final class MessageType {
+        final String pkg;
+        final String name;
+        final String specName;
+        final String handlerName;
+        final String implName;
+        final List<Field> fields = new ArrayList<Field>();
+        Short messageId = null;
+        boolean supersedable = false;
+        MessageType(String pkg, String name) {
+            this.pkg = pkg;
+            this.name = name;
+            this.specName = name + "Spec";
+            this.handlerName = name + "Handler";
+            this.implName = name + "Impl";
+        }
+        /** Returns the qualified name of a class in the same package. */
+        String qualify(String simpleName) {
+            return pkg.length() == 0 ? simpleName : pkg + "." + simpleName;
+        }
+        /** Returns the package for the implementation class. */
+        String implPkg() {
+            return qualify("impl");
+        }
+        /** Returns whether any field is of the given kind. */
+        boolean uses(FieldKind kind) {
+            for (Field field : fields) {
+                if (field.kind == kind) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        /** Returns the sum of the fixed lengths of all fields. */
+        int fixedLength() {
+            int length = 0;
+            for (Field field : fields) {
+                length += field.kind.fixedLength;
+            }
+            return length;
+        }
+        /** Returns a constructor parameter list. */
+        String parameters(boolean withSender) {
+            StringBuilder params = new StringBuilder();
+            for (Field field : fields) {
+                if (params.length() > 0) {
+                    params.append(", ");
+                }
+                params.append(field.kind.typeName).append(' ').
+                    append(field.name);
+            }
+            if (withSender) {
+                if (params.length() > 0) {
+                    params.append(", ");
+                }
+                params.append("Entity sender");
+            }
+            return params.toString();
+        }
+    }
+
+    /** Collects the lines of a generated source file. */
+    private final class SourceWriter {
+        private final StringBuilder source = new StringBuilder();
+        void line() {
+            source.append('\n');
+        }
+        void line(String text) {
+            source.append(text).append('\n');
+        }
+        /** Writes the collected source as the named class. */
+        void write(String className, MessageType type) throws IOException {
+            TypeElement origin = processingEnv.getElementUtils().
+                getTypeElement(type.qualify(type.name));
+            Writer writer = processingEnv.getFiler().
+                createSourceFile(className, origin).openWriter();
+            try {
+                writer.write(source.toString());
+            } finally {
+                writer.close();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.glieseframework.message.common;
+
+import org.glieseframework.internal.MessageHandler;
+
+import org.glieseframework.message.MessageManager;
+import org.glieseframework.message.MessageSpec;
+
+import org.glieseframework.message.Message;
+
+import org.glieseframework.message.common.impl.BatchMessageImpl;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * A {@code MessageHandler} that supports {@code BatchMessage}s with the
+ * common implementation {@code BatchMessageImpl}. Unlike the other common
+ * handlers this needs a {@code MessageManager} to decode the messages in
+ * a batch, so it is registered by the {@code MessageService} itself rather
+ * than through the handler list.
+ */
+public class BatchMessageHandler implements MessageHandler {
+
+    // the manager used to decode batched messages
+    private final MessageManager messageManager;
+
+    /**
+     * Creates an instance of {@code BatchMessageHandler}.
+     *
+     * @param messageManager the {@code MessageManager} used to decode the
+     *                       messages contained in a batch
+     */
+    public BatchMessageHandler(MessageManager messageManager) {
+        this.messageManager = messageManager;
+    }
+
+    /* Implement MessageHandler. */
+
+    /** {@inheritDoc} */
+    public Message createMessage(MessageSpec messageSpec) {
+        if (messageSpec.getMessageId() != BatchMessageImpl.STANDARD_ID) {
+            throw new IllegalArgumentException("Can't create message type");
+        }
+        return new BatchMessageImpl(((BatchMessageSpec) messageSpec).
+                                    getMessages());
+    }
+
+    /** {@inheritDoc} */
+    public Message decodeMessage(short messageId, ByteBuffer messageBuffer) {
+        if (messageId != BatchMessageImpl.STANDARD_ID) {
+            throw new IllegalArgumentException("Can't decode message type");
+        }
+        return new BatchMessageImpl(messageBuffer, messageManager);
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.glieseframework.message.common;
+
+import org.glieseframework.message.Message;
+import org.glieseframework.message.MessageSpec;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * A common representation of the state associated with a
+ * {@code BatchMessage}. This is typically used with the
+ * {@code MessageManager} to combine messages that have already been
+ * created into a single message.
+ */
+public class BatchMessageSpec implements MessageSpec {
+
+    // the batched messages
+    private final List<Message> messages;
+
+    /**
+     * Creates an instance of {@code BatchMessageSpec}.
+     *
+     * @param messages the messages to batch, in order
+     */
+    public BatchMessageSpec(Collection<? extends Message> messages) {
+        this.messages =
+            Collections.unmodifiableList(new ArrayList<Message>(messages));
+    }
+
+    /* Implement MessageSpec. */
+
+    /** {@inheritDoc} */
+    public short getMessageId() {
+        return BatchMessage.STANDARD_ID;
+    }
+
+    /* Accessor methods. */
+
+    /**
+     * Returns the messages to batch.
+     *
+     * @return an unmodifiable {@code List} of the messages to batch
+     */
+    public List<Message> getMessages() {
+        return messages;
+    }
+
+}
@@ -32,29 +32,35 @@
 
 package org.glieseframework.message.common;
 
-import org.glieseframework.internal.MessageHandler;
+import org.glieseframework.internal.FlyweightMessageHandler;
 
 import org.glieseframework.message.MessageSpec;
 
 import org.glieseframework.message.Message;
 
 import org.glieseframework.message.common.impl.ChatMessageImpl;
+import org.glieseframework.message.common.impl.ChatMessageView;
+import org.glieseframework.message.common.impl.MessageHeader;
 
 import java.nio.ByteBuffer;
 
 
 /**
- * A {@code MessageHandler} that supports {@code ChatMessage}s with the
- * common implementation {@code ChatMessageImpl}.
- * <p>
- * TODO: when sender details are added to the manager, they need to be used.
+ * A {@code FlyweightMessageHandler} that supports {@code ChatMessage}s with
+ * the common implementation {@code ChatMessageImpl}, or with read-only
+ * views using {@code ChatMessageView}. Encoded messages start with the
+ * standard header, which is parsed by {@code MessageHeader} so that
+ * compressed payloads are inflated before they are decoded. A sender
+ * identifier in the header is resolved through the {@code EntityManager}
+ * when the sender is first requested. For messages from clients this is
+ * whatever the client sent, so it shouldn't be trusted.
  */
-public class ChatMessageHandler implements MessageHandler {
+public class ChatMessageHandler implements FlyweightMessageHandler {
 
     /** Creates an instance of {@code ChatMessageHandler}. */
     public ChatMessageHandler() { }
 
-    /* Implement MessageHandler. */
+    /* Implement FlyweightMessageHandler. */
 
     /** {@inheritDoc} */
     public Message createMessage(MessageSpec messageSpec) {
@@ -70,7 +76,15 @@ public class ChatMessageHandler implements MessageHandler {
         if (messageId != ChatMessageImpl.STANDARD_ID) {
             throw new IllegalArgumentException("Can't decode message type");
         }
-        return new ChatMessageImpl(messageBuffer, null);
+        return new ChatMessageImpl(messageBuffer);
+    }
+
+    /** {@inheritDoc} */
+    public Message decodeView(short messageId, ByteBuffer messageBuffer) {
+        if (messageId != ChatMessageImpl.STANDARD_ID) {
+            throw new IllegalArgumentException("Can't decode message type");
+        }
+        return new ChatMessageView(MessageHeader.parse(messageBuffer));
     }
 
 }
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.glieseframework.message.common;
+
+import org.glieseframework.message.Message;
+
+import java.util.List;
+
+
+/**
+ * Common description of a change to the membership of a {@code Group},
+ * named by player name. A delta lists the members that joined and left
+ * since the previous update, and a snapshot lists every member, to be used
+ * in place of whatever the recipient knew before. A name is never listed
+ * as both joined and left in the same message.
+ * <p>
+ * A large update may be split across several messages. A split snapshot
+ * is sent as a snapshot of the first members followed by deltas that list
+ * the rest as joined, so a recipient that applies the messages in order
+ * ends up with the whole membership.
+ */
+public interface MembershipMessage extends Message {
+
+    /** The standard identifier used for membership messages. */
+    short STANDARD_ID = 4;
+
+    /**
+     * Returns the name of the group whose membership changed.
+     *
+     * @return the group name
+     */
+    String getGroupName();
+
+    /**
+     * Returns whether this is a snapshot of the whole membership rather
+     * than a delta.
+     *
+     * @return {@code true} if this is a snapshot
+     */
+    boolean isSnapshot();
+
+    /**
+     * Returns the names of the members that joined, or of every member for
+     * a snapshot.
+     *
+     * @return an unmodifiable {@code List} of member names
+     */
+    List<String> getJoined();
+
+    /**
+     * Returns the names of the members that left, which is always empty
+     * for a snapshot.
+     *
+     * @return an unmodifiable {@code List} of member names
+     */
+    List<String> getLeft();
+
+}
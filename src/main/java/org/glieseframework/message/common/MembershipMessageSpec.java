@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.glieseframework.message.common;
+
+import org.glieseframework.message.MessageSpec;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * A common representation of the state associated with a
+ * {@code MembershipMessage}. This is typically used with the
+ * {@code MessageManager} when the system has been configured to use
+ * {@code MembershipMessageHandler} to handle membership messages.
+ */
+public class MembershipMessageSpec implements MessageSpec {
+
+    // the group, whether this is a snapshot, and the member names
+    private final String groupName;
+    private final boolean snapshot;
+    private final List<String> joined;
+    private final List<String> left;
+
+    /**
+     * Creates an instance of {@code MembershipMessageSpec} for a delta.
+     *
+     * @param groupName the name of the group
+     * @param joined the names of the members that joined
+     * @param left the names of the members that left
+     */
+    public MembershipMessageSpec(String groupName,
+                                 Collection<String> joined,
+                                 Collection<String> left)
+    {
+        this(groupName, false, joined, left);
+    }
+
+    /**
+     * Creates an instance of {@code MembershipMessageSpec} for a snapshot.
+     *
+     * @param groupName the name of the group
+     * @param members the names of all of the members
+     */
+    public MembershipMessageSpec(String groupName,
+                                 Collection<String> members)
+    {
+        this(groupName, true, members, Collections.<String>emptyList());
+    }
+
+    /** Creates an instance of {@code MembershipMessageSpec}. */
+    private MembershipMessageSpec(String groupName, boolean snapshot,
+                                  Collection<String> joined,
+                                  Collection<String> left)
+    {
+        this.groupName = groupName;
+        this.snapshot = snapshot;
+        this.joined =
+            Collections.unmodifiableList(new ArrayList<String>(joined));
+        this.left = Collections.unmodifiableList(new ArrayList<String>(left));
+    }
+
+    /* Implement MessageSpec. */
+
+    /** {@inheritDoc} */
+    public short getMessageId() {
+        return MembershipMessage.STANDARD_ID;
+    }
+
+    /* Accessor methods. */
+
+    /**
+     * Returns the name of the group.
+     *
+     * @return the group name
+     */
+    public String getGroupName() {
+        return groupName;
+    }
+
+    /**
+     * Returns whether this specifies a snapshot.
+     *
+     * @return {@code true} for a snapshot
+     */
+    public boolean isSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Returns the names of the members that joined, or of all members for
+     * a snapshot.
+     *
+     * @return an unmodifiable {@code List} of names
+     */
+    public List<String> getJoined() {
+        return joined;
+    }
+
+    /**
+     * Returns the names of the members that left.
+     *
+     * @return an unmodifiable {@code List} of names
+     */
+    public List<String> getLeft() {
+        return left;
+    }
+
+}
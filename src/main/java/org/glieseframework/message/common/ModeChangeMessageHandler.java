@@ -32,34 +32,40 @@
 
 package org.glieseframework.message.common;
 
-import org.glieseframework.internal.MessageHandler;
+import org.glieseframework.internal.FlyweightMessageHandler;
 
 import org.glieseframework.message.MessageSpec;
 
 import org.glieseframework.message.Message;
 
 import org.glieseframework.message.common.impl.ModeChangeMessageImpl;
+import org.glieseframework.message.common.impl.ModeChangeMessageView;
+import org.glieseframework.message.common.impl.MessageHeader;
 
 import java.nio.ByteBuffer;
 
 
 /**
- * A {@code MessageHandler} that supports {@code ModeChangeMessage}s with the
- * common implementation {@code ModeChangeMessageImpl}.
- * <p>
- * TODO: when sender details are added to the manager, they need to be used.
+ * A {@code FlyweightMessageHandler} that supports
+ * {@code ModeChangeMessage}s with the common implementation
+ * {@code ModeChangeMessageImpl}, or with read-only views using
+ * {@code ModeChangeMessageView}. Encoded messages start with the standard
+ * header, which is parsed by {@code MessageHeader} so that compressed
+ * payloads are inflated before they are decoded. A sender identifier in
+ * the header is resolved through the {@code EntityManager} when the sender
+ * is first requested. For messages from clients this is whatever the
+ * client sent, so it shouldn't be trusted.
  */
-public class ModeChangeMessageHandler implements MessageHandler {
+public class ModeChangeMessageHandler implements FlyweightMessageHandler {
 
     /** Creates an instance of {@code ModeChangeMessageHandler}. */
     public ModeChangeMessageHandler() { 
     }
 
-    /* Implement MessageHandler. */
+    /* Implement FlyweightMessageHandler. */
 
     /** {@inheritDoc} */
     public Message createMessage(MessageSpec messageSpec) {
-    	System.out.println("CREATING Mode Change MESSAGE");
         if (messageSpec.getMessageId() != ModeChangeMessageImpl.STANDARD_ID) {
             throw new IllegalArgumentException("Can't create message type");
         }
@@ -69,11 +75,18 @@ public class ModeChangeMessageHandler implements MessageHandler {
 
     /** {@inheritDoc} */
     public Message decodeMessage(short messageId, ByteBuffer messageBuffer) {
-    	System.out.println("DECODING MESSAGE");
         if (messageId != ModeChangeMessageImpl.STANDARD_ID) {
             throw new IllegalArgumentException("Can't decode message type");
         }
-        return new ModeChangeMessageImpl(messageBuffer, null);
+        return new ModeChangeMessageImpl(messageBuffer);
+    }
+
+    /** {@inheritDoc} */
+    public Message decodeView(short messageId, ByteBuffer messageBuffer) {
+        if (messageId != ModeChangeMessageImpl.STANDARD_ID) {
+            throw new IllegalArgumentException("Can't decode message type");
+        }
+        return new ModeChangeMessageView(MessageHeader.parse(messageBuffer));
     }
 
 }
@@ -32,13 +32,22 @@
 
 package org.glieseframework.message.common;
 
-import org.glieseframework.message.Message;
+import org.glieseframework.message.PrioritizedMessage;
+import org.glieseframework.message.SupersedableMessage;
 
 import org.glieseframework.game.Coordinate;
 
 
-/** Common description of a movement message. */
-public interface MovementMessage extends Message {
+/**
+ * Common description of a movement message. Movement messages are sent
+ * as {@code DeliveryClass.UNRELIABLE_SEQUENCED}, so a late update is
+ * dropped rather than delaying newer ones. They are also supersedable, so
+ * when several are batched for one recipient only the newest from each
+ * sender is sent.
+ */
+public interface MovementMessage
+    extends PrioritizedMessage, SupersedableMessage
+{
 
     /** The standard identifier for a movement message. */
     short STANDARD_ID = 2;
@@ -32,29 +32,32 @@
 
 package org.glieseframework.message.common;
 
-import org.glieseframework.internal.MessageHandler;
+import org.glieseframework.internal.FlyweightMessageHandler;
 
 import org.glieseframework.message.MessageSpec;
 
 import org.glieseframework.message.Message;
 
 import org.glieseframework.message.common.impl.MovementMessageImpl;
+import org.glieseframework.message.common.impl.MovementMessageView;
 
 import java.nio.ByteBuffer;
 
 
 /**
- * A {@code MessageHandler} that supports {@code MovementMessage}s with the
- * common implementation {@code MovementMessageImpl}.
- * <p>
- * TODO: when sender details are added to the manager, they need to be used.
+ * A {@code FlyweightMessageHandler} that supports {@code MovementMessage}s with
+ * the common implementation {@code MovementMessageImpl}, or with read-only
+ * views using {@code MovementMessageView}. Messages are created with the
+ * sender from the {@code MovementMessageSpec}, so that queued updates from
+ * the same sender can be coalesced. The encoded form doesn't identify the
+ * sender, so decoded messages have none.
  */
-public class MovementMessageHandler implements MessageHandler {
+public class MovementMessageHandler implements FlyweightMessageHandler {
 
     /** Creates an instance of {@code MovementMessageHandler}. */
     public MovementMessageHandler() { }
 
-    /* Implement MessageHandler. */
+    /* Implement FlyweightMessageHandler. */
 
     /** {@inheritDoc} */
     public Message createMessage(MessageSpec messageSpec) {
@@ -63,7 +66,7 @@ public class MovementMessageHandler implements MessageHandler {
         }
         MovementMessageSpec spec = (MovementMessageSpec) messageSpec;
         return new MovementMessageImpl(spec.getLocation(), spec.getSpeed(),
-                                       null);
+                                       spec.getSender());
     }
 
     /** {@inheritDoc} */
@@ -74,4 +77,12 @@ public class MovementMessageHandler implements MessageHandler {
         return new MovementMessageImpl(messageBuffer, null);
     }
 
+    /** {@inheritDoc} */
+    public Message decodeView(short messageId, ByteBuffer messageBuffer) {
+        if (messageId != MovementMessageImpl.STANDARD_ID) {
+            throw new IllegalArgumentException("Can't decode message type");
+        }
+        return new MovementMessageView(messageBuffer, null);
+    }
+
 }
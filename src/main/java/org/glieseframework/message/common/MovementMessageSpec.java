@@ -32,6 +32,8 @@
 
 package org.glieseframework.message.common;
 
+import org.glieseframework.core.Entity;
+
 import org.glieseframework.message.MessageSpec;
 
 import org.glieseframework.game.Coordinate;
@@ -53,6 +55,11 @@ public class MovementMessageSpec implements MessageSpec {
     private final Coordinate location;
     private final float speed;
 
+    // the location that recipients already have for the sender, if known,
+    // and the sender
+    private final Coordinate previousLocation;
+    private final Entity sender;
+
     /**
      * Creates an instance of {@code MovementMessageSpec}.
      *
@@ -60,8 +67,45 @@ public class MovementMessageSpec implements MessageSpec {
      * @param speed the speed of the movement
      */
     public MovementMessageSpec(Coordinate location, float speed) {
+        this(location, speed, null);
+    }
+
+    /**
+     * Creates an instance of {@code MovementMessageSpec} that also names the
+     * location that all recipients already have for the sender. Handlers
+     * may use this to encode only the change in location.
+     *
+     * @param location the target location of the movement
+     * @param speed the speed of the movement
+     * @param previousLocation the last location sent to all recipients, or
+     *                         {@code null} if this is not known
+     */
+    public MovementMessageSpec(Coordinate location, float speed,
+                               Coordinate previousLocation)
+    {
+        this(location, speed, previousLocation, null);
+    }
+
+    /**
+     * Creates an instance of {@code MovementMessageSpec} that names the
+     * sender as well as the location that all recipients already have for
+     * it. Handlers that encode only the change in location need to know
+     * the sender, so that recipients know whose location changed.
+     *
+     * @param location the target location of the movement
+     * @param speed the speed of the movement
+     * @param previousLocation the last location sent to all recipients, or
+     *                         {@code null} if this is not known
+     * @param sender the sender of the movement, or {@code null} if no
+     *               sender is identified
+     */
+    public MovementMessageSpec(Coordinate location, float speed,
+                               Coordinate previousLocation, Entity sender)
+    {
         this.location = location;
         this.speed = speed;
+        this.previousLocation = previousLocation;
+        this.sender = sender;
     }
 
     /* Implement MessageSpec. */
@@ -91,4 +135,22 @@ public class MovementMessageSpec implements MessageSpec {
         return speed;
     }
 
+    /**
+     * Returns the last location sent to all recipients for the sender.
+     *
+     * @return the previous location, or {@code null} if it is not known
+     */
+    public Coordinate getPreviousLocation() {
+        return previousLocation;
+    }
+
+    /**
+     * Returns the sender of the movement.
+     *
+     * @return the sender, or {@code null} if no sender is identified
+     */
+    public Entity getSender() {
+        return sender;
+    }
+
 }
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.glieseframework.message.common;
+
+import org.glieseframework.game.Coordinate;
+
+import java.io.Serializable;
+
+
+/**
+ * Converts movement values to and from fixed-point integers for compact
+ * encoding. Coordinates are measured relative to an origin, typically the
+ * origin of the {@code Region} that a game mode uses, and are rounded to
+ * the nearest multiple of a fixed resolution. Speeds use the same
+ * resolution but no origin.
+ */
+public class MovementQuantizer implements Serializable {
+
+    private static final long serialVersionUID = 1;
+
+    /** The default resolution of one hundredth of a unit. */
+    public static final float DEFAULT_RESOLUTION = 0.01f;
+
+    /** A quantizer with its origin at zero and the default resolution. */
+    public static final MovementQuantizer DEFAULT =
+        new MovementQuantizer(new Coordinate(0, 0, 0), DEFAULT_RESOLUTION);
+
+    // the origin and resolution of the quantized values
+    private final Coordinate origin;
+    private final float resolution;
+
+    /**
+     * Creates an instance of {@code MovementQuantizer}.
+     *
+     * @param origin the location that quantized coordinates are relative to
+     * @param resolution the size of one quantized step, which must be
+     *                   positive
+     */
+    public MovementQuantizer(Coordinate origin, float resolution) {
+        if (! (resolution > 0)) {
+            throw new IllegalArgumentException("Resolution must be positive");
+        }
+        this.origin = origin;
+        this.resolution = resolution;
+    }
+
+    /**
+     * Returns the origin that quantized coordinates are relative to.
+     *
+     * @return the origin
+     */
+    public Coordinate getOrigin() {
+        return origin;
+    }
+
+    /**
+     * Returns the size of one quantized step.
+     *
+     * @return the resolution
+     */
+    public float getResolution() {
+        return resolution;
+    }
+
+    /** Returns the quantized x value of the given location. */
+    public int quantizeX(Coordinate location) {
+        return quantize(location.x - origin.x);
+    }
+
+    /** Returns the quantized y value of the given location. */
+    public int quantizeY(Coordinate location) {
+        return quantize(location.y - origin.y);
+    }
+
+    /** Returns the quantized z value of the given location. */
+    public int quantizeZ(Coordinate location) {
+        return quantize(location.z - origin.z);
+    }
+
+    /** Returns the quantized value of the given speed. */
+    public int quantizeSpeed(float speed) {
+        return quantize(speed);
+    }
+
+    /**
+     * Returns the location represented by the given quantized values.
+     *
+     * @param x the quantized x value
+     * @param y the quantized y value
+     * @param z the quantized z value
+     *
+     * @return the location
+     */
+    public Coordinate restore(int x, int y, int z) {
+        return new Coordinate(origin.x + x * resolution,
+                              origin.y + y * resolution,
+                              origin.z + z * resolution);
+    }
+
+    /** Returns the speed represented by the given quantized value. */
+    public float restoreSpeed(int speed) {
+        return speed * resolution;
+    }
+
+    /** Rounds a value to the nearest step, or fails if out of range. */
+    private int quantize(float value) {
+        float steps = value / resolution;
+        if ((! (steps >= Integer.MIN_VALUE)) ||
+            (! (steps <= Integer.MAX_VALUE)))
+        {
+            throw new IllegalArgumentException("Value can't be quantized: " +
+                                               value);
+        }
+        return Math.round(steps);
+    }
+
+}
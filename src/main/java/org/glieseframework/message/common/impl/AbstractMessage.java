@@ -1,27 +1,82 @@
-
 package org.glieseframework.message.common.impl;
 
+import com.sun.sgs.app.AppContext;
+import com.sun.sgs.app.ManagedObject;
+import com.sun.sgs.app.ManagedReference;
+
 import org.glieseframework.core.Entity;
 
 import org.glieseframework.message.Message;
+import org.glieseframework.message.VersionedMessage;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 
+import java.util.Collection;
+
 
-public abstract class AbstractMessage implements Message, Serializable {
+public abstract class AbstractMessage
+    implements VersionedMessage, Serializable
+{
+
+    // the default value computed for the original form of this class, so
+    // that the serialized form stays compatible as the class changes
+    private static final long serialVersionUID = 8537954313933423609L;
 
     private static final int HEADER_LEN_WITH_SENDER = 7;
     private static final int HEADER_LEN_NO_SENDER = 3;
 
     private final short messageId;
 
-    private final Entity sender;
+    // the sender given when the message was created, or a reference to it
+    // if it is a managed object, since a stored message can't hold a
+    // managed object; the sender is always written to the sender field,
+    // as it was before the reference was added, unless it is managed
+    private Entity sender;
+    private ManagedReference<? extends Entity> senderRef = null;
+
+    // the identifier of the sender read from an encoded message, or 0, and
+    // the sender it resolves to, which is looked up on first use
+    private final int senderId;
+    private transient Entity resolvedSender = null;
+
+    // the read-only encoded forms of the message in the base and current
+    // protocol versions, kept transiently so that server code can use this
+    // message object across transactions, and shared by every caller
+    private transient volatile ByteBuffer encodedForm = null;
+    private transient volatile ByteBuffer currentEncodedForm = null;
+
+    // the compressed payload, or null if the payload is sent as is, which
+    // is decided the first time the message is encoded; the payload is
+    // always set before the volatile flag, so another thread that sees the
+    // flag also sees the payload
+    private transient byte [] compressedPayload = null;
+    private transient volatile boolean compressionChecked = false;
 
     protected AbstractMessage(short messageId, Entity sender) {
         this.messageId = messageId;
         this.sender = sender;
+        this.senderId = 0;
+    }
+
+    /**
+     * Creates a message whose sender is known only by the identifier read
+     * from its header. The sender is resolved through the
+     * {@code EntityManager} the first time {@code getSender} is called, so
+     * messages whose sender is never asked for don't pay for the lookup.
+     *
+     * @param messageId the message identifier
+     * @param senderId the sender identifier, or {@code 0} if there is no
+     *                 sender
+     */
+    protected AbstractMessage(short messageId, int senderId) {
+        this.messageId = messageId;
+        this.sender = null;
+        this.senderId = senderId;
     }
 
     public short getMessageId() {
@@ -29,31 +84,340 @@ public abstract class AbstractMessage implements Message, Serializable {
     }
 
     public Entity getSender() {
-        return sender;
+        if (sender != null) {
+            return sender;
+        }
+        if (senderRef != null) {
+            return senderRef.get();
+        }
+        if ((resolvedSender == null) && (senderId != 0)) {
+            resolvedSender = SenderIds.resolve(senderId);
+        }
+        return resolvedSender;
     }
 
-    protected ByteBuffer setupBuffer(short payloadLength) {
-    	ByteBuffer buffer =
-            ByteBuffer.allocate((sender == null ? HEADER_LEN_NO_SENDER :
-                                 HEADER_LEN_WITH_SENDER) + payloadLength);
-        buffer.putShort(getMessageId());
-        if (sender != null) {
-        	buffer.put((byte) 1);
-            // put the int identifier for this entity
+    /**
+     * Returns the identifier written in the header for the sender, or
+     * {@code 0} if the sender isn't identified.
+     *
+     * @return the sender identifier
+     */
+    protected int getSenderId() {
+        return senderId != 0 ? senderId : SenderIds.idOf(getSender());
+    }
+
+    /**
+     * Returns the encoded form of this message. The message is encoded
+     * the first time this is called, and later calls return a new
+     * read-only duplicate of the same encoded bytes.
+     */
+    public ByteBuffer encodeMessage() {
+        return encodeMessage(WireProtocol.BASE_VERSION);
+    }
+
+    /** {@inheritDoc} */
+    public ByteBuffer encodeMessage(int version) {
+        WireProtocol.checkVersion(version);
+        boolean base = version == WireProtocol.BASE_VERSION;
+        ByteBuffer form = base ? encodedForm : currentEncodedForm;
+        if (form == null) {
+            // if two threads race here then both encode, which is harmless
+            // since the results are identical
+            ByteBuffer buffer = ByteBuffer.allocate(encodedLength(version));
+            encodeInto(buffer, version);
+            buffer.flip();
+            form = buffer.asReadOnlyBuffer();
+            if (base) {
+                encodedForm = form;
+            } else {
+                currentEncodedForm = form;
+            }
+        }
+        return form.duplicate();
+    }
+
+    /**
+     * Returns the length of the header plus the length of the payload. If
+     * the payload is compressed then this is the length of the compressed
+     * form, including the uncompressed length that precedes it.
+     */
+    public int encodedLength() {
+        byte [] compressed = getCompressedPayload();
+        if (compressed != null) {
+            return headerLength() + VarInts.length(payloadLength()) +
+                compressed.length;
+        }
+        return headerLength() + payloadLength();
+    }
+
+    /** Writes the header followed by the payload. */
+    public void encodeInto(ByteBuffer target) {
+        if (target.remaining() < encodedLength()) {
+            throw new BufferOverflowException();
+        }
+        writeHeader(target);
+        byte [] compressed = getCompressedPayload();
+        if (compressed != null) {
+            VarInts.write(target, payloadLength());
+            target.put(compressed);
+        } else {
+            encodePayload(target);
+        }
+    }
+
+    /** {@inheritDoc} */
+    public int encodedLength(int version) {
+        WireProtocol.checkVersion(version);
+        if (version == WireProtocol.BASE_VERSION) {
+            return encodedLength();
+        }
+        short messageId = getMessageId();
+        int length = hasStandardHeader() ?
+            WireProtocol.standardHeaderLength(messageId, getSenderId(),
+                                              presenceBitmap()) :
+            headerLength() - 2 + WireProtocol.prefixLength(messageId);
+        byte [] compressed = getCompressedPayload();
+        if (compressed != null) {
+            return length + VarInts.length(payloadLength()) +
+                compressed.length;
+        }
+        return length + payloadLength(version);
+    }
+
+    /** {@inheritDoc} */
+    public void encodeInto(ByteBuffer target, int version) {
+        if (version == WireProtocol.BASE_VERSION) {
+            encodeInto(target);
+            return;
+        }
+        if (target.remaining() < encodedLength(version)) {
+            throw new BufferOverflowException();
+        }
+        short messageId = getMessageId();
+        byte [] compressed = getCompressedPayload();
+        if (hasStandardHeader()) {
+            byte flags = 0;
+            if (compressed != null) {
+                flags |= MessageHeader.FLAG_COMPRESSED;
+            }
+            if (isTokenPayload()) {
+                flags |= MessageHeader.FLAG_TOKEN;
+            }
+            WireProtocol.writeStandardHeader(target, messageId, flags,
+                                             getSenderId(), presenceBitmap());
         } else {
-        	buffer.put((byte) 0);
+            int start = target.position();
+            target.position(start + WireProtocol.prefixLength(messageId) - 2);
+            writeHeader(target);
+            WireProtocol.rewritePrefix(target, start, messageId);
         }
+        if (compressed != null) {
+            VarInts.write(target, payloadLength());
+            target.put(compressed);
+        } else {
+            encodePayload(target, version);
+        }
+    }
+
+    /**
+     * Returns whether {@code writeHeader} writes the standard header. This
+     * is {@code true} by default. Subclasses that override
+     * {@code writeHeader} must return {@code false}, and their header must
+     * start with the message identifier as a short.
+     */
+    protected boolean hasStandardHeader() {
+        return true;
+    }
+
+    /**
+     * Returns the field-presence bitmap written in the standard header, in
+     * which each set bit marks an optional field that is present in the
+     * payload, or {@code 0} to leave the bitmap out. This is {@code 0} by
+     * default.
+     */
+    protected int presenceBitmap() {
+        return 0;
+    }
+
+    /**
+     * Returns whether the payload may be compressed when it is at least
+     * the size set with {@code PayloadCompressor.setThreshold}. This is
+     * {@code true} by default. Subclasses that override {@code writeHeader}
+     * to drop the flag byte must return {@code false}, since the flag byte
+     * is what marks a compressed payload.
+     */
+    protected boolean isCompressible() {
+        return true;
+    }
+
+    /**
+     * Returns whether the payload is a {@code StringTable} token, which is
+     * marked in the header. This is {@code false} by default.
+     */
+    protected boolean isTokenPayload() {
+        return false;
+    }
+
+    /**
+     * Returns the length of the header written by {@code writeHeader}. By
+     * default this is the message identifier and sender details.
+     */
+    protected int headerLength() {
+        int length =
+            hasSender() ? HEADER_LEN_WITH_SENDER : HEADER_LEN_NO_SENDER;
+        int presence = presenceBitmap();
+        return presence == 0 ? length : length + VarInts.length(presence);
+    }
+
+    /**
+     * Writes the header for this message. By default this is the message
+     * identifier followed by the sender details.
+     */
+    protected void writeHeader(ByteBuffer target) {
+        target.putShort(getMessageId());
+        byte flags = 0;
+        if (getCompressedPayload() != null) {
+            flags |= MessageHeader.FLAG_COMPRESSED;
+        }
+        if (isTokenPayload()) {
+            flags |= MessageHeader.FLAG_TOKEN;
+        }
+        int presence = presenceBitmap();
+        if (presence != 0) {
+            flags |= MessageHeader.FLAG_PRESENCE;
+        }
+        if (hasSender()) {
+            target.put((byte) (flags | MessageHeader.FLAG_SENDER));
+            target.putInt(getSenderId());
+        } else {
+            target.put(flags);
+        }
+        if (presence != 0) {
+            VarInts.write(target, presence);
+        }
+    }
+
+    /** Returns the number of bytes written by {@code encodePayload}. */
+    protected abstract int payloadLength();
+
+    /** Writes the message-specific contents that follow the header. */
+    protected abstract void encodePayload(ByteBuffer target);
+
+    /**
+     * Returns the number of bytes written by {@code encodePayload} for the
+     * given protocol version. By default the payload is the same in every
+     * version.
+     */
+    protected int payloadLength(int version) {
+        return payloadLength();
+    }
+
+    /**
+     * Writes the payload for the given protocol version. By default the
+     * payload is the same in every version.
+     */
+    protected void encodePayload(ByteBuffer target, int version) {
+        encodePayload(target);
+    }
+
+    /**
+     * Returns the compressed form of the payload, or {@code null} if the
+     * payload isn't compressed, deciding this the first time it's called.
+     */
+    private byte [] getCompressedPayload() {
+        if (! compressionChecked) {
+            int threshold = PayloadCompressor.getThreshold();
+            if (isCompressible() && (threshold > 0)) {
+                int length = payloadLength();
+                if (length >= threshold) {
+                    ByteBuffer payload = ByteBuffer.allocate(length);
+                    encodePayload(payload);
+                    compressedPayload =
+                        PayloadCompressor.compress(payload.array(), length);
+                }
+            }
+            compressionChecked = true;
+        }
+        return compressedPayload;
+    }
+
+    protected ByteBuffer setupBuffer(short payloadLength) {
+    	ByteBuffer buffer = ByteBuffer.allocate(headerLength() + payloadLength);
+        writeHeader(buffer);
         return buffer;
     }
 
+    /** Returns whether the message has a sender, without resolving it. */
+    private boolean hasSender() {
+        return (sender != null) || (senderRef != null) || (senderId != 0);
+    }
+
+    /**
+     * Writes the default fields, except that a managed sender is written as
+     * a reference. This leaves the fields unchanged, since the message may
+     * be shared, and it is read back by the default mechanism.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("messageId", messageId);
+        fields.put("senderId", senderId);
+        if (sender instanceof ManagedObject) {
+            fields.put("sender", null);
+            fields.put("senderRef",
+                       AppContext.getDataManager().createReference(sender));
+        } else {
+            fields.put("sender", sender);
+            fields.put("senderRef", senderRef);
+        }
+        out.writeFields();
+    }
+
     public static Entity parseSender(ByteBuffer buffer) {
-        byte containsSender = buffer.get();
-        if (containsSender == 0) {
-            return null;
+        byte flags = buffer.get();
+        return SenderIds.resolve(MessageHeader.readSenderId(flags, buffer));
+    }
+
+    /**
+     * Encodes each of the given messages that is an
+     * {@code AbstractMessage}, and hasn't been encoded in the base version
+     * yet, into one shared buffer. Each message's encoded form is then a
+     * read-only slice of that buffer, so a burst of messages costs a single
+     * allocation. Every message keeps the whole buffer reachable, so this
+     * is meant for messages that are sent and dropped together. Other
+     * messages are left alone.
+     *
+     * @param messages the messages to encode
+     */
+    public static void encodeTogether(Collection<? extends Message> messages) {
+        int total = 0;
+        for (Message message : messages) {
+            if ((message instanceof AbstractMessage) &&
+                (((AbstractMessage) message).encodedForm == null))
+            {
+                total += message.encodedLength();
+            }
+        }
+        if (total == 0) {
+            return;
+        }
+        ByteBuffer region = ByteBuffer.allocate(total);
+        for (Message message : messages) {
+            if (! (message instanceof AbstractMessage)) {
+                continue;
+            }
+            AbstractMessage abstractMessage = (AbstractMessage) message;
+            // a message listed twice has already been encoded, which just
+            // leaves its second share of the region unused
+            if (abstractMessage.encodedForm != null) {
+                continue;
+            }
+            int start = region.position();
+            abstractMessage.encodeInto(region);
+            ByteBuffer form = region.duplicate();
+            form.limit(region.position());
+            form.position(start);
+            abstractMessage.encodedForm = form.slice().asReadOnlyBuffer();
         }
-        int id = buffer.getInt();
-        // generic way to lookup the Entity by id
-        return null;
     }
 
 }
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.glieseframework.message.common.impl;
+
+import org.glieseframework.message.Message;
+import org.glieseframework.message.MessageManager;
+
+import org.glieseframework.message.common.BatchMessage;
+
+import java.io.Serializable;
+
+import java.nio.ByteBuffer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * A basic, shared implementation of {@code BatchMessage}. A batch is
+ * encoded as the message identifier, an unsigned short count of messages,
+ * and then each message as an unsigned short length followed by the
+ * encoded message. The messages in a batch are encoded with the same
+ * protocol version as the batch itself. Batches may not be nested, so a
+ * decoded batch never contains another batch.
+ */
+public class BatchMessageImpl extends AbstractMessage
+    implements BatchMessage, Serializable
+{
+
+    private static final long serialVersionUID = 1;
+
+    /** The largest number of messages in a batch. */
+    public static final int MAX_MESSAGES = 0xffff;
+
+    /** The largest encoded length of a single message in a batch. */
+    public static final int MAX_MESSAGE_LENGTH = 0xffff;
+
+    /** The number of bytes that a batch adds before its messages. */
+    public static final int FRAME_OVERHEAD = 4;
+
+    /** The number of bytes that a batch adds before each message. */
+    public static final int ENTRY_OVERHEAD = 2;
+
+    // the length of the message identifier
+    private static final int HEADER_LEN = 2;
+
+    // the batched messages
+    private final List<Message> messages;
+
+    /**
+     * Creates an instance of {@code BatchMessageImpl} containing the given
+     * messages.
+     *
+     * @param messages the messages to batch, in order
+     *
+     * @throws IllegalArgumentException if there are too many messages, a
+     *                                  message is too long to be batched, or
+     *                                  a message is itself a batch
+     */
+    public BatchMessageImpl(Collection<? extends Message> messages) {
+        super(STANDARD_ID, null);
+        if (messages.size() > MAX_MESSAGES) {
+            throw new IllegalArgumentException("Too many messages in batch");
+        }
+        for (Message message : messages) {
+            if (message instanceof BatchMessage) {
+                throw new IllegalArgumentException("Batches can't be " +
+                                                   "nested");
+            }
+            if (message.encodedLength() > MAX_MESSAGE_LENGTH) {
+                throw new IllegalArgumentException("Message too long to " +
+                                                   "batch");
+            }
+        }
+        this.messages =
+            Collections.unmodifiableList(new ArrayList<Message>(messages));
+    }
+
+    /**
+     * Creates an instance of {@code BatchMessageImpl} based on its encoded
+     * form. This buffer must not contain the message identifier. Each
+     * batched message is decoded with the given {@code MessageManager}.
+     *
+     * @param messageBuffer the encoded form of a {@code BatchMessageImpl}
+     * @param decoder the {@code MessageManager} used to decode the messages
+     *
+     * @throws IllegalArgumentException if the batch is malformed, or
+     *                                  contains another batch
+     */
+    public BatchMessageImpl(ByteBuffer messageBuffer, MessageManager decoder) {
+        super(STANDARD_ID, null);
+        int count = messageBuffer.getShort() & 0xffff;
+        List<Message> list = new ArrayList<Message>(count);
+        for (int i = 0; i < count; i++) {
+            int length = messageBuffer.getShort() & 0xffff;
+            if (length > messageBuffer.remaining()) {
+                throw new IllegalArgumentException("Truncated batch message");
+            }
+            int end = messageBuffer.position() + length;
+            ByteBuffer entry = messageBuffer.slice();
+            entry.limit(length);
+            // decoding a nested batch would recurse, so a client could
+            // nest batches deeply enough to overflow the stack
+            if (WireProtocol.peekMessageId(entry) == (STANDARD_ID & 0xffff)) {
+                throw new IllegalArgumentException("Nested batch message");
+            }
+            list.add(decoder.decodeMessage(entry));
+            messageBuffer.position(end);
+        }
+        this.messages = Collections.unmodifiableList(list);
+    }
+
+    /* Implement AbstractMessage */
+
+    /** Batches are sent with only the message identifier. */
+    protected int headerLength() {
+        return HEADER_LEN;
+    }
+
+    /** Batches are sent with only the message identifier. */
+    protected void writeHeader(ByteBuffer target) {
+        target.putShort(getMessageId());
+    }
+
+    /** Batches have their own header. */
+    protected boolean hasStandardHeader() {
+        return false;
+    }
+
+    /** Batches have no flag byte, so are never compressed. */
+    protected boolean isCompressible() {
+        return false;
+    }
+
+    /** {@inheritDoc} */
+    protected int payloadLength() {
+        int length = FRAME_OVERHEAD - HEADER_LEN;
+        for (Message message : messages) {
+            length += ENTRY_OVERHEAD + message.encodedLength();
+        }
+        return length;
+    }
+
+    /** {@inheritDoc} */
+    protected void encodePayload(ByteBuffer target) {
+        encodePayload(target, WireProtocol.BASE_VERSION);
+    }
+
+    /** The batched messages are encoded with the same version. */
+    protected int payloadLength(int version) {
+        int length = FRAME_OVERHEAD - HEADER_LEN;
+        for (Message message : messages) {
+            length += ENTRY_OVERHEAD +
+                WireProtocol.encodedLength(message, version);
+        }
+        return length;
+    }
+
+    /** The batched messages are encoded with the same version. */
+    protected void encodePayload(ByteBuffer target, int version) {
+        target.putShort((short) messages.size());
+        for (Message message : messages) {
+            int length = WireProtocol.encodedLength(message, version);
+            if (length > MAX_MESSAGE_LENGTH) {
+                throw new IllegalStateException("Message too long to " +
+                                                "batch");
+            }
+            target.putShort((short) length);
+            WireProtocol.encodeInto(message, target, version);
+        }
+    }
+
+    /* Implement BatchMessage */
+
+    /** {@inheritDoc} */
+    public List<Message> getMessages() {
+        return messages;
+    }
+
+}
@@ -48,13 +48,15 @@ public class ChatMessageImpl extends AbstractMessage
 
     private static final long serialVersionUID = 1;
 
-    // the encoded form of the message, kept transiently so that server
-    // code can use this message object across transactions
-    private transient ByteBuffer encodedForm = null;
-
     // the text of the message
     private final String chatText;
 
+    // the encoded text, which is its StringTable token if it has one,
+    // kept transiently once computed; the bytes are volatile and set after
+    // the flag, so a thread that sees the bytes also sees the flag
+    private transient volatile byte [] chatBytes = null;
+    private transient boolean tokenized = false;
+
     /**
      * Creates an instance of {@code ChatMessageImpl} based on the chat text.
      *
@@ -74,7 +76,16 @@ public class ChatMessageImpl extends AbstractMessage
      * @param messageBuffer the encoded form of a {@code ChatMessageImpl}
      */
     public ChatMessageImpl(ByteBuffer messageBuffer) {
-        this(messageBuffer, parseSender(messageBuffer));
+        this(MessageHeader.parse(messageBuffer));
+    }
+
+    /**
+     * Creates an instance based on a parsed header. Any sender identifier
+     * is resolved when the sender is first requested.
+     */
+    private ChatMessageImpl(MessageHeader header) {
+        super(STANDARD_ID, header.getSenderId());
+        this.chatText = StringTable.read(header.getPayload(), header.isToken());
     }
 
     /**
@@ -82,22 +93,39 @@ public class ChatMessageImpl extends AbstractMessage
      */
     public ChatMessageImpl(ByteBuffer messageBuffer, Entity sender) {
         super(STANDARD_ID, sender);
-        byte [] chatBytes = new byte[messageBuffer.remaining()];
-        messageBuffer.get(chatBytes);
-        this.chatText = new String(chatBytes);
+        this.chatText = StringTable.read(messageBuffer, false);
     }
 
-    /* Implement Message */
+    /* Implement AbstractMessage */
+
+    /** Registered strings are sent as their token. */
+    protected boolean isTokenPayload() {
+        getChatBytes();
+        return tokenized;
+    }
+
+    /** {@inheritDoc} */
+    protected int payloadLength() {
+        return getChatBytes().length;
+    }
 
     /** {@inheritDoc} */
-    public ByteBuffer encodeMessage() {
-        if (encodedForm != null) {
-            return encodedForm;
+    protected void encodePayload(ByteBuffer target) {
+        target.put(getChatBytes());
+    }
+
+    /** Returns the token or encoded text, encoding it on first use. */
+    private byte [] getChatBytes() {
+        if (chatBytes == null) {
+            byte [] token = StringTable.tokenBytes(chatText);
+            if (token != null) {
+                tokenized = true;
+                chatBytes = token;
+            } else {
+                chatBytes = StringTable.encode(chatText);
+            }
         }
-        byte [] chatBytes = chatText.getBytes();
-        encodedForm = setupBuffer((short) chatBytes.length);
-        encodedForm.put(chatBytes);
-        return encodedForm;
+        return chatBytes;
     }
 
     /* Implement ChatMessage */
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.glieseframework.message.common.impl;
+
+import org.glieseframework.core.Entity;
+
+import org.glieseframework.message.Message;
+
+import org.glieseframework.message.common.ChatMessage;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * A read-only flyweight view of an encoded {@code ChatMessage}. The chat
+ * text is only decoded the first time that it is requested, and encoding
+ * the view copies the original bytes without decoding the text at all.
+ */
+public final class ChatMessageView extends MessageView implements ChatMessage {
+
+    private static final long serialVersionUID = 1;
+
+    // the text of the message, decoded on first use
+    private transient String chatText = null;
+
+    /**
+     * Creates an instance of {@code ChatMessageView} over the remaining
+     * contents of the buffer. This buffer must not contain the message
+     * identifier.
+     *
+     * @param messageBuffer the encoded form of a {@code ChatMessageImpl}
+     * @param sender the sender of the message or {@code null} if no sender
+     *               is identified
+     */
+    public ChatMessageView(ByteBuffer messageBuffer, Entity sender) {
+        super(STANDARD_ID, messageBuffer, messageBuffer.remaining(), sender);
+    }
+
+    /**
+     * Creates an instance of {@code ChatMessageView} over the payload of a
+     * parsed header. Any sender identifier in the header is resolved when
+     * the sender is first requested.
+     *
+     * @param header the parsed header of a {@code ChatMessageImpl}
+     */
+    public ChatMessageView(MessageHeader header) {
+        super(STANDARD_ID, header);
+    }
+
+    /* Implement Message */
+
+    /** {@inheritDoc} */
+    public int encodedLength() {
+        return standardHeaderLength() + length;
+    }
+
+    /* Implement ChatMessage */
+
+    /** {@inheritDoc} */
+    public String getChatText() {
+        if (chatText == null) {
+            chatText = readString();
+        }
+        return chatText;
+    }
+
+    /* Implement MessageView */
+
+    /** {@inheritDoc} */
+    protected void writeHeader(ByteBuffer target) {
+        writeStandardHeader(target);
+    }
+
+    /** {@inheritDoc} */
+    protected Message materialize() {
+        return new ChatMessageImpl(getChatText(), getSender());
+    }
+
+}
@@ -0,0 +1,363 @@
+/*
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.glieseframework.message.common.impl;
+
+import org.glieseframework.game.Coordinate;
+
+import org.glieseframework.core.Entity;
+
+import org.glieseframework.message.DeliveryClass;
+
+import org.glieseframework.message.common.MovementMessage;
+import org.glieseframework.message.common.MovementQuantizer;
+
+import java.io.Serializable;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * A compact implementation of {@code MovementMessage}. The location and
+ * speed are quantized with a {@code MovementQuantizer} and written as
+ * signed variable-length integers after the message identifier, a flags
+ * byte and, if the sender is identified, the sender identifier as a
+ * {@code VarInts} value. The speed is left out when it is zero.
+ * <p>
+ * When a message is created with a reference location, which is the last
+ * location that every recipient is known to have for the sender (e.g., the
+ * last location broadcast on a reliable, ordered channel), the message
+ * may be encoded as the change from that reference. The delta form is only
+ * used when it is shorter, and only for an identified sender, so that the
+ * receiver knows whose reference location it applies to. Deltas are taken
+ * between quantized values, so a chain of deltas never drifts from the
+ * absolute location.
+ * <p>
+ * Since a delta is only meaningful if every earlier frame arrived, delta
+ * frames are sent {@code RELIABLE_ORDERED}, and are never superseded by
+ * later frames. Only absolute frames, which stand alone, are sent on the
+ * {@code UNRELIABLE_SEQUENCED} lane or coalesced.
+ * <p>
+ * A message decoded from a delta frame can't know its location until it is
+ * resolved against the receiver's copy of the reference location. Until
+ * then, {@code isDelta} returns {@code true} and {@code getLocation}
+ * throws {@code IllegalStateException}.
+ */
+public class CompactMovementMessageImpl extends AbstractMessage
+    implements MovementMessage, Serializable
+{
+
+    private static final long serialVersionUID = 1;
+
+    /** The flag set when the location is a delta from a reference. */
+    public static final byte FLAG_DELTA = 0x01;
+
+    /** The flag set when a speed follows the location. */
+    public static final byte FLAG_SPEED = 0x02;
+
+    /** The flag set when a sender identifier follows the flags. */
+    public static final byte FLAG_SENDER = 0x04;
+
+    // the length of the message identifier and flags
+    private static final int HEADER_LEN = 3;
+
+    // the sender identifier written in the header, or 0 if there is none
+    private final int headerSenderId;
+
+    // the quantizer used to encode and decode values
+    private final MovementQuantizer quantizer;
+
+    // the location, which is null until a decoded delta is resolved
+    private final Coordinate location;
+    private final float speed;
+
+    // the quantized absolute location, speed and, if there is a reference,
+    // the quantized delta
+    private final int x;
+    private final int y;
+    private final int z;
+    private final int quantizedSpeed;
+    private final boolean hasDelta;
+    private final int dx;
+    private final int dy;
+    private final int dz;
+
+    /**
+     * Creates an instance of {@code CompactMovementMessageImpl} using the
+     * default quantizer and no reference location.
+     *
+     * @param location the target location
+     * @param speed the movement speed
+     * @param sender the sender of the message or {@code null} if no sender
+     *               is identified
+     */
+    public CompactMovementMessageImpl(Coordinate location, float speed,
+                                      Entity sender)
+    {
+        this(location, speed, sender, null, MovementQuantizer.DEFAULT);
+    }
+
+    /**
+     * Creates an instance of {@code CompactMovementMessageImpl}.
+     *
+     * @param location the target location
+     * @param speed the movement speed
+     * @param sender the sender of the message or {@code null} if no sender
+     *               is identified
+     * @param reference the location that all recipients hold for the
+     *                  sender, or {@code null} to always send the absolute
+     *                  location
+     * @param quantizer the {@code MovementQuantizer} for the encoding
+     */
+    public CompactMovementMessageImpl(Coordinate location, float speed,
+                                      Entity sender, Coordinate reference,
+                                      MovementQuantizer quantizer)
+    {
+        super(STANDARD_ID, sender);
+        this.headerSenderId = getSenderId();
+        this.quantizer = quantizer;
+        this.location = location;
+        this.speed = speed;
+        this.x = quantizer.quantizeX(location);
+        this.y = quantizer.quantizeY(location);
+        this.z = quantizer.quantizeZ(location);
+        this.quantizedSpeed = quantizer.quantizeSpeed(speed);
+        this.hasDelta = reference != null;
+        this.dx = hasDelta ? x - quantizer.quantizeX(reference) : 0;
+        this.dy = hasDelta ? y - quantizer.quantizeY(reference) : 0;
+        this.dz = hasDelta ? z - quantizer.quantizeZ(reference) : 0;
+    }
+
+    /**
+     * Creates an instance of {@code CompactMovementMessageImpl} based on its
+     * encoded form. This buffer must not contain the message identifier.
+     *
+     * @param messageBuffer the encoded form of a
+     *                      {@code CompactMovementMessageImpl}
+     * @param quantizer the {@code MovementQuantizer} for the encoding
+     */
+    public CompactMovementMessageImpl(ByteBuffer messageBuffer,
+                                      MovementQuantizer quantizer)
+    {
+        this(messageBuffer, messageBuffer.get(), quantizer);
+    }
+
+    /** Decodes the rest of a message, after its flags. */
+    private CompactMovementMessageImpl(ByteBuffer messageBuffer, byte flags,
+                                       MovementQuantizer quantizer)
+    {
+        super(STANDARD_ID, (flags & FLAG_SENDER) != 0 ?
+              VarInts.read(messageBuffer) : 0);
+        this.headerSenderId = getSenderId();
+        this.quantizer = quantizer;
+        int first = VarInts.readSigned(messageBuffer);
+        int second = VarInts.readSigned(messageBuffer);
+        int third = VarInts.readSigned(messageBuffer);
+        this.quantizedSpeed = (flags & FLAG_SPEED) != 0 ?
+            VarInts.readSigned(messageBuffer) : 0;
+        this.speed = quantizer.restoreSpeed(quantizedSpeed);
+        this.hasDelta = (flags & FLAG_DELTA) != 0;
+        if (hasDelta) {
+            this.dx = first;
+            this.dy = second;
+            this.dz = third;
+            this.x = 0;
+            this.y = 0;
+            this.z = 0;
+            this.location = null;
+        } else {
+            this.dx = 0;
+            this.dy = 0;
+            this.dz = 0;
+            this.x = first;
+            this.y = second;
+            this.z = third;
+            this.location = quantizer.restore(x, y, z);
+        }
+    }
+
+    /**
+     * Returns whether this message was decoded from a delta frame and has
+     * not yet been resolved against a reference location.
+     *
+     * @return {@code true} if {@code resolve} must be called to learn the
+     *         location, {@code false} otherwise
+     */
+    public boolean isDelta() {
+        return location == null;
+    }
+
+    /**
+     * Returns a message with the absolute location of this message, taking
+     * any delta relative to the given reference. If this message already
+     * knows its location then it is returned as-is.
+     *
+     * @param reference the receiver's copy of the sender's last location
+     *
+     * @return a {@code CompactMovementMessageImpl} with a known location
+     */
+    public CompactMovementMessageImpl resolve(Coordinate reference) {
+        if (! isDelta()) {
+            return this;
+        }
+        Coordinate resolved =
+            quantizer.restore(quantizer.quantizeX(reference) + dx,
+                              quantizer.quantizeY(reference) + dy,
+                              quantizer.quantizeZ(reference) + dz);
+        return new CompactMovementMessageImpl(resolved, speed, getSender(),
+                                              null, quantizer);
+    }
+
+    /* Implement PrioritizedMessage */
+
+    /**
+     * Absolute movement is sent unreliably, so only the latest update
+     * matters, but a delta depends on every earlier frame and so is sent
+     * reliably.
+     */
+    public DeliveryClass getDeliveryClass() {
+        return useDelta() ? DeliveryClass.RELIABLE_ORDERED :
+            DeliveryClass.UNRELIABLE_SEQUENCED;
+    }
+
+    /* Implement SupersedableMessage */
+
+    /**
+     * An absolute frame may be replaced by a newer one, but a delta frame
+     * never is, since the frames after it are relative to it.
+     */
+    public boolean isSupersedable() {
+        return ! useDelta();
+    }
+
+    /* Implement AbstractMessage */
+
+    /** Compact movement messages use the identifier, flags and sender. */
+    protected int headerLength() {
+        return headerSenderId == 0 ? HEADER_LEN :
+            HEADER_LEN + VarInts.length(headerSenderId);
+    }
+
+    /** Compact movement messages use the identifier, flags and sender. */
+    protected void writeHeader(ByteBuffer target) {
+        target.putShort(getMessageId());
+        byte flags = useDelta() ? FLAG_DELTA : 0;
+        if (quantizedSpeed != 0) {
+            flags |= FLAG_SPEED;
+        }
+        if (headerSenderId != 0) {
+            flags |= FLAG_SENDER;
+        }
+        target.put(flags);
+        if (headerSenderId != 0) {
+            VarInts.write(target, headerSenderId);
+        }
+    }
+
+    /** Compact movement messages have their own header. */
+    protected boolean hasStandardHeader() {
+        return false;
+    }
+
+    /** Compact movement flags have no compression bit. */
+    protected boolean isCompressible() {
+        return false;
+    }
+
+    /** {@inheritDoc} */
+    protected int payloadLength() {
+        int length = useDelta() ? deltaLength() : absoluteLength();
+        if (quantizedSpeed != 0) {
+            length += VarInts.signedLength(quantizedSpeed);
+        }
+        return length;
+    }
+
+    /** {@inheritDoc} */
+    protected void encodePayload(ByteBuffer target) {
+        if (useDelta()) {
+            VarInts.writeSigned(target, dx);
+            VarInts.writeSigned(target, dy);
+            VarInts.writeSigned(target, dz);
+        } else {
+            VarInts.writeSigned(target, x);
+            VarInts.writeSigned(target, y);
+            VarInts.writeSigned(target, z);
+        }
+        if (quantizedSpeed != 0) {
+            VarInts.writeSigned(target, quantizedSpeed);
+        }
+    }
+
+    /* Implement MovementMessage */
+
+    /** {@inheritDoc} */
+    public Coordinate getLocation() {
+        if (location == null) {
+            throw new IllegalStateException("Delta movement must be " +
+                                            "resolved first");
+        }
+        return location;
+    }
+
+    /** {@inheritDoc} */
+    public float getSpeed() {
+        return speed;
+    }
+
+    /* Private utilities */
+
+    /**
+     * Returns whether to encode the location as a delta, which requires an
+     * identified sender for a new message.
+     */
+    private boolean useDelta() {
+        if (location == null) {
+            return true;
+        }
+        return hasDelta && (headerSenderId != 0) &&
+            (deltaLength() < absoluteLength());
+    }
+
+    /** Returns the length of the encoded absolute location. */
+    private int absoluteLength() {
+        return VarInts.signedLength(x) + VarInts.signedLength(y) +
+            VarInts.signedLength(z);
+    }
+
+    /** Returns the length of the encoded delta location. */
+    private int deltaLength() {
+        return VarInts.signedLength(dx) + VarInts.signedLength(dy) +
+            VarInts.signedLength(dz);
+    }
+
+}
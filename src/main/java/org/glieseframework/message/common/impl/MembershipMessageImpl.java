@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.glieseframework.message.common.impl;
+
+import org.glieseframework.message.common.MembershipMessage;
+
+import java.io.Serializable;
+
+import java.nio.ByteBuffer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * A basic, shared implementation of {@code MembershipMessage}. After the
+ * standard header, the payload is a byte that is {@code 1} for a snapshot
+ * and {@code 0} for a delta, the group name, and then the joined and left
+ * names, each list preceded by its length as a {@code VarInts} value.
+ * Strings are written with {@code StringTable.writeEmbedded}, so group and
+ * member names that are in the table are sent as tokens. Membership
+ * messages never have a sender.
+ */
+public class MembershipMessageImpl extends AbstractMessage
+    implements MembershipMessage, Serializable
+{
+
+    private static final long serialVersionUID = 1;
+
+    // the group, whether this is a snapshot, and the member names
+    private final String groupName;
+    private final boolean snapshot;
+    private final List<String> joined;
+    private final List<String> left;
+
+    /**
+     * Creates an instance of {@code MembershipMessageImpl}.
+     *
+     * @param groupName the name of the group
+     * @param snapshot whether this lists every member
+     * @param joined the names of the members that joined, or of every
+     *               member for a snapshot
+     * @param left the names of the members that left, which must be empty
+     *             for a snapshot
+     */
+    public MembershipMessageImpl(String groupName, boolean snapshot,
+                                 Collection<String> joined,
+                                 Collection<String> left)
+    {
+        super(STANDARD_ID, null);
+        if (snapshot && (! left.isEmpty())) {
+            throw new IllegalArgumentException("A snapshot has no members " +
+                                               "that left");
+        }
+        this.groupName = groupName;
+        this.snapshot = snapshot;
+        this.joined =
+            Collections.unmodifiableList(new ArrayList<String>(joined));
+        this.left = Collections.unmodifiableList(new ArrayList<String>(left));
+    }
+
+    /**
+     * Creates an instance of {@code MembershipMessageImpl} based on its
+     * encoded form. This buffer must not contain the message identifier.
+     *
+     * @param messageBuffer the encoded form of a
+     *                      {@code MembershipMessageImpl}
+     *
+     * @throws IllegalArgumentException if the message is malformed
+     */
+    public MembershipMessageImpl(ByteBuffer messageBuffer) {
+        super(STANDARD_ID, null);
+        ByteBuffer payload = MessageHeader.parse(messageBuffer).getPayload();
+        this.snapshot = payload.get() != 0;
+        this.groupName = StringTable.readEmbedded(payload);
+        this.joined = readNames(payload);
+        this.left = readNames(payload);
+    }
+
+    /**
+     * Creates the messages for a membership update, split so that no
+     * message's payload is much longer than {@code maxLength}. Only the
+     * first message is a snapshot, if {@code snapshot} is {@code true}, and
+     * the rest are deltas listing the remaining members as joined, so a
+     * recipient that applies them in order ends up with the whole
+     * membership. Every message lists at least one name, unless there are
+     * none at all.
+     *
+     * @param groupName the name of the group
+     * @param snapshot whether the update lists every member
+     * @param joined the names of the members that joined, or of every
+     *               member for a snapshot
+     * @param left the names of the members that left, which must be empty
+     *             for a snapshot
+     * @param maxLength the most bytes of payload to put in each message
+     *
+     * @return the {@code List} of messages, in the order they should be
+     *         sent
+     */
+    public static List<MembershipMessageImpl> split(String groupName,
+                                                    boolean snapshot,
+                                                    Collection<String> joined,
+                                                    Collection<String> left,
+                                                    int maxLength)
+    {
+        Splitter splitter = new Splitter(groupName, snapshot, maxLength);
+        for (String name : joined) {
+            splitter.add(name, true);
+        }
+        for (String name : left) {
+            splitter.add(name, false);
+        }
+        return splitter.finish();
+    }
+
+    /* Implement AbstractMessage */
+
+    /** {@inheritDoc} */
+    protected int payloadLength() {
+        return 1 + StringTable.embeddedLength(groupName) +
+            namesLength(joined) + namesLength(left);
+    }
+
+    /** {@inheritDoc} */
+    protected void encodePayload(ByteBuffer target) {
+        target.put((byte) (snapshot ? 1 : 0));
+        StringTable.writeEmbedded(target, groupName);
+        writeNames(target, joined);
+        writeNames(target, left);
+    }
+
+    /* Implement MembershipMessage */
+
+    /** {@inheritDoc} */
+    public String getGroupName() {
+        return groupName;
+    }
+
+    /** {@inheritDoc} */
+    public boolean isSnapshot() {
+        return snapshot;
+    }
+
+    /** {@inheritDoc} */
+    public List<String> getJoined() {
+        return joined;
+    }
+
+    /** {@inheritDoc} */
+    public List<String> getLeft() {
+        return left;
+    }
+
+    /** Collects the names of an update into bounded messages. */
+    private static final class Splitter {
+        private final String groupName;
+        private final int maxLength;
+        // the kind, the name and both counts, allowing the longest count
+        private final int fixedLength;
+        private final List<MembershipMessageImpl> messages =
+            new ArrayList<MembershipMessageImpl>();
+        // the message being filled
+        private boolean snapshot;
+        private final List<String> joined = new ArrayList<String>();
+        private final List<String> left = new ArrayList<String>();
+        private int length;
+        Splitter(String groupName, boolean snapshot, int maxLength) {
+            this.groupName = groupName;
+            this.snapshot = snapshot;
+            this.maxLength = maxLength;
+            this.fixedLength = 1 + StringTable.embeddedLength(groupName) +
+                2 * VarInts.length(Integer.MAX_VALUE);
+            this.length = fixedLength;
+        }
+        void add(String name, boolean join) {
+            int nameLength = StringTable.embeddedLength(name);
+            if ((length > fixedLength) && (length + nameLength > maxLength)) {
+                flush();
+            }
+            (join ? joined : left).add(name);
+            length += nameLength;
+        }
+        List<MembershipMessageImpl> finish() {
+            if ((length > fixedLength) || messages.isEmpty()) {
+                flush();
+            }
+            return messages;
+        }
+        private void flush() {
+            messages.add(new MembershipMessageImpl(groupName, snapshot,
+                                                   joined, left));
+            joined.clear();
+            left.clear();
+            length = fixedLength;
+            snapshot = false;
+        }
+    }
+
+    /* Private utility methods. */
+
+    /** Returns the encoded length of a list of names. */
+    private static int namesLength(List<String> names) {
+        int length = VarInts.length(names.size());
+        for (String name : names) {
+            length += StringTable.embeddedLength(name);
+        }
+        return length;
+    }
+
+    /** Writes a list of names, preceded by its length. */
+    private static void writeNames(ByteBuffer target, List<String> names) {
+        VarInts.write(target, names.size());
+        for (String name : names) {
+            StringTable.writeEmbedded(target, name);
+        }
+    }
+
+    /** Reads a list of names written by {@code writeNames}. */
+    private static List<String> readNames(ByteBuffer source) {
+        int count = VarInts.read(source);
+        // each name takes at least one byte, which bounds the list before
+        // anything is allocated for it
+        if (count > source.remaining()) {
+            throw new IllegalArgumentException("Truncated membership " +
+                                               "message");
+        }
+        List<String> names = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            names.add(StringTable.readEmbedded(source));
+        }
+        return Collections.unmodifiableList(names);
+    }
+
+}
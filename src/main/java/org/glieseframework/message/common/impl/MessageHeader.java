@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.glieseframework.message.common.impl;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * The parsed form of the standard header written by
+ * {@code AbstractMessage}: a flag byte, an optional sender identifier, an
+ * optional field-presence bitmap, and then the payload. If the payload
+ * was compressed then it is inflated when the header is parsed, so
+ * handlers always see the plain payload.
+ */
+public final class MessageHeader {
+
+    /** The flag bit set when the header includes a sender identifier. */
+    public static final byte FLAG_SENDER = 0x01;
+
+    /** The flag bit set when the payload is compressed. */
+    public static final byte FLAG_COMPRESSED = 0x02;
+
+    /**
+     * The flag bit set when the payload is a {@code StringTable} token
+     * rather than the text of a string.
+     */
+    public static final byte FLAG_TOKEN = 0x04;
+
+    /**
+     * The flag bit set when the sender identifier is written as a
+     * {@code VarInts} value rather than an int.
+     */
+    public static final byte FLAG_VARINT_SENDER = 0x08;
+
+    /**
+     * The flag bit set when the header includes a field-presence bitmap,
+     * written as a {@code VarInts} value.
+     */
+    public static final byte FLAG_PRESENCE = 0x10;
+
+    // all of the flag bits that are understood
+    private static final int KNOWN_FLAGS = FLAG_SENDER | FLAG_COMPRESSED |
+        FLAG_TOKEN | FLAG_VARINT_SENDER | FLAG_PRESENCE;
+
+    // the flags, the sender identifier and presence bitmap if there are
+    // any, and the payload
+    private final byte flags;
+    private final int senderId;
+    private final int presence;
+    private final ByteBuffer payload;
+
+    /** Creates an instance of {@code MessageHeader}. */
+    private MessageHeader(byte flags, int senderId, int presence,
+                          ByteBuffer payload)
+    {
+        this.flags = flags;
+        this.senderId = senderId;
+        this.presence = presence;
+        this.payload = payload;
+    }
+
+    /**
+     * Parses the header at the buffer's position. The buffer must not
+     * contain the message identifier. If the payload is not compressed then
+     * the returned payload is the given buffer, positioned just after the
+     * header. Otherwise the rest of the buffer is consumed and the payload
+     * is a new buffer with the inflated bytes.
+     *
+     * @param messageBuffer the encoded message, less its identifier
+     *
+     * @return the parsed header
+     *
+     * @throws IllegalArgumentException if the header is invalid
+     */
+    public static MessageHeader parse(ByteBuffer messageBuffer) {
+        byte flags = messageBuffer.get();
+        if ((flags & ~KNOWN_FLAGS) != 0) {
+            throw new IllegalArgumentException("Unknown header flags: " +
+                                               flags);
+        }
+        int senderId = readSenderId(flags, messageBuffer);
+        int presence = 0;
+        if ((flags & FLAG_PRESENCE) != 0) {
+            presence = VarInts.read(messageBuffer);
+        }
+        ByteBuffer payload = messageBuffer;
+        if ((flags & FLAG_COMPRESSED) != 0) {
+            int length = VarInts.read(messageBuffer);
+            payload = PayloadCompressor.inflate(messageBuffer, length);
+        }
+        return new MessageHeader(flags, senderId, presence, payload);
+    }
+
+    /**
+     * Reads the sender identifier that follows the given flags, in either
+     * form, or returns {@code 0} if there is none.
+     */
+    static int readSenderId(byte flags, ByteBuffer messageBuffer) {
+        if ((flags & FLAG_SENDER) == 0) {
+            return 0;
+        }
+        return (flags & FLAG_VARINT_SENDER) != 0 ?
+            VarInts.read(messageBuffer) : messageBuffer.getInt();
+    }
+
+    /**
+     * Returns whether the header identifies the sender.
+     *
+     * @return {@code true} if there is a sender identifier
+     */
+    public boolean hasSender() {
+        return (flags & FLAG_SENDER) != 0;
+    }
+
+    /**
+     * Returns the sender identifier, which is only meaningful when
+     * {@code hasSender} returns {@code true}.
+     *
+     * @return the sender identifier
+     */
+    public int getSenderId() {
+        return senderId;
+    }
+
+    /**
+     * Returns whether the payload was compressed.
+     *
+     * @return {@code true} if the payload was inflated while parsing
+     */
+    public boolean isCompressed() {
+        return (flags & FLAG_COMPRESSED) != 0;
+    }
+
+    /**
+     * Returns the field-presence bitmap, in which each set bit marks an
+     * optional field that is present in the payload. This is {@code 0} if
+     * the header has no bitmap.
+     *
+     * @return the presence bitmap
+     */
+    public int getPresence() {
+        return presence;
+    }
+
+    /**
+     * Returns whether the payload is a {@code StringTable} token.
+     *
+     * @return {@code true} if the payload is a token
+     */
+    public boolean isToken() {
+        return (flags & FLAG_TOKEN) != 0;
+    }
+
+    /**
+     * Returns the plain payload, positioned at its start.
+     *
+     * @return the payload
+     */
+    public ByteBuffer getPayload() {
+        return payload;
+    }
+
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.glieseframework.message.common.impl;
+
+import org.glieseframework.core.Entity;
+
+import org.glieseframework.message.Message;
+import org.glieseframework.message.VersionedMessage;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+
+/**
+ * Base class for the read-only flyweight views created by the common
+ * handlers. A view remembers where its payload lies in the buffer it was
+ * decoded from and reads that region with absolute operations, so nothing
+ * is copied until an accessor needs it. When a view is serialized it is
+ * replaced by the materialized form of the message, so views are never
+ * stored with references to a buffer.
+ */
+abstract class MessageView implements VersionedMessage, Serializable {
+
+    private static final long serialVersionUID = 1;
+
+    // the length of the standard header, without and with a sender
+    private static final int HEADER_LEN_NO_SENDER = 3;
+    private static final int HEADER_LEN_WITH_SENDER = 7;
+
+    // the identifier and optional sender of the message
+    private final short messageId;
+    private final Entity sender;
+
+    // the identifier of the sender read from the header, or 0, and the
+    // sender it resolves to, which is looked up on first use
+    private final int senderId;
+    private transient Entity resolvedSender = null;
+
+    /** Whether the payload is a {@code StringTable} token. */
+    protected final transient boolean tokenPayload;
+
+    // the read-only encoded forms in the base and current protocol
+    // versions, created on first use and shared by every caller
+    private transient volatile ByteBuffer encodedForm = null;
+    private transient volatile ByteBuffer currentEncodedForm = null;
+
+    /** The buffer that the view reads from. */
+    protected final transient ByteBuffer buffer;
+
+    /** The absolute index where the payload starts in the buffer. */
+    protected final transient int offset;
+
+    /** The length of the payload in bytes. */
+    protected final transient int length;
+
+    /**
+     * Creates a view over the next {@code length} bytes of the given buffer,
+     * and advances the buffer's position past them.
+     */
+    protected MessageView(short messageId, ByteBuffer messageBuffer,
+                          int length, Entity sender)
+    {
+        this(messageId, messageBuffer, length, sender, 0, false);
+    }
+
+    /**
+     * Creates a view over the next {@code length} bytes of the given buffer
+     * for a message whose sender is known only by identifier, and advances
+     * the buffer's position past them.
+     */
+    protected MessageView(short messageId, ByteBuffer messageBuffer,
+                          int length, int senderId)
+    {
+        this(messageId, messageBuffer, length, null, senderId, false);
+    }
+
+    /**
+     * Creates a view over the whole payload of a parsed standard header,
+     * keeping its sender identifier and whether the payload is a token.
+     */
+    protected MessageView(short messageId, MessageHeader header) {
+        this(messageId, header.getPayload(),
+             header.getPayload().remaining(), null, header.getSenderId(),
+             header.isToken());
+    }
+
+    /** Creates a view with either a sender or a sender identifier. */
+    private MessageView(short messageId, ByteBuffer messageBuffer,
+                        int length, Entity sender, int senderId,
+                        boolean tokenPayload)
+    {
+        if (messageBuffer.remaining() < length) {
+            throw new IllegalArgumentException("Message buffer too short");
+        }
+        this.messageId = messageId;
+        this.sender = sender;
+        this.senderId = senderId;
+        this.tokenPayload = tokenPayload;
+        this.buffer = messageBuffer;
+        this.offset = messageBuffer.position();
+        this.length = length;
+        messageBuffer.position(offset + length);
+    }
+
+    /* Implement Message */
+
+    /** {@inheritDoc} */
+    public short getMessageId() {
+        return messageId;
+    }
+
+    /** {@inheritDoc} */
+    public Entity getSender() {
+        if (sender != null) {
+            return sender;
+        }
+        if ((resolvedSender == null) && (senderId != 0)) {
+            resolvedSender = SenderIds.resolve(senderId);
+        }
+        return resolvedSender;
+    }
+
+    /** {@inheritDoc} */
+    public ByteBuffer encodeMessage() {
+        return encodeMessage(WireProtocol.BASE_VERSION);
+    }
+
+    /** {@inheritDoc} */
+    public ByteBuffer encodeMessage(int version) {
+        WireProtocol.checkVersion(version);
+        boolean base = version == WireProtocol.BASE_VERSION;
+        ByteBuffer form = base ? encodedForm : currentEncodedForm;
+        if (form == null) {
+            ByteBuffer buffer = ByteBuffer.allocate(encodedLength(version));
+            encodeInto(buffer, version);
+            buffer.flip();
+            form = buffer.asReadOnlyBuffer();
+            if (base) {
+                encodedForm = form;
+            } else {
+                currentEncodedForm = form;
+            }
+        }
+        return form.duplicate();
+    }
+
+    /** {@inheritDoc} */
+    public void encodeInto(ByteBuffer target) {
+        if (target.remaining() < encodedLength()) {
+            throw new BufferOverflowException();
+        }
+        writeHeader(target);
+        for (int i = 0; i < length; i++) {
+            target.put(buffer.get(offset + i));
+        }
+    }
+
+    /** {@inheritDoc} */
+    public int encodedLength(int version) {
+        WireProtocol.checkVersion(version);
+        if (version == WireProtocol.BASE_VERSION) {
+            return encodedLength();
+        }
+        if (hasStandardHeader()) {
+            return WireProtocol.standardHeaderLength(messageId,
+                                                     headerSenderId(), 0) +
+                length;
+        }
+        return encodedLength() - 2 + WireProtocol.prefixLength(messageId);
+    }
+
+    /** {@inheritDoc} */
+    public void encodeInto(ByteBuffer target, int version) {
+        if (version == WireProtocol.BASE_VERSION) {
+            encodeInto(target);
+            return;
+        }
+        if (target.remaining() < encodedLength(version)) {
+            throw new BufferOverflowException();
+        }
+        if (hasStandardHeader()) {
+            byte flags = tokenPayload ? MessageHeader.FLAG_TOKEN : 0;
+            WireProtocol.writeStandardHeader(target, messageId, flags,
+                                             headerSenderId(), 0);
+        } else {
+            int start = target.position();
+            target.position(start + WireProtocol.prefixLength(messageId) - 2);
+            writeHeader(target);
+            WireProtocol.rewritePrefix(target, start, messageId);
+        }
+        for (int i = 0; i < length; i++) {
+            target.put(buffer.get(offset + i));
+        }
+    }
+
+    /**
+     * Returns whether {@code writeHeader} writes the standard header with
+     * {@code writeStandardHeader}. This is {@code true} by default. Views
+     * with their own header must return {@code false}, and their header
+     * must start with the message identifier as a short.
+     */
+    protected boolean hasStandardHeader() {
+        return true;
+    }
+
+    /**
+     * Writes the header that comes before the payload in the encoded form
+     * of the message. The length of the header plus {@code length} must
+     * equal {@code encodedLength}.
+     */
+    protected abstract void writeHeader(ByteBuffer target);
+
+    /**
+     * Returns the length of the standard header written by
+     * {@code writeStandardHeader}, for views of messages that use it.
+     */
+    protected int standardHeaderLength() {
+        return ((sender == null) && (senderId == 0)) ?
+            HEADER_LEN_NO_SENDER : HEADER_LEN_WITH_SENDER;
+    }
+
+    /**
+     * Writes the standard header, with the message identifier, a flag byte
+     * and the sender identifier if there is a sender. The payload is
+     * always written uncompressed.
+     */
+    protected void writeStandardHeader(ByteBuffer target) {
+        target.putShort(messageId);
+        byte flags = tokenPayload ? MessageHeader.FLAG_TOKEN : 0;
+        if ((sender == null) && (senderId == 0)) {
+            target.put(flags);
+        } else {
+            target.put((byte) (flags | MessageHeader.FLAG_SENDER));
+            target.putInt(headerSenderId());
+        }
+    }
+
+    /** Returns the sender identifier to write in the header, or 0. */
+    private int headerSenderId() {
+        return senderId != 0 ? senderId : SenderIds.idOf(sender);
+    }
+
+    /**
+     * Reads the payload as a string, which is either a {@code StringTable}
+     * token or UTF-8 text.
+     */
+    protected String readString() {
+        ByteBuffer payload = buffer.duplicate();
+        payload.limit(offset + length);
+        payload.position(offset);
+        return StringTable.read(payload, tokenPayload);
+    }
+
+    /** Returns a fully decoded copy of this message. */
+    protected abstract Message materialize();
+
+    /** Serializes the materialized form instead of the view. */
+    protected Object writeReplace() throws ObjectStreamException {
+        return materialize();
+    }
+
+}
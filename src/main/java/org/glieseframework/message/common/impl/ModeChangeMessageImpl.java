@@ -48,13 +48,15 @@ public class ModeChangeMessageImpl extends AbstractMessage
 
     private static final long serialVersionUID = 1;
 
-    // the encoded form of the message, kept transiently so that server
-    // code can use this message object across transactions
-    private transient ByteBuffer encodedForm = null;
-
     // the name of the new mode
     private final String modeName;
 
+    // the encoded name, which is its StringTable token if it has one,
+    // kept transiently once computed; the bytes are volatile and set after
+    // the flag, so a thread that sees the bytes also sees the flag
+    private transient volatile byte [] modeBytes = null;
+    private transient boolean tokenized = false;
+
     /**
      * Creates an instance of {@code ModeChangeMessageImpl} with the mode name.
      *
@@ -74,7 +76,16 @@ public class ModeChangeMessageImpl extends AbstractMessage
      * @param messageBuffer the encoded form of a {@code ModeChangeMessageImpl}
      */
     public ModeChangeMessageImpl(ByteBuffer messageBuffer) {
-        this(messageBuffer, parseSender(messageBuffer));
+        this(MessageHeader.parse(messageBuffer));
+    }
+
+    /**
+     * Creates an instance based on a parsed header. Any sender identifier
+     * is resolved when the sender is first requested.
+     */
+    private ModeChangeMessageImpl(MessageHeader header) {
+        super(STANDARD_ID, header.getSenderId());
+        this.modeName = StringTable.read(header.getPayload(), header.isToken());
     }
 
     /**
@@ -82,23 +93,39 @@ public class ModeChangeMessageImpl extends AbstractMessage
      */
     public ModeChangeMessageImpl(ByteBuffer messageBuffer, Entity sender) {
         super(STANDARD_ID, sender);
-        byte [] modeBytes = new byte[messageBuffer.remaining()];
-        messageBuffer.get(modeBytes);
-        this.modeName = new String(modeBytes);
+        this.modeName = StringTable.read(messageBuffer, false);
     }
 
-    /* Implement Message */
+    /* Implement AbstractMessage */
+
+    /** Registered strings are sent as their token. */
+    protected boolean isTokenPayload() {
+        getModeBytes();
+        return tokenized;
+    }
+
+    /** {@inheritDoc} */
+    protected int payloadLength() {
+        return getModeBytes().length;
+    }
 
     /** {@inheritDoc} */
-    public ByteBuffer encodeMessage() {
-        if (encodedForm != null) {
-        	 return encodedForm;
+    protected void encodePayload(ByteBuffer target) {
+        target.put(getModeBytes());
+    }
+
+    /** Returns the token or encoded mode name, encoding it on first use. */
+    private byte [] getModeBytes() {
+        if (modeBytes == null) {
+            byte [] token = StringTable.tokenBytes(modeName);
+            if (token != null) {
+                tokenized = true;
+                modeBytes = token;
+            } else {
+                modeBytes = StringTable.encode(modeName);
+            }
         }
-        byte [] modeBytes = modeName.getBytes();
-        encodedForm = setupBuffer((short) modeBytes.length);
-        encodedForm.put(modeBytes);
-        encodedForm.position(0);
-        return encodedForm;
+        return modeBytes;
     }
 
     /* Implement ModeChangeMessage */
@@ -36,6 +36,8 @@ import org.glieseframework.game.Coordinate;
 
 import org.glieseframework.core.Entity;
 
+import org.glieseframework.message.DeliveryClass;
+
 import org.glieseframework.message.common.MovementMessage;
 
 import java.io.Serializable;
@@ -50,9 +52,9 @@ public class MovementMessageImpl extends AbstractMessage
 
     private static final long serialVersionUID = 1;
 
-    // the encoded form of the message, kept transiently so that server
-    // code can use this message object across transactions
-    private transient ByteBuffer encodedForm = null;
+    // the length of the message identifier, and of the location and speed
+    private static final int HEADER_LEN = 2;
+    private static final int PAYLOAD_LEN = 16;
 
     // the movement location and speed
     private final Coordinate location;
@@ -110,20 +112,53 @@ public class MovementMessageImpl extends AbstractMessage
         return new Coordinate(x, y, z);
     }
 
-    /* Implement Message */
+    /* Implement PrioritizedMessage */
+
+    /** Movement is sent unreliably, so only the latest update matters. */
+    public DeliveryClass getDeliveryClass() {
+        return DeliveryClass.UNRELIABLE_SEQUENCED;
+    }
+
+    /* Implement SupersedableMessage */
+
+    /** Only the latest movement matters, so any update may be replaced. */
+    public boolean isSupersedable() {
+        return true;
+    }
+
+    /* Implement AbstractMessage */
+
+    /** Movement messages are sent with only the message identifier. */
+    protected int headerLength() {
+        return HEADER_LEN;
+    }
+
+    /** Movement messages are sent with only the message identifier. */
+    protected void writeHeader(ByteBuffer target) {
+        target.putShort(getMessageId());
+    }
+
+    /** Movement messages have their own header. */
+    protected boolean hasStandardHeader() {
+        return false;
+    }
+
+    /** Movement messages have no flag byte, so are never compressed. */
+    protected boolean isCompressible() {
+        return false;
+    }
+
+    /** {@inheritDoc} */
+    protected int payloadLength() {
+        return PAYLOAD_LEN;
+    }
 
     /** {@inheritDoc} */
-    public ByteBuffer encodeMessage() {
-        if (encodedForm != null) {
-            return encodedForm;
-        }
-        encodedForm = ByteBuffer.allocate(18);
-        encodedForm.putShort(getMessageId());
-        encodedForm.putFloat(location.x);
-        encodedForm.putFloat(location.y);
-        encodedForm.putFloat(location.z);
-        encodedForm.putFloat(speed);
-        return encodedForm;
+    protected void encodePayload(ByteBuffer target) {
+        target.putFloat(location.x);
+        target.putFloat(location.y);
+        target.putFloat(location.z);
+        target.putFloat(speed);
     }
 
     /* Implement MovementMessage */
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.glieseframework.message.common.impl;
+
+import org.glieseframework.game.Coordinate;
+
+import org.glieseframework.core.Entity;
+
+import org.glieseframework.message.DeliveryClass;
+import org.glieseframework.message.Message;
+
+import org.glieseframework.message.common.MovementMessage;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * A read-only flyweight view of an encoded {@code MovementMessage}. The
+ * speed is read directly from the buffer, and the {@code Coordinate} is
+ * only created the first time that the location is requested.
+ */
+public final class MovementMessageView extends MessageView
+    implements MovementMessage
+{
+
+    private static final long serialVersionUID = 1;
+
+    // the length of the identifier, and of the encoded location and speed
+    private static final int HEADER_LEN = 2;
+    private static final int PAYLOAD_LEN = 16;
+
+    // the target location, created on first use
+    private transient Coordinate location = null;
+
+    /**
+     * Creates an instance of {@code MovementMessageView} over the remaining
+     * contents of the buffer. This buffer must not contain the message
+     * identifier.
+     *
+     * @param messageBuffer the encoded form of a {@code MovementMessageImpl}
+     * @param sender the sender of the message or {@code null} if no sender
+     *               is identified
+     */
+    public MovementMessageView(ByteBuffer messageBuffer, Entity sender) {
+        super(STANDARD_ID, messageBuffer, PAYLOAD_LEN, sender);
+    }
+
+    /* Implement Message */
+
+    /** {@inheritDoc} */
+    public int encodedLength() {
+        return HEADER_LEN + length;
+    }
+
+    /* Implement MovementMessage */
+
+    /** {@inheritDoc} */
+    public Coordinate getLocation() {
+        if (location == null) {
+            location = new Coordinate(buffer.getFloat(offset),
+                                      buffer.getFloat(offset + 4),
+                                      buffer.getFloat(offset + 8));
+        }
+        return location;
+    }
+
+    /** {@inheritDoc} */
+    public float getSpeed() {
+        return buffer.getFloat(offset + 12);
+    }
+
+    /* Implement PrioritizedMessage */
+
+    /** Movement is sent unreliably, so only the latest update matters. */
+    public DeliveryClass getDeliveryClass() {
+        return DeliveryClass.UNRELIABLE_SEQUENCED;
+    }
+
+    /* Implement SupersedableMessage */
+
+    /** Only the latest movement matters, so any update may be replaced. */
+    public boolean isSupersedable() {
+        return true;
+    }
+
+    /* Implement MessageView */
+
+    /** Movement messages have their own header. */
+    protected boolean hasStandardHeader() {
+        return false;
+    }
+
+    /** {@inheritDoc} */
+    protected void writeHeader(ByteBuffer target) {
+        target.putShort(getMessageId());
+    }
+
+    /** {@inheritDoc} */
+    protected Message materialize() {
+        return new MovementMessageImpl(getLocation(), getSpeed(), getSender());
+    }
+
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.glieseframework.message.common.impl;
+
+import java.nio.ByteBuffer;
+
+import java.util.Arrays;
+import java.util.Queue;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+
+/**
+ * Compresses and inflates message payloads. Compression is off until a
+ * threshold is set with {@code setThreshold}, which the
+ * {@code MessageService} does at startup. After that, payloads of at least
+ * the threshold size are deflated when they are encoded, provided that the
+ * result is actually smaller. Compressed payloads are only inflated while
+ * compression is on, so that a deployment without compression never
+ * inflates anything a client sends. Output is grown as it is inflated, and
+ * the declared length may be at most {@code MAX_RATIO} times the compressed
+ * size, so a small message can't force a large allocation.
+ * <p>
+ * {@code Deflater}s and {@code Inflater}s hold native memory and are
+ * expensive to create, so a small number of each are pooled and reset
+ * between uses rather than created for every message.
+ */
+public final class PayloadCompressor {
+
+    /** The largest payload that will be inflated. */
+    public static final int MAX_INFLATED_LENGTH = 1 << 20;
+
+    /**
+     * The most that a payload may expand when inflated, which is the
+     * largest ratio that deflate can achieve.
+     */
+    public static final int MAX_RATIO = 1032;
+
+    // the smallest output buffer to start inflating into
+    private static final int MIN_OUTPUT = 64;
+
+    // the most idle instances of each kind to keep
+    private static final int POOL_LIMIT = 16;
+
+    // the smallest payload to compress, or 0 if compression is off
+    private static volatile int threshold = 0;
+
+    // the pooled instances, with counts since queue size isn't constant
+    private static final Queue<Deflater> deflaters =
+        new ConcurrentLinkedQueue<Deflater>();
+    private static final AtomicInteger deflaterCount = new AtomicInteger();
+    private static final Queue<Inflater> inflaters =
+        new ConcurrentLinkedQueue<Inflater>();
+    private static final AtomicInteger inflaterCount = new AtomicInteger();
+
+    /** Not instantiable. */
+    private PayloadCompressor() { }
+
+    /**
+     * Sets the smallest payload, in bytes, that will be compressed. A value
+     * of {@code 0} turns compression off.
+     *
+     * @param bytes the compression threshold
+     */
+    public static void setThreshold(int bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Threshold must not be " +
+                                               "negative");
+        }
+        threshold = bytes;
+    }
+
+    /**
+     * Returns the current compression threshold.
+     *
+     * @return the threshold in bytes, or {@code 0} if compression is off
+     */
+    public static int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Deflates the first {@code length} bytes of the given array if
+     * compression is on and {@code length} is at least the threshold.
+     *
+     * @param payload the encoded payload
+     * @param length the number of bytes of payload
+     *
+     * @return the compressed bytes, or {@code null} if the payload should
+     *         be sent uncompressed
+     */
+    static byte [] compress(byte [] payload, int length) {
+        int limit = threshold;
+        if ((limit == 0) || (length < limit)) {
+            return null;
+        }
+        // only worth sending if it saves space, including the length field
+        int maxLength = length - VarInts.length(length) - 1;
+        if (maxLength <= 0) {
+            return null;
+        }
+        byte [] output = new byte[maxLength];
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater();
+        } else {
+            deflaterCount.decrementAndGet();
+        }
+        try {
+            deflater.setInput(payload, 0, length);
+            deflater.finish();
+            int count = deflater.deflate(output);
+            if (! deflater.finished()) {
+                return null;
+            }
+            byte [] compressed = new byte[count];
+            System.arraycopy(output, 0, compressed, 0, count);
+            return compressed;
+        } finally {
+            deflater.reset();
+            if (deflaterCount.incrementAndGet() <= POOL_LIMIT) {
+                deflaters.offer(deflater);
+            } else {
+                deflaterCount.decrementAndGet();
+                deflater.end();
+            }
+        }
+    }
+
+    /**
+     * Inflates all of the remaining bytes in the buffer, which must expand
+     * to exactly {@code length} bytes. The buffer's position is moved to
+     * its limit.
+     *
+     * @param source the compressed payload
+     * @param length the uncompressed length of the payload
+     *
+     * @return a buffer containing the uncompressed payload
+     *
+     * @throws IllegalArgumentException if compression is off, or the
+     *                                  payload is malformed
+     */
+    static ByteBuffer inflate(ByteBuffer source, int length) {
+        if (threshold == 0) {
+            throw new IllegalArgumentException("Compressed payloads are " +
+                                               "not enabled");
+        }
+        int count = source.remaining();
+        if ((length < 0) || (length > MAX_INFLATED_LENGTH) ||
+            (length > (long) count * MAX_RATIO))
+        {
+            throw new IllegalArgumentException("Invalid payload length: " +
+                                               length);
+        }
+        byte [] input;
+        int offset;
+        if (source.hasArray()) {
+            input = source.array();
+            offset = source.arrayOffset() + source.position();
+        } else {
+            input = new byte[count];
+            source.duplicate().get(input);
+            offset = 0;
+        }
+        source.position(source.limit());
+
+        // start small and grow, so that the output is never much larger
+        // than what has actually been inflated
+        byte [] output =
+            new byte[Math.min(length, Math.max(MIN_OUTPUT, count * 4))];
+        Inflater inflater = inflaters.poll();
+        if (inflater == null) {
+            inflater = new Inflater();
+        } else {
+            inflaterCount.decrementAndGet();
+        }
+        try {
+            inflater.setInput(input, offset, count);
+            int inflated = 0;
+            while (! inflater.finished()) {
+                if (inflated == output.length) {
+                    if (output.length == length) {
+                        throw new IllegalArgumentException("Compressed " +
+                                                           "payload is too " +
+                                                           "long");
+                    }
+                    output = Arrays.copyOf(output, (int) Math.min(
+                                               length, output.length * 2L));
+                }
+                int n = inflater.inflate(output, inflated,
+                                         output.length - inflated);
+                if ((n == 0) && (! inflater.finished()) &&
+                    (inflated < output.length))
+                {
+                    throw new IllegalArgumentException("Compressed payload " +
+                                                       "is truncated");
+                }
+                inflated += n;
+            }
+            if (inflated != length) {
+                throw new IllegalArgumentException("Compressed payload " +
+                                                   "has the wrong length");
+            }
+            return ByteBuffer.wrap(output);
+        } catch (DataFormatException dfe) {
+            throw new IllegalArgumentException("Invalid compressed payload",
+                                               dfe);
+        } finally {
+            inflater.reset();
+            if (inflaterCount.incrementAndGet() <= POOL_LIMIT) {
+                inflaters.offer(inflater);
+            } else {
+                inflaterCount.decrementAndGet();
+                inflater.end();
+            }
+        }
+    }
+
+}
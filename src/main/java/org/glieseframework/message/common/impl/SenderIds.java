@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.glieseframework.message.common.impl;
+
+import com.sun.sgs.app.AppContext;
+import com.sun.sgs.app.ManagerNotFoundException;
+
+import org.glieseframework.core.Entity;
+import org.glieseframework.core.EntityManager;
+import org.glieseframework.core.Player;
+
+
+/**
+ * Converts between message senders and the compact identifiers written in
+ * the standard header, using the {@code EntityManager}. If the manager
+ * isn't configured then senders are simply not identified on the wire.
+ */
+final class SenderIds {
+
+    /** Not instantiable. */
+    private SenderIds() { }
+
+    /**
+     * Returns the identifier for the given sender, or {@code 0} if the
+     * sender can't be identified.
+     */
+    static int idOf(Entity sender) {
+        if (! (sender instanceof Player)) {
+            return 0;
+        }
+        try {
+            return AppContext.getManager(EntityManager.class).
+                getEntityId((Player) sender);
+        } catch (ManagerNotFoundException mnfe) {
+            return 0;
+        }
+    }
+
+    /**
+     * Returns the sender with the given identifier, or {@code null} if the
+     * identifier is {@code 0} or can't be resolved.
+     */
+    static Entity resolve(int senderId) {
+        if (senderId == 0) {
+            return null;
+        }
+        try {
+            return AppContext.getManager(EntityManager.class).
+                getPlayer(senderId);
+        } catch (ManagerNotFoundException mnfe) {
+            return null;
+        }
+    }
+
+}
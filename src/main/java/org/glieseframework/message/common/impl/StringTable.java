@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.glieseframework.message.common.impl;
+
+import java.nio.ByteBuffer;
+
+import java.nio.charset.Charset;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * A table of frequently sent strings, such as mode names, group names and
+ * system chat, each of which is given a small integer token. A message
+ * whose string is in the table sends the token as a {@code VarInts} value
+ * and sets {@code MessageHeader.FLAG_TOKEN}, rather than sending the text.
+ * The encoded form of each registered string is also kept, so sending one
+ * never encodes it again.
+ * <p>
+ * Tokens are assigned in the order that strings are registered, starting
+ * at {@code 1}, and can't be removed. Clients must register the same
+ * strings in the same order, so the table is normally loaded once at
+ * startup by the {@code MessageService}. All strings are encoded as
+ * UTF-8, whether or not they are in the table.
+ */
+public final class StringTable {
+
+    /**
+     * The bound on tokens, which are always less than this value, so at
+     * most {@code MAX_SIZE - 1} strings may be registered.
+     */
+    public static final int MAX_SIZE = 1 << 16;
+
+    // the charset used for all message strings
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // the registered strings, indexed by token, which is replaced rather
+    // than modified so that it can be read without locking
+    private static volatile String [] strings = new String[1];
+
+    // the entry for each registered string
+    private static final ConcurrentHashMap<String,Entry> entries =
+        new ConcurrentHashMap<String,Entry>();
+
+    /** Not instantiable. */
+    private StringTable() { }
+
+    /**
+     * Registers the given string, if it isn't already registered.
+     *
+     * @param value the string to register
+     *
+     * @return the token for the string
+     *
+     * @throws IllegalStateException if the table is full
+     */
+    public static synchronized int register(String value) {
+        Entry entry = entries.get(value);
+        if (entry != null) {
+            return entry.token;
+        }
+        String [] current = strings;
+        if (current.length >= MAX_SIZE) {
+            throw new IllegalStateException("String table is full");
+        }
+        String [] updated = new String[current.length + 1];
+        System.arraycopy(current, 0, updated, 0, current.length);
+        int token = current.length;
+        updated[token] = value;
+        entries.put(value, new Entry(token, value.getBytes(UTF8)));
+        strings = updated;
+        return token;
+    }
+
+    /**
+     * Returns the token for the given string.
+     *
+     * @param value the string
+     *
+     * @return the token, or {@code 0} if the string isn't registered
+     */
+    public static int tokenOf(String value) {
+        Entry entry = entries.get(value);
+        return entry == null ? 0 : entry.token;
+    }
+
+    /**
+     * Returns the string for the given token.
+     *
+     * @param token the token
+     *
+     * @return the registered string
+     *
+     * @throws IllegalArgumentException if the token isn't registered
+     */
+    public static String get(int token) {
+        String [] current = strings;
+        if ((token <= 0) || (token >= current.length)) {
+            throw new IllegalArgumentException("Unknown string token: " +
+                                               token);
+        }
+        return current[token];
+    }
+
+    /**
+     * Returns the encoded token for the given string, or {@code null} if the
+     * string isn't registered. The returned array must not be modified.
+     */
+    static byte [] tokenBytes(String value) {
+        Entry entry = entries.get(value);
+        return entry == null ? null : entry.tokenBytes;
+    }
+
+    /**
+     * Returns the UTF-8 form of the given string, which is cached if the
+     * string is registered. The returned array must not be modified.
+     */
+    static byte [] encode(String value) {
+        Entry entry = entries.get(value);
+        return entry == null ? value.getBytes(UTF8) : entry.bytes;
+    }
+
+    /**
+     * Reads a string from the remaining contents of the given buffer, which
+     * is either a token or the UTF-8 form of the string.
+     *
+     * @param payload the buffer to read
+     * @param token whether the buffer contains a token
+     *
+     * @return the string
+     *
+     * @throws IllegalArgumentException if the token isn't registered
+     */
+    static String read(ByteBuffer payload, boolean token) {
+        if (token) {
+            return get(VarInts.read(payload));
+        }
+        int length = payload.remaining();
+        if (payload.hasArray()) {
+            String value = new String(payload.array(), payload.arrayOffset() +
+                                      payload.position(), length, UTF8);
+            payload.position(payload.limit());
+            return value;
+        }
+        byte [] bytes = new byte[length];
+        payload.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * Returns the length of the given string when it is embedded among
+     * other fields, as written by {@code writeEmbedded}.
+     */
+    static int embeddedLength(String value) {
+        Entry entry = entries.get(value);
+        if (entry != null) {
+            return VarInts.length(entry.token << 1 | 1);
+        }
+        int length = encode(value).length;
+        return VarInts.length(length << 1) + length;
+    }
+
+    /**
+     * Writes a string that is embedded among other fields, so it can't use
+     * the header's token flag. This is a {@code VarInts} value whose low
+     * bit is set for a token, which is held in the other bits, and clear
+     * for a string, whose UTF-8 length is held in the other bits and whose
+     * bytes follow.
+     */
+    static void writeEmbedded(ByteBuffer target, String value) {
+        Entry entry = entries.get(value);
+        if (entry != null) {
+            VarInts.write(target, entry.token << 1 | 1);
+        } else {
+            byte [] bytes = encode(value);
+            VarInts.write(target, bytes.length << 1);
+            target.put(bytes);
+        }
+    }
+
+    /**
+     * Reads a string written by {@code writeEmbedded}.
+     *
+     * @throws IllegalArgumentException if the token isn't registered, or
+     *                                  the string is truncated
+     */
+    static String readEmbedded(ByteBuffer source) {
+        int value = VarInts.read(source);
+        if ((value & 1) != 0) {
+            return get(value >>> 1);
+        }
+        int length = value >>> 1;
+        if (length > source.remaining()) {
+            throw new IllegalArgumentException("Truncated string");
+        }
+        ByteBuffer bytes = source.slice();
+        bytes.limit(length);
+        source.position(source.position() + length);
+        return read(bytes, false);
+    }
+
+    /** The token and encoded forms of a registered string. */
+    private static final class Entry {
+        final int token;
+        final byte [] bytes;
+        final byte [] tokenBytes;
+        Entry(int token, byte [] bytes) {
+            this.token = token;
+            this.bytes = bytes;
+            ByteBuffer buffer = ByteBuffer.allocate(VarInts.length(token));
+            VarInts.write(buffer, token);
+            this.tokenBytes = buffer.array();
+        }
+    }
+
+}
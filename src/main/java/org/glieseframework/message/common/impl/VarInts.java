@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.glieseframework.message.common.impl;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * Utility methods for reading and writing variable-length integers. Values
+ * are written seven bits at a time, least significant group first, with the
+ * high bit of each byte set when more bytes follow. Signed values are first
+ * zig-zag encoded so that small negative values are also short.
+ */
+public final class VarInts {
+
+    /** The largest number of bytes used to encode an {@code int}. */
+    public static final int MAX_LENGTH = 5;
+
+    private VarInts() {}
+
+    /**
+     * Returns the number of bytes needed to write the given value as an
+     * unsigned variable-length integer.
+     *
+     * @param value the value, treated as unsigned
+     *
+     * @return the encoded length in bytes
+     */
+    public static int length(int value) {
+        if ((value & ~0x7f) == 0) {
+            return 1;
+        }
+        if ((value & ~0x3fff) == 0) {
+            return 2;
+        }
+        if ((value & ~0x1fffff) == 0) {
+            return 3;
+        }
+        if ((value & ~0xfffffff) == 0) {
+            return 4;
+        }
+        return MAX_LENGTH;
+    }
+
+    /**
+     * Returns the number of bytes needed to write the given value as a
+     * signed variable-length integer.
+     *
+     * @param value the value
+     *
+     * @return the encoded length in bytes
+     */
+    public static int signedLength(int value) {
+        return length(zigZag(value));
+    }
+
+    /**
+     * Writes the given value as an unsigned variable-length integer.
+     *
+     * @param target the buffer to write to
+     * @param value the value, treated as unsigned
+     */
+    public static void write(ByteBuffer target, int value) {
+        while ((value & ~0x7f) != 0) {
+            target.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        target.put((byte) value);
+    }
+
+    /**
+     * Writes the given value as a signed variable-length integer.
+     *
+     * @param target the buffer to write to
+     * @param value the value
+     */
+    public static void writeSigned(ByteBuffer target, int value) {
+        write(target, zigZag(value));
+    }
+
+    /**
+     * Reads an unsigned variable-length integer.
+     *
+     * @param source the buffer to read from
+     *
+     * @return the value
+     *
+     * @throws IllegalArgumentException if the value is malformed
+     */
+    public static int read(ByteBuffer source) {
+        int value = 0;
+        for (int shift = 0; shift < 7 * MAX_LENGTH; shift += 7) {
+            byte b = source.get();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed variable-length " +
+                                           "integer");
+    }
+
+    /**
+     * Reads a signed variable-length integer.
+     *
+     * @param source the buffer to read from
+     *
+     * @return the value
+     *
+     * @throws IllegalArgumentException if the value is malformed
+     */
+    public static int readSigned(ByteBuffer source) {
+        int value = read(source);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /** Maps signed values onto unsigned values, small magnitudes first. */
+    private static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+}
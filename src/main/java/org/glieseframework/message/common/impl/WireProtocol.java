@@ -0,0 +1,338 @@
+/*
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.glieseframework.message.common.impl;
+
+import org.glieseframework.message.Message;
+import org.glieseframework.message.VersionedMessage;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * Reads and writes the parts of the wire protocol that differ between
+ * versions. A version {@code 1} message starts with its identifier as a
+ * short. A later version starts with a marker byte of {@code 0xF0} plus
+ * the version, followed by the identifier as a {@code VarInts} value, so
+ * the version of every message is known from its first byte and both
+ * versions can arrive on the same session. Because of this, message
+ * identifiers from {@code 0xF000} upwards are reserved.
+ * <p>
+ * In version {@code 2} the standard header sets
+ * {@code MessageHeader.FLAG_VARINT_SENDER} and writes the sender as a
+ * {@code VarInts} value, and may add a field-presence bitmap. Messages
+ * with their own header keep it, less the leading identifier.
+ * <p>
+ * The version used to send to a client is negotiated implicitly: a client
+ * that sends a version {@code 2} message is sent version {@code 2}
+ * messages from then on, and every other client is sent version
+ * {@code 1}.
+ */
+public final class WireProtocol {
+
+    /** The version that every client understands. */
+    public static final int BASE_VERSION = 1;
+
+    /** The latest version supported. */
+    public static final int CURRENT_VERSION = 2;
+
+    /** The first message identifier reserved for version markers. */
+    public static final int FIRST_RESERVED_ID = 0xF000;
+
+    // the high bits of a version marker byte, and the mask of the version
+    private static final int MARKER_BITS = 0xF0;
+    private static final int VERSION_MASK = 0x0F;
+
+    /** Not instantiable. */
+    private WireProtocol() { }
+
+    /**
+     * Returns the protocol version of the message at the buffer's
+     * position, without moving the position.
+     *
+     * @param messageBuffer the encoded message
+     *
+     * @return the protocol version, or {@code BASE_VERSION} if the buffer
+     *         is empty
+     */
+    public static int peekVersion(ByteBuffer messageBuffer) {
+        if (! messageBuffer.hasRemaining()) {
+            return BASE_VERSION;
+        }
+        int first = messageBuffer.get(messageBuffer.position()) & 0xff;
+        return (first & MARKER_BITS) == MARKER_BITS ?
+            first & VERSION_MASK : BASE_VERSION;
+    }
+
+    /**
+     * Reads the message identifier, in either version, leaving the buffer
+     * positioned at the rest of the message.
+     *
+     * @param messageBuffer the encoded message
+     *
+     * @return the message identifier
+     *
+     * @throws IllegalArgumentException if the version isn't supported
+     */
+    public static short readMessageId(ByteBuffer messageBuffer) {
+        int version = peekVersion(messageBuffer);
+        if (version == BASE_VERSION) {
+            return messageBuffer.getShort();
+        }
+        if (version != CURRENT_VERSION) {
+            throw new IllegalArgumentException("Unsupported protocol " +
+                                               "version: " + version);
+        }
+        messageBuffer.get();
+        int id = VarInts.read(messageBuffer);
+        if ((id & ~0xffff) != 0) {
+            throw new IllegalArgumentException("Invalid message identifier");
+        }
+        return (short) id;
+    }
+
+    /**
+     * Returns the message identifier at the buffer's position, without
+     * moving the position. This reads the buffer directly rather than
+     * through a duplicate, so it doesn't allocate.
+     *
+     * @param messageBuffer the encoded message
+     *
+     * @return the unsigned message identifier, or {@code -1} if it can't be
+     *         read
+     */
+    public static int peekMessageId(ByteBuffer messageBuffer) {
+        int end = identifierEnd(messageBuffer);
+        if (end < 0) {
+            return -1;
+        }
+        int position = messageBuffer.position();
+        if (peekVersion(messageBuffer) == BASE_VERSION) {
+            return messageBuffer.getShort(position) & 0xffff;
+        }
+        int id = 0;
+        for (int i = position + 1, shift = 0; i < end; i++, shift += 7) {
+            id |= (messageBuffer.get(i) & 0x7f) << shift;
+        }
+        return (id & ~0xffff) == 0 ? id : -1;
+    }
+
+    /**
+     * Returns the header flags that follow the message identifier at the
+     * buffer's position, without moving the position or allocating. This
+     * is only meaningful for messages with the standard header described
+     * by {@code MessageHeader}.
+     *
+     * @param messageBuffer the encoded message
+     *
+     * @return the flags as an unsigned value, or {@code -1} if they can't
+     *         be read
+     */
+    public static int peekHeaderFlags(ByteBuffer messageBuffer) {
+        int end = identifierEnd(messageBuffer);
+        if ((end < 0) || (end >= messageBuffer.limit())) {
+            return -1;
+        }
+        return messageBuffer.get(end) & 0xff;
+    }
+
+    /**
+     * Returns the index just after the message identifier at the buffer's
+     * position, or {@code -1} if the identifier is truncated or the
+     * version isn't supported.
+     */
+    private static int identifierEnd(ByteBuffer messageBuffer) {
+        int position = messageBuffer.position();
+        int limit = messageBuffer.limit();
+        int version = peekVersion(messageBuffer);
+        if (version == BASE_VERSION) {
+            return limit - position >= 2 ? position + 2 : -1;
+        }
+        if (version != CURRENT_VERSION) {
+            return -1;
+        }
+        int max = position + 1 + VarInts.MAX_LENGTH;
+        for (int i = position + 1; (i < limit) && (i < max); i++) {
+            if ((messageBuffer.get(i) & 0x80) == 0) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the encoded form of the given message in the given version.
+     * Messages that don't implement {@code VersionedMessage} are always
+     * encoded with the base version.
+     *
+     * @param message the message
+     * @param version the protocol version
+     *
+     * @return a read-only buffer containing the encoded message
+     */
+    public static ByteBuffer encodeMessage(Message message, int version) {
+        if ((version != BASE_VERSION) &&
+            (message instanceof VersionedMessage))
+        {
+            return ((VersionedMessage) message).encodeMessage(version);
+        }
+        return message.encodeMessage();
+    }
+
+    /**
+     * Returns the length of the given message encoded with the given
+     * version. Messages that don't implement {@code VersionedMessage} are
+     * always encoded with the base version.
+     *
+     * @param message the message
+     * @param version the protocol version
+     *
+     * @return the encoded length
+     */
+    public static int encodedLength(Message message, int version) {
+        if ((version != BASE_VERSION) &&
+            (message instanceof VersionedMessage))
+        {
+            return ((VersionedMessage) message).encodedLength(version);
+        }
+        return message.encodedLength();
+    }
+
+    /**
+     * Encodes the given message with the given version. Messages that don't
+     * implement {@code VersionedMessage} are always encoded with the base
+     * version.
+     *
+     * @param message the message
+     * @param target the buffer to write the encoded message into
+     * @param version the protocol version
+     */
+    public static void encodeInto(Message message, ByteBuffer target,
+                                  int version)
+    {
+        if ((version != BASE_VERSION) &&
+            (message instanceof VersionedMessage))
+        {
+            ((VersionedMessage) message).encodeInto(target, version);
+        } else {
+            message.encodeInto(target);
+        }
+    }
+
+    /**
+     * Checks that the given version can be written.
+     *
+     * @param version the protocol version
+     *
+     * @throws IllegalArgumentException if the version isn't supported
+     */
+    public static void checkVersion(int version) {
+        if ((version < BASE_VERSION) || (version > CURRENT_VERSION)) {
+            throw new IllegalArgumentException("Unsupported protocol " +
+                                               "version: " + version);
+        }
+    }
+
+    /**
+     * Returns the length of the marker and identifier that replace the
+     * short identifier in a version {@code 2} message.
+     */
+    static int prefixLength(short messageId) {
+        return 1 + VarInts.length(messageId & 0xffff);
+    }
+
+    /**
+     * Returns the length of a version {@code 2} standard header, given the
+     * sender identifier, or {@code 0}, and the presence bitmap, or
+     * {@code 0}.
+     */
+    static int standardHeaderLength(short messageId, int senderId,
+                                    int presence)
+    {
+        int length = prefixLength(messageId) + 1;
+        if (senderId != 0) {
+            length += VarInts.length(senderId);
+        }
+        if (presence != 0) {
+            length += VarInts.length(presence);
+        }
+        return length;
+    }
+
+    /**
+     * Writes a version {@code 2} standard header. The given flags may
+     * include {@code MessageHeader.FLAG_COMPRESSED} and
+     * {@code MessageHeader.FLAG_TOKEN}, and the sender and presence flags
+     * are added as needed.
+     */
+    static void writeStandardHeader(ByteBuffer target, short messageId,
+                                    byte flags, int senderId, int presence)
+    {
+        writePrefix(target, messageId);
+        if (senderId != 0) {
+            flags |= MessageHeader.FLAG_SENDER |
+                MessageHeader.FLAG_VARINT_SENDER;
+        }
+        if (presence != 0) {
+            flags |= MessageHeader.FLAG_PRESENCE;
+        }
+        target.put(flags);
+        if (senderId != 0) {
+            VarInts.write(target, senderId);
+        }
+        if (presence != 0) {
+            VarInts.write(target, presence);
+        }
+    }
+
+    /**
+     * Rewrites the short identifier written by a message's own
+     * {@code writeHeader} as a version {@code 2} prefix. The caller must
+     * have positioned the buffer at
+     * {@code start + prefixLength(messageId) - 2} before the header was
+     * written, so that the prefix ends exactly where the short identifier
+     * ended. This converts a custom header without copying it.
+     */
+    static void rewritePrefix(ByteBuffer target, int start, short messageId) {
+        int end = target.position();
+        target.position(start);
+        writePrefix(target, messageId);
+        target.position(end);
+    }
+
+    /** Writes the version marker and the variable-length identifier. */
+    private static void writePrefix(ByteBuffer target, short messageId) {
+        target.put((byte) (MARKER_BITS | CURRENT_VERSION));
+        VarInts.write(target, messageId & 0xffff);
+    }
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.glieseframework.message.codec.sample;
+
+import org.glieseframework.game.Coordinate;
+
+import org.glieseframework.message.Message;
+
+import org.glieseframework.message.codec.MessageCodec;
+
+
+/**
+ * A sample message whose {@code Spec}, {@code Handler} and {@code Impl}
+ * classes are generated by {@code MessageCodecProcessor} when the test
+ * sources are compiled, so that every build checks that the generated code
+ * compiles. It covers each kind of field that needs special handling.
+ */
+@MessageCodec
+public interface WaypointMessage extends Message {
+
+    /** The identifier used for sample waypoint messages. */
+    short STANDARD_ID = 100;
+
+    /**
+     * Returns the name of the waypoint.
+     *
+     * @return the name
+     */
+    String getLabel();
+
+    /**
+     * Returns the location of the waypoint.
+     *
+     * @return the location
+     */
+    Coordinate getLocation();
+
+    /**
+     * Returns the number of the waypoint along its route.
+     *
+     * @return the index
+     */
+    int getIndex();
+
+    /**
+     * Returns whether the waypoint is the last on its route.
+     *
+     * @return {@code true} if this is the last waypoint
+     */
+    boolean isLast();
+
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.glieseframework.message.codec.sample;
+
+import org.glieseframework.game.Coordinate;
+
+import org.glieseframework.message.Message;
+
+import org.glieseframework.message.common.impl.PayloadCompressor;
+import org.glieseframework.message.common.impl.WireProtocol;
+
+import java.nio.ByteBuffer;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Checks that the classes generated by {@code MessageCodecProcessor} for
+ * {@code WaypointMessage} decode what they encode, in each wire protocol
+ * version, and that the lengths they report match what they write.
+ */
+public class WaypointMessageTest {
+
+    // the handler generated for the sample message
+    private final WaypointMessageHandler handler =
+        new WaypointMessageHandler();
+
+    /** Turns compression back off after each test. */
+    @After
+    public void resetCompression() {
+        PayloadCompressor.setThreshold(0);
+    }
+
+    /** Checks a message in both protocol versions. */
+    @Test
+    public void testRoundTrip() {
+        for (int version = WireProtocol.BASE_VERSION;
+             version <= WireProtocol.CURRENT_VERSION; version++)
+        {
+            checkRoundTrip(create("gate", new Coordinate(1.5f, -2, 3), 7,
+                                  true),
+                           version);
+        }
+    }
+
+    /** Checks empty and multi-byte strings, and extreme values. */
+    @Test
+    public void testEdgeValues() {
+        for (int version = WireProtocol.BASE_VERSION;
+             version <= WireProtocol.CURRENT_VERSION; version++)
+        {
+            checkRoundTrip(create("", new Coordinate(0, 0, 0),
+                                  Integer.MIN_VALUE, false),
+                           version);
+            checkRoundTrip(create("\u00e9tape \u65c5", new Coordinate(
+                                      Float.MAX_VALUE, Float.MIN_VALUE,
+                                      Float.NEGATIVE_INFINITY),
+                                  Integer.MAX_VALUE, true),
+                           version);
+        }
+    }
+
+    /** Checks a payload that is long enough to be compressed. */
+    @Test
+    public void testCompressed() {
+        PayloadCompressor.setThreshold(16);
+        StringBuilder label = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            label.append("waypoint ");
+        }
+        for (int version = WireProtocol.BASE_VERSION;
+             version <= WireProtocol.CURRENT_VERSION; version++)
+        {
+            WaypointMessage message =
+                create(label.toString(), new Coordinate(4, 5, 6), 12, false);
+            assertTrue(message.encodedLength() < label.length());
+            checkRoundTrip(message, version);
+        }
+    }
+
+    /** Checks that the decoder leaves the buffer after the message. */
+    @Test
+    public void testDecodeLeavesPosition() {
+        WaypointMessage message =
+            create("a", new Coordinate(1, 2, 3), 1, false);
+        ByteBuffer buffer = ByteBuffer.allocate(message.encodedLength() + 4);
+        message.encodeInto(buffer);
+        buffer.putInt(0x01020304);
+        buffer.flip();
+        short messageId = WireProtocol.readMessageId(buffer);
+        handler.decodeMessage(messageId, buffer);
+        assertEquals(4, buffer.remaining());
+        assertEquals(0x01020304, buffer.getInt());
+    }
+
+    /** Creates a message through the generated spec and handler. */
+    private WaypointMessage create(String label, Coordinate location,
+                                   int index, boolean last)
+    {
+        Message message = handler.createMessage(
+            new WaypointMessageSpec(label, location, index, last));
+        assertEquals(WaypointMessage.STANDARD_ID, message.getMessageId());
+        return (WaypointMessage) message;
+    }
+
+    /**
+     * Checks that the reported length, the encoded form and the bytes
+     * written into a buffer all agree for the given version, and that the
+     * encoded form decodes to the same fields.
+     */
+    private void checkRoundTrip(WaypointMessage message, int version) {
+        ByteBuffer encoded = WireProtocol.encodeMessage(message, version);
+        int length = WireProtocol.encodedLength(message, version);
+        assertEquals(length, encoded.remaining());
+        assertEquals(version, WireProtocol.peekVersion(encoded));
+
+        ByteBuffer target = ByteBuffer.allocate(length + 3);
+        target.put((byte) 0x55);
+        WireProtocol.encodeInto(message, target, version);
+        assertEquals(length + 1, target.position());
+        target.flip();
+        target.get();
+        assertEquals(encoded.duplicate(), target);
+
+        short messageId = WireProtocol.readMessageId(encoded);
+        assertEquals(WaypointMessage.STANDARD_ID, messageId);
+        WaypointMessage decoded =
+            (WaypointMessage) handler.decodeMessage(messageId, encoded);
+        assertFalse(encoded.hasRemaining());
+        assertEquals(message.getLabel(), decoded.getLabel());
+        assertEquals(message.getLocation().x, decoded.getLocation().x, 0);
+        assertEquals(message.getLocation().y, decoded.getLocation().y, 0);
+        assertEquals(message.getLocation().z, decoded.getLocation().z, 0);
+        assertEquals(message.getIndex(), decoded.getIndex());
+        assertEquals(message.isLast(), decoded.isLast());
+        assertEquals(null, decoded.getSender());
+    }
+
+}